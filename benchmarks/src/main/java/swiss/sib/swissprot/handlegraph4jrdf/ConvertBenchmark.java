@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.eclipse.rdf4j.common.net.ParsedIRI;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the conversion of a synthetic graph held in memory. Next to the
+ * conversions per second, the triples and bytes counters give triples/s and
+ * bytes/s. Run with -prof gc for the allocation rate, for example:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ConvertBenchmark -prof gc -p mode=extra -p nodes=1000000
+ * </pre>
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConvertBenchmark {
+	private static final String BASE = "http://example.org/vg/";
+
+	@Param({ "100000" })
+	int nodes;
+
+	@Param({ "32" })
+	int meanSequenceLength;
+
+	@Param({ "GEOMETRIC" })
+	SyntheticGFA.Distribution distribution;
+
+	@Param({ "0.5" })
+	double linkDensity;
+
+	@Param({ "4" })
+	int paths;
+
+	@Param({ "100000" })
+	int stepsPerPath;
+
+	@Param({ "plain", "short", "extra" })
+	String mode;
+
+	@Param({ "text/turtle", "application/n-triples", "application/x-binary-rdf" })
+	String format;
+
+	@Param({ "RIO" })
+	String engine;
+
+	private byte[] gfa;
+	private long triplesPerConversion;
+
+	/**
+	 * Counted per conversion, reported by JMH as a rate per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long triples;
+		public long bytes;
+	}
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException, URISyntaxException {
+		SyntheticGFA generator = new SyntheticGFA();
+		generator.nodes = nodes;
+		generator.meanSequenceLength = meanSequenceLength;
+		generator.distribution = distribution;
+		generator.linkDensity = linkDensity;
+		generator.paths = paths;
+		generator.stepsPerPath = stepsPerPath;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		generator.write(out);
+		gfa = out.toByteArray();
+
+		// Every line of N-Triples is one triple.
+		GFA2RDF counting = converter();
+		counting.engine = GFA2RDF.Engine.DIRECT;
+		ByteArrayOutputStream ntriples = new ByteArrayOutputStream();
+		counting.writeConvertedToOutputStream(ntriples, new ParsedIRI(BASE), lines());
+		triplesPerConversion = ntriples.toString(StandardCharsets.US_ASCII).lines().count();
+	}
+
+	@Benchmark
+	public void convert(Counters counters) throws IOException, URISyntaxException {
+		CountingOutputStream out = new CountingOutputStream();
+		GFA2RDF converter = converter();
+		converter.engine = GFA2RDF.Engine.valueOf(engine);
+		try (Stream<String> lines = lines()) {
+			converter.writeConvertedToOutputStream(out, new ParsedIRI(BASE), lines);
+		}
+		counters.triples += triplesPerConversion;
+		counters.bytes += out.count;
+	}
+
+	private GFA2RDF converter() {
+		GFA2RDF converter = new GFA2RDF();
+		converter.preCompress = "short".equals(mode);
+		converter.extra = "extra".equals(mode);
+		converter.format = format;
+		return converter;
+	}
+
+	private Stream<String> lines() {
+		return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(gfa), StandardCharsets.US_ASCII))
+				.lines();
+	}
+
+	/**
+	 * Discards the output, only counting its size.
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Generates a GFA1 pangenome like graph. The nodes form a chain, with extra
+ * links that skip ahead, and every path walks along the chain taking some of
+ * those bubbles. The same seed and settings always give the same graph.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+@Command(name = "synthetic-gfa", mixinStandardHelpOptions = true, description = "Generates a synthetic GFA1 graph")
+public class SyntheticGFA implements Callable<Integer> {
+	private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+	private static final int MAX_SKIP = 8;
+
+	/**
+	 * How the sequence lengths of the nodes are spread around their mean.
+	 */
+	public enum Distribution {
+		/**
+		 * Every node has the mean length.
+		 */
+		FIXED,
+		/**
+		 * Uniform between 1 and twice the mean.
+		 */
+		UNIFORM,
+		/**
+		 * Mostly short nodes with a long tail, like the output of vg and odgi.
+		 */
+		GEOMETRIC
+	}
+
+	@Parameters(index = "0", description = "The GFA file to write")
+	private File outputFile;
+
+	@Option(names = { "--nodes" }, description = "number of segments", defaultValue = "100000")
+	int nodes = 100_000;
+
+	@Option(names = { "--mean-sequence-length" }, description = "mean length of the segment sequences", defaultValue = "32")
+	int meanSequenceLength = 32;
+
+	@Option(names = { "--distribution" }, description = "distribution of the sequence lengths: ${COMPLETION-CANDIDATES}", defaultValue = "GEOMETRIC")
+	Distribution distribution = Distribution.GEOMETRIC;
+
+	@Option(names = { "--link-density" }, description = "mean number of links per node on top of the chain", defaultValue = "0.5")
+	double linkDensity = 0.5;
+
+	@Option(names = { "--paths" }, description = "number of paths", defaultValue = "8")
+	int paths = 8;
+
+	@Option(names = { "--steps-per-path" }, description = "number of steps in each path", defaultValue = "100000")
+	int stepsPerPath = 100_000;
+
+	@Option(names = { "--seed" }, description = "seed of the random generator", defaultValue = "42")
+	long seed = 42;
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new SyntheticGFA()).execute(args));
+	}
+
+	@Override
+	public Integer call() throws IOException {
+		try (OutputStream out = new FileOutputStream(outputFile)) {
+			write(out);
+		}
+		return 0;
+	}
+
+	/**
+	 * Write the graph, segments first, then links, then paths.
+	 */
+	public void write(OutputStream out) throws IOException {
+		SplittableRandom random = new SplittableRandom(seed);
+		BufferedOutputStream gfa = new BufferedOutputStream(out, 1024 * 1024);
+		gfa.write(ascii("H\tVN:Z:1.0\n"));
+		for (int node = 1; node <= nodes; node++) {
+			gfa.write(ascii("S\t" + node + '\t'));
+			int length = sequenceLength(random);
+			for (int i = 0; i < length; i++) {
+				gfa.write(BASES[random.nextInt(BASES.length)]);
+			}
+			gfa.write('\n');
+		}
+		for (int node = 1; node < nodes; node++) {
+			writeLink(gfa, node, '+', node + 1, '+');
+			double extraLinks = linkDensity;
+			while (extraLinks >= 1 || random.nextDouble() < extraLinks) {
+				int to = Math.min(nodes, node + 1 + random.nextInt(1, MAX_SKIP));
+				writeLink(gfa, node, orientation(random), to, orientation(random));
+				extraLinks--;
+			}
+		}
+		for (int path = 0; path < paths; path++) {
+			gfa.write(ascii("P\tpath" + path + '\t'));
+			int node = 1 + random.nextInt(nodes);
+			for (int step = 0; step < stepsPerPath; step++) {
+				if (step > 0) {
+					gfa.write(',');
+				}
+				gfa.write(ascii(Integer.toString(node)));
+				gfa.write(orientation(random));
+				// Mostly follow the chain, sometimes take a bubble.
+				node += random.nextDouble() < 0.1 ? 2 : 1;
+				if (node > nodes) {
+					node = 1;
+				}
+			}
+			gfa.write(ascii("\t*\n"));
+		}
+		gfa.flush();
+	}
+
+	private int sequenceLength(SplittableRandom random) {
+		switch (distribution) {
+		case UNIFORM:
+			return random.nextInt(1, 2 * meanSequenceLength);
+		case GEOMETRIC:
+			double p = 1d / meanSequenceLength;
+			return 1 + (int) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+		default:
+			return meanSequenceLength;
+		}
+	}
+
+	private static void writeLink(OutputStream gfa, int from, char fromOrientation, int to, char toOrientation)
+			throws IOException {
+		gfa.write(ascii("L\t" + from + '\t' + fromOrientation + '\t' + to + '\t' + toOrientation + "\t0M\n"));
+	}
+
+	private static char orientation(SplittableRandom random) {
+		return random.nextInt(20) == 0 ? '-' : '+';
+	}
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
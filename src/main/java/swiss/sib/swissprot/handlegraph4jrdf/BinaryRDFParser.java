@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFParser;
+
+/**
+ * Rio's view of the {@link BinaryRDFReader}, so that the output of
+ * {@code --engine BINARY} can be given to {@code Rio.parse} and anything else
+ * that takes an {@link RDFFormat}. Registered through
+ * {@link BinaryRDFParserFactory}.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public final class BinaryRDFParser extends AbstractRDFParser {
+	/**
+	 * The dictionary encoded binary RDF written by {@code --engine BINARY}.
+	 */
+	public static final RDFFormat FORMAT = new RDFFormat("GFA2RDF binary", "application/x-gfa2rdf-binary", null,
+			"gfa2rdf", true, false, false);
+
+	@Override
+	public RDFFormat getRDFFormat() {
+		return FORMAT;
+	}
+
+	/**
+	 * @param baseURI not used, the format holds absolute IRIs
+	 */
+	@Override
+	public void parse(InputStream in, String baseURI) throws IOException, RDFParseException, RDFHandlerException {
+		RDFHandler handler = getRDFHandler() == null ? new AbstractRDFHandler() {
+		} : getRDFHandler();
+		try {
+			new BinaryRDFReader(in).parse(handler);
+		} catch (EOFException e) {
+			reportFatalError(e);
+		} finally {
+			clear();
+		}
+	}
+
+	/**
+	 * Binary RDF can not be read as characters.
+	 */
+	@Override
+	public void parse(Reader reader, String baseURI) {
+		throw new UnsupportedOperationException(FORMAT + " is binary, it can only be read from an InputStream");
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.CURRENT_PATH;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.END;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.INTEGER;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.NAMED_NODE;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.NODE_NAME;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.NUMBERED_NODE;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.PATH;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.POSITION;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.STEP;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.STRING;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.TERM;
+import static swiss.sib.swissprot.handlegraph4jrdf.BinaryRDFWriter.TRIPLE;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+
+/**
+ * Reads the dictionary encoded binary format of {@link BinaryRDFWriter} as a
+ * stream, handing each triple to an {@link RDFHandler} as soon as it is
+ * decoded. Only the node dictionary is kept in memory. Rio reads the same
+ * format through {@link BinaryRDFParser}.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public final class BinaryRDFReader {
+	private static final ValueFactory VF = SimpleValueFactory.getInstance();
+
+	private final InputStream in;
+	private String nodeNamespace;
+	private IRI[] terms;
+	private final List<IRI> namedNodes = new ArrayList<>();
+	private IRI path;
+	private String pathStepNamespace;
+	private String pathPositionNamespace;
+	private long lastRank;
+	private long lastPosition;
+	private long lastInteger;
+	private byte[] bytes = new byte[256];
+
+	/**
+	 * @param in the binary RDF, buffered by this reader
+	 */
+	public BinaryRDFReader(InputStream in) {
+		this.in = new BufferedInputStream(in);
+	}
+
+	/**
+	 * Read all triples and hand them to the handler, surrounded by the start and
+	 * end of the RDF and the usual namespaces.
+	 *
+	 * @throws IOException when the input is not binary RDF or ends early
+	 */
+	public void parse(RDFHandler handler) throws IOException, RDFHandlerException {
+		readHeader();
+		handler.startRDF();
+		handler.handleNamespace(RDF.PREFIX, RDF.NAMESPACE);
+		handler.handleNamespace(VG.PREFIX, VG.NAMESPACE);
+		handler.handleNamespace(FALDO.PREFIX, FALDO.NAMESPACE);
+		handler.handleNamespace("node", nodeNamespace);
+		int tag;
+		while ((tag = readByte()) != END) {
+			if ((tag & TRIPLE) != 0) {
+				IRI predicate = term(readVarint());
+				Resource subject = (Resource) readValue((tag >>> 4) & 0x7);
+				handler.handleStatement(VF.createStatement(subject, predicate, readValue(tag & 0x7)));
+			} else if (tag == NODE_NAME) {
+				namedNodes.add(VF.createIRI(nodeNamespace, readString()));
+			} else if (tag == PATH) {
+				String pathIRI = readString();
+				path = VF.createIRI(pathIRI);
+				pathStepNamespace = pathIRI + "/step/";
+				pathPositionNamespace = pathIRI + "/position/";
+				lastRank = 0;
+				lastPosition = 0;
+				lastInteger = 0;
+			} else {
+				throw new IOException("Unknown record " + tag + " in binary RDF");
+			}
+		}
+		handler.endRDF();
+	}
+
+	private void readHeader() throws IOException {
+		byte[] magic = new byte[BinaryRDFWriter.MAGIC.length];
+		readFully(magic, magic.length);
+		if (!Arrays.equals(magic, BinaryRDFWriter.MAGIC)) {
+			throw new IOException("Not binary RDF written by GFA2RDF");
+		}
+		long version = readVarint();
+		if (version != BinaryRDFWriter.VERSION) {
+			throw new IOException("Unsupported binary RDF version " + version);
+		}
+		nodeNamespace = readString();
+		terms = new IRI[(int) readVarint()];
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = VF.createIRI(readString());
+		}
+	}
+
+	private Value readValue(int kind) throws IOException {
+		switch (kind) {
+		case NUMBERED_NODE:
+			return VF.createIRI(nodeNamespace, Long.toString(readVarint()));
+		case NAMED_NODE:
+			long id = readVarint();
+			if (id >= namedNodes.size()) {
+				throw new IOException("Node " + id + " is used before it is named");
+			}
+			return namedNodes.get((int) id);
+		case CURRENT_PATH:
+			return currentPath();
+		case STEP:
+			currentPath();
+			lastRank += unzigzag(readVarint());
+			return VF.createIRI(pathStepNamespace + lastRank);
+		case POSITION:
+			currentPath();
+			lastPosition += unzigzag(readVarint());
+			return VF.createIRI(pathPositionNamespace + lastPosition);
+		case TERM:
+			return term(readVarint());
+		case INTEGER:
+			lastInteger += unzigzag(readVarint());
+			// Same datatype choice as the writers: xsd:int when it fits.
+			return VF.createLiteral(Long.toString(lastInteger), lastInteger < Integer.MAX_VALUE ? XSD.INT : XSD.LONG);
+		case STRING:
+			int length = (int) readVarint();
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			readFully(bytes, length);
+			return VF.createLiteral(new String(bytes, 0, length, US_ASCII));
+		default:
+			throw new IOException("Unknown term kind " + kind + " in binary RDF");
+		}
+	}
+
+	private IRI currentPath() throws IOException {
+		if (path == null) {
+			throw new IOException("Step or position outside of a path in binary RDF");
+		}
+		return path;
+	}
+
+	private IRI term(long id) throws IOException {
+		if (id >= terms.length) {
+			throw new IOException("Unknown term " + id + " in binary RDF");
+		}
+		return terms[(int) id];
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private String readString() throws IOException {
+		int length = (int) readVarint();
+		byte[] string = new byte[length];
+		readFully(string, length);
+		return new String(string, UTF_8);
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint longer than 64 bits in binary RDF");
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Binary RDF ends before its end marker");
+		}
+		return b;
+	}
+
+	private void readFully(byte[] into, int length) throws IOException {
+		if (in.readNBytes(into, 0, length) < length) {
+			throw new EOFException("Binary RDF ends before its end marker");
+		}
+	}
+}
@@ -0,0 +1,427 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+
+/**
+ * Writes the triples of a GFA1 graph in a dictionary encoded binary format,
+ * read back by {@link BinaryRDFReader}. It holds the same triples as the
+ * {@link DirectNTriplesWriter} writes, in the same order.
+ * <p>
+ * The header assigns ids to the predicates and classes up front, in the order
+ * of {@link #TERMS}. Nodes with a plain numeric name are referred to by that
+ * number, other nodes get the next id of the node dictionary the first time
+ * they are seen. Each path is announced once, its steps and positions are
+ * then only referred to by their rank and position, delta encoded against the
+ * previous one. All numbers are unsigned LEB128 varints, deltas are zigzag
+ * encoded first.
+ *
+ * <pre>
+ * file    = magic version string(node namespace) varint(term count) string(term)* record* END
+ * record  = NODE_NAME string(name)          the next node dictionary id
+ *         | PATH string(path IRI)          resets the rank and position deltas
+ *         | triple
+ * triple  = tag varint(predicate) subject object
+ * tag     = 0x80 | subject kind &lt;&lt; 4 | object kind
+ * </pre>
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class BinaryRDFWriter implements RecordWriter {
+	static final byte[] MAGIC = "GFA2RDFb".getBytes(US_ASCII);
+	static final int VERSION = 1;
+
+	static final int END = 0x00;
+	static final int NODE_NAME = 0x01;
+	static final int PATH = 0x02;
+	static final int TRIPLE = 0x80;
+
+	/**
+	 * A node by its numeric name, the payload is the number.
+	 */
+	static final int NUMBERED_NODE = 0;
+	/**
+	 * A node by its id in the node dictionary.
+	 */
+	static final int NAMED_NODE = 1;
+	/**
+	 * The current path, without payload.
+	 */
+	static final int CURRENT_PATH = 2;
+	/**
+	 * A step of the current path, the payload is the zigzag delta of its rank.
+	 */
+	static final int STEP = 3;
+	/**
+	 * A position on the current path, the payload is the zigzag delta of the
+	 * position.
+	 */
+	static final int POSITION = 4;
+	/**
+	 * An IRI of the header, the payload is its id.
+	 */
+	static final int TERM = 5;
+	/**
+	 * An xsd:int, or xsd:long when it does not fit, literal. The payload is the
+	 * zigzag delta to the previous integer literal.
+	 */
+	static final int INTEGER = 6;
+	/**
+	 * A plain literal, the payload is its length and bytes.
+	 */
+	static final int STRING = 7;
+
+	static final IRI[] TERMS = { RDF.TYPE, RDF.VALUE, VG.path, VG.rank, VG.node, VG.linksForwardToForward,
+			VG.linksForwardToReverse, VG.linksReverseToForward, VG.linksReverseToReverse, FALDO.begin, FALDO.end,
+			FALDO.position, VG.Node, VG.Path, VG.Step, FALDO.Region, FALDO.Position, FALDO.ExactPosition };
+	private static final int TYPE_ID = 0;
+	private static final int VALUE_ID = 1;
+	private static final int PATH_ID = 2;
+	private static final int RANK_ID = 3;
+	private static final int NODE_ID = 4;
+	private static final int FORWARD_TO_FORWARD_ID = 5;
+	private static final int FORWARD_TO_REVERSE_ID = 6;
+	private static final int REVERSE_TO_FORWARD_ID = 7;
+	private static final int REVERSE_TO_REVERSE_ID = 8;
+	private static final int BEGIN_ID = 9;
+	private static final int END_ID = 10;
+	private static final int POSITION_ID = 11;
+	private static final int NODE_CLASS_ID = 12;
+	private static final int PATH_CLASS_ID = 13;
+	private static final int STEP_CLASS_ID = 14;
+	private static final int REGION_CLASS_ID = 15;
+	private static final int POSITION_CLASS_ID = 16;
+	private static final int EXACT_POSITION_CLASS_ID = 17;
+	private static final int MAX_NUMBERED_NODE_DIGITS = 18;
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int pos = 0;
+
+	private final boolean preCompress;
+	private final boolean extra;
+	private final OffHeapAllocator allocator = new OffHeapAllocator();
+	// Holds the node dictionary id plus one, 0 is not yet seen.
+	private final OffHeapBytesIntMap namedNodes = new OffHeapBytesIntMap(allocator);
+	private int nextNamedNode;
+	private long lastRank;
+	private long lastPosition;
+	private long lastInteger;
+	private final ConversionMetrics metrics;
+	private final LongAdder[] triplesByPredicate = new LongAdder[TERMS.length];
+	private long triples;
+	private boolean closed;
+
+	/**
+	 * @param out         where the binary RDF is written to
+	 * @param base        the base IRI of the graph
+	 * @param preCompress leave out the inferable triples
+	 * @param extra       write the FALDO positions of each step
+	 * @param metrics     counts the triples written by predicate
+	 */
+	BinaryRDFWriter(OutputStream out, String base, boolean preCompress, boolean extra, ConversionMetrics metrics) {
+		this.out = out;
+		this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+		this.preCompress = preCompress;
+		this.extra = extra;
+		this.metrics = metrics;
+		write(MAGIC, 0, MAGIC.length);
+		writeVarint(VERSION);
+		writeString(base + "node/");
+		writeVarint(TERMS.length);
+		for (IRI term : TERMS) {
+			writeString(term.stringValue());
+		}
+	}
+
+	@Override
+	public void startPath(String pathIRI) {
+		writeByte(PATH);
+		writeString(pathIRI);
+		lastRank = 0;
+		lastPosition = 0;
+		lastInteger = 0;
+		triple(CURRENT_PATH, 0, TYPE_ID, TERM, PATH_CLASS_ID);
+	}
+
+	@Override
+	public void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end) {
+		long node = node(line, nodeStart, nodeEnd);
+		if (!preCompress) {
+			triple(STEP, rank, TYPE_ID, TERM, STEP_CLASS_ID);
+			triple(STEP, rank, TYPE_ID, TERM, REGION_CLASS_ID);
+		}
+		triple(STEP, rank, PATH_ID, CURRENT_PATH, 0);
+		triple(STEP, rank, RANK_ID, INTEGER, rank);
+		triple(STEP, rank, NODE_ID, nodeKind(node), nodeValue(node));
+		if (extra) {
+			triple(STEP, rank, BEGIN_ID, POSITION, begin);
+			triple(STEP, rank, END_ID, POSITION, end);
+			position(begin);
+			position(end);
+		}
+	}
+
+	private void position(long position) {
+		if (!preCompress) {
+			triple(POSITION, position, TYPE_ID, TERM, POSITION_CLASS_ID);
+		}
+		triple(POSITION, position, TYPE_ID, TERM, EXACT_POSITION_CLASS_ID);
+		triple(POSITION, position, POSITION_ID, INTEGER, position);
+	}
+
+	@Override
+	public void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd) {
+		long node = node(line, nameStart, nameEnd);
+		triple(nodeKind(node), nodeValue(node), TYPE_ID, TERM, NODE_CLASS_ID);
+		if (sequenceStart == NO_SEQUENCE) {
+			return;
+		}
+		tripleStart(nodeKind(node), nodeValue(node), VALUE_ID, STRING);
+		writeVarint(sequenceEnd - sequenceStart);
+		write(line, sequenceStart, sequenceEnd - sequenceStart);
+	}
+
+	@Override
+	public void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart, int toEnd,
+			boolean reverseOfTo) {
+		long from = node(line, fromStart, fromEnd);
+		long to = node(line, toStart, toEnd);
+		triple(nodeKind(from), nodeValue(from), linkPredicate(reverseOfFrom, reverseOfTo), nodeKind(to),
+				nodeValue(to));
+	}
+
+	private static int linkPredicate(boolean reverseOfFrom, boolean reverseOfTo) {
+		if (reverseOfFrom) {
+			return reverseOfTo ? REVERSE_TO_REVERSE_ID : REVERSE_TO_FORWARD_ID;
+		} else {
+			return reverseOfTo ? FORWARD_TO_REVERSE_ID : FORWARD_TO_FORWARD_ID;
+		}
+	}
+
+	/**
+	 * Look up the node, adding it to the node dictionary if it has no numeric
+	 * name and is new.
+	 *
+	 * @return the number or dictionary id of the node, shifted left by one, with
+	 *         the lowest bit set for a dictionary id.
+	 */
+	private long node(ByteBuffer line, int start, int end) {
+		long number = numericName(line, start, end);
+		if (number >= 0) {
+			return number << 1;
+		}
+		int id = namedNodes.get(line, start, end) - 1;
+		if (id < 0) {
+			id = nextNamedNode++;
+			namedNodes.put(line, start, end, id + 1);
+			writeByte(NODE_NAME);
+			writeVarint(end - start);
+			write(line, start, end - start);
+		}
+		return ((long) id << 1) | 1;
+	}
+
+	private static int nodeKind(long node) {
+		return (node & 1) == 0 ? NUMBERED_NODE : NAMED_NODE;
+	}
+
+	private static long nodeValue(long node) {
+		return node >>> 1;
+	}
+
+	/**
+	 * @return the name as a number if writing that number gives the name back,
+	 *         or -1
+	 */
+	static long numericName(ByteBuffer line, int start, int end) {
+		if (end - start > 1 && line.get(start) == '0') {
+			return -1;
+		}
+		if (end - start > MAX_NUMBERED_NODE_DIGITS) {
+			return -1;
+		}
+		return NodeLengths.parseId(line, start, end);
+	}
+
+	private void triple(int subjectKind, long subject, int predicate, int objectKind, long object) {
+		tripleStart(subjectKind, subject, predicate, objectKind);
+		writeTerm(objectKind, object);
+	}
+
+	/**
+	 * Writes a triple up to the payload of its object.
+	 */
+	private void tripleStart(int subjectKind, long subject, int predicate, int objectKind) {
+		LongAdder byPredicate = triplesByPredicate[predicate];
+		if (byPredicate == null) {
+			byPredicate = metrics.triples(TERMS[predicate].stringValue());
+			triplesByPredicate[predicate] = byPredicate;
+		}
+		byPredicate.increment();
+		triples++;
+		writeByte(TRIPLE | subjectKind << 4 | objectKind);
+		writeVarint(predicate);
+		writeTerm(subjectKind, subject);
+	}
+
+	private void writeTerm(int kind, long value) {
+		switch (kind) {
+		case CURRENT_PATH:
+			break;
+		case STEP:
+			writeVarint(zigzag(value - lastRank));
+			lastRank = value;
+			break;
+		case POSITION:
+			writeVarint(zigzag(value - lastPosition));
+			lastPosition = value;
+			break;
+		case INTEGER:
+			writeVarint(zigzag(value - lastInteger));
+			lastInteger = value;
+			break;
+		default:
+			writeVarint(value);
+			break;
+		}
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private void writeString(String value) {
+		byte[] bytes = value.getBytes(UTF_8);
+		writeVarint(bytes.length);
+		write(bytes, 0, bytes.length);
+	}
+
+	private void writeVarint(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[pos++] = (byte) value;
+	}
+
+	private void writeByte(int b) {
+		ensure(1);
+		buffer[pos++] = (byte) b;
+	}
+
+	private void write(byte[] bytes, int offset, int length) {
+		if (length > buffer.length - pos) {
+			flushBuffer();
+			if (length > buffer.length) {
+				try {
+					out.write(bytes, offset, length);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, pos, length);
+		pos += length;
+	}
+
+	/**
+	 * Copies from the buffer in pieces, so that slices larger than the write
+	 * buffer do not need to be materialized.
+	 */
+	private void write(ByteBuffer bytes, int offset, int length) {
+		while (length > 0) {
+			if (pos == buffer.length) {
+				flushBuffer();
+			}
+			int toCopy = Math.min(length, buffer.length - pos);
+			bytes.get(offset, buffer, pos, toCopy);
+			pos += toCopy;
+			offset += toCopy;
+			length -= toCopy;
+		}
+	}
+
+	private void ensure(int length) {
+		if (length > buffer.length - pos) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() {
+		try {
+			out.write(buffer, 0, pos);
+			pos = 0;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the number of triples written by this writer
+	 */
+	@Override
+	public long triples() {
+		return triples;
+	}
+
+	/**
+	 * Write out the buffered records and flush the underlying stream.
+	 */
+	void flush() {
+		flushBuffer();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Ends the file and flushes, but does not close the underlying stream.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			writeByte(END);
+			flush();
+			allocator.close();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * Compresses what is written to it in independent blocks on a pool of
+ * threads, and writes the compressed blocks in order. The thread writing the
+ * RDF only copies bytes into the current block, and waits only when all
+ * workers are busy and twice as many blocks are in flight.
+ * <p>
+ * BGZF blocks are gzip members of at most 64KB with the block size in an extra
+ * field, so the output can be read by gzip, zcat and the htslib tools.
+ * Zstandard blocks are complete frames, which zstd decompresses one after the
+ * other.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class BlockCompressedOutputStream extends OutputStream {
+
+	/**
+	 * The supported ways to compress a block.
+	 */
+	enum Codec {
+		/**
+		 * Concatenated gzip members as written by bgzip.
+		 */
+		BGZF(BGZF_MAX_INPUT),
+		/**
+		 * Concatenated Zstandard frames.
+		 */
+		ZSTD(1024 * 1024);
+
+		private final int blockSize;
+
+		Codec(int blockSize) {
+			this.blockSize = blockSize;
+		}
+	}
+
+	// The input of a block that still fits in 64KB when stored uncompressed.
+	private static final int BGZF_MAX_INPUT = 0xff00;
+	private static final int BGZF_MAX_BLOCK = 0x10000;
+	private static final int BGZF_HEADER = 18;
+	private static final int BGZF_FOOTER = 8;
+	private static final byte[] BGZF_EOF = { 0x1f, (byte) 0x8b, 0x08, 0x04, 0, 0, 0, 0, 0, (byte) 0xff, 0x06, 0,
+			0x42, 0x43, 0x02, 0, 0x1b, 0, 0x03, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+	private static final int ZSTD_LEVEL = 3;
+
+	private final OutputStream out;
+	private final Codec codec;
+	private final int maxInFlight;
+	private final ExecutorService executor;
+	private final BlockingQueue<Deflater> deflaters;
+	private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+	private byte[] block;
+	private int pos;
+	private boolean closed;
+
+	/**
+	 * @param out     receives the compressed blocks
+	 * @param codec   how to compress the blocks
+	 * @param threads the number of threads compressing blocks
+	 */
+	BlockCompressedOutputStream(OutputStream out, Codec codec, int threads) {
+		this.out = out;
+		this.codec = codec;
+		this.maxInFlight = threads * 2;
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "gfa2rdf-compress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.deflaters = new ArrayBlockingQueue<>(threads);
+		if (codec == Codec.BGZF) {
+			for (int i = 0; i < threads; i++) {
+				deflaters.add(new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+			}
+		}
+		this.block = new byte[codec.blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (pos == block.length) {
+			submit();
+		}
+		block[pos++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (pos == block.length) {
+				submit();
+			}
+			int toCopy = Math.min(len, block.length - pos);
+			System.arraycopy(b, off, block, pos, toCopy);
+			pos += toCopy;
+			off += toCopy;
+			len -= toCopy;
+		}
+	}
+
+	/**
+	 * Compresses the current block, even if it is not full, and waits for all
+	 * blocks to be written.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (pos > 0) {
+			submit();
+		}
+		while (!inFlight.isEmpty()) {
+			out.write(get(inFlight.poll()));
+		}
+		out.flush();
+	}
+
+	private void submit() throws IOException {
+		while (inFlight.size() >= maxInFlight) {
+			out.write(get(inFlight.poll()));
+		}
+		byte[] full = block;
+		int length = pos;
+		if (codec == Codec.BGZF) {
+			inFlight.add(executor.submit(() -> bgzf(full, length)));
+		} else {
+			inFlight.add(executor.submit(() -> Zstd.compress(Arrays.copyOf(full, length), ZSTD_LEVEL)));
+		}
+		block = new byte[codec.blockSize];
+		pos = 0;
+	}
+
+	private byte[] bgzf(byte[] input, int length) throws InterruptedException {
+		Deflater deflater = deflaters.take();
+		try {
+			byte[] compressed = new byte[BGZF_MAX_BLOCK];
+			int size = deflate(deflater, input, length, compressed);
+			if (size < 0) {
+				// Did not compress well enough to fit, store it instead.
+				deflater.setLevel(Deflater.NO_COMPRESSION);
+				size = deflate(deflater, input, length, compressed);
+				deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+			}
+			int blockSize = BGZF_HEADER + size + BGZF_FOOTER;
+			writeBgzfHeader(compressed, blockSize);
+			CRC32 crc = new CRC32();
+			crc.update(input, 0, length);
+			int footer = BGZF_HEADER + size;
+			writeIntLE(compressed, footer, (int) crc.getValue());
+			writeIntLE(compressed, footer + 4, length);
+			return Arrays.copyOf(compressed, blockSize);
+		} finally {
+			deflaters.add(deflater);
+		}
+	}
+
+	/**
+	 * @return the size of the deflated data after the header, or -1 if it does
+	 *         not fit in a block
+	 */
+	private static int deflate(Deflater deflater, byte[] input, int length, byte[] compressed) {
+		deflater.reset();
+		deflater.setInput(input, 0, length);
+		deflater.finish();
+		int room = BGZF_MAX_BLOCK - BGZF_HEADER - BGZF_FOOTER;
+		int size = deflater.deflate(compressed, BGZF_HEADER, room);
+		if (!deflater.finished()) {
+			return -1;
+		}
+		return size;
+	}
+
+	private static void writeBgzfHeader(byte[] block, int blockSize) {
+		block[0] = 0x1f;
+		block[1] = (byte) 0x8b;
+		block[2] = 0x08; // deflate
+		block[3] = 0x04; // FEXTRA
+		block[4] = block[5] = block[6] = block[7] = 0; // MTIME
+		block[8] = 0; // XFL
+		block[9] = (byte) 0xff; // OS unknown
+		block[10] = 6; // XLEN
+		block[11] = 0;
+		block[12] = 'B';
+		block[13] = 'C';
+		block[14] = 2; // SLEN
+		block[15] = 0;
+		block[16] = (byte) (blockSize - 1);
+		block[17] = (byte) ((blockSize - 1) >>> 8);
+	}
+
+	private static void writeIntLE(byte[] block, int at, int value) {
+		block[at] = (byte) value;
+		block[at + 1] = (byte) (value >>> 8);
+		block[at + 2] = (byte) (value >>> 16);
+		block[at + 3] = (byte) (value >>> 24);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			if (codec == Codec.BGZF) {
+				out.write(BGZF_EOF);
+			}
+		} finally {
+			executor.shutdownNow();
+			for (Deflater deflater : deflaters) {
+				deflater.end();
+			}
+			out.close();
+		}
+	}
+
+	private static byte[] get(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
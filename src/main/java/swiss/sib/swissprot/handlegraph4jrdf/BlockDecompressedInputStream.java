@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Decompresses a BGZF file on a pool of threads. Every BGZF block records its
+ * own size, so the blocks are read one after the other and inflated in
+ * parallel, while the reader consumes the already inflated blocks in order.
+ * <p>
+ * {@link #open(InputStream, int)} recognizes the compression of an input by
+ * its first bytes. Plain gzip and Zstandard are decompressed as a single
+ * stream, as their blocks can only be found by decompressing them.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class BlockDecompressedInputStream extends InputStream {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int GZIP_HEADER = 12;
+	private static final int BGZF_HEADER = 18;
+
+	private final InputStream in;
+	private final int maxInFlight;
+	private final ExecutorService executor;
+	private final BlockingQueue<Inflater> inflaters;
+	private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+	private byte[] block = new byte[0];
+	private int pos;
+	private boolean endOfInput;
+	private boolean closed;
+
+	/**
+	 * @param in      the BGZF compressed bytes
+	 * @param threads the number of threads inflating blocks
+	 */
+	BlockDecompressedInputStream(InputStream in, int threads) {
+		this.in = in;
+		this.maxInFlight = threads * 2;
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "gfa2rdf-decompress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.inflaters = new ArrayBlockingQueue<>(threads);
+		for (int i = 0; i < threads; i++) {
+			inflaters.add(new Inflater(true));
+		}
+	}
+
+	/**
+	 * @param in      the input, compressed or not
+	 * @param threads the number of threads to inflate BGZF blocks on
+	 * @return the decompressed input
+	 */
+	static InputStream open(InputStream in, int threads) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(BGZF_HEADER);
+		byte[] header = buffered.readNBytes(BGZF_HEADER);
+		buffered.reset();
+		if (isBgzf(header)) {
+			return new BlockDecompressedInputStream(buffered, threads);
+		} else if (isGzip(header)) {
+			return new GZIPInputStream(buffered, BUFFER_SIZE);
+		} else if (isZstd(header)) {
+			return new ZstdInputStream(buffered);
+		}
+		return buffered;
+	}
+
+	/**
+	 * @return true if the file is compressed in a way {@link #open(InputStream,
+	 *         int)} recognizes
+	 */
+	static boolean isCompressed(Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			byte[] header = in.readNBytes(4);
+			return isGzip(header) || isZstd(header);
+		}
+	}
+
+	private static boolean isGzip(byte[] header) {
+		return header.length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+	}
+
+	/**
+	 * bgzip writes the BC field with the block size as the first extra field.
+	 */
+	private static boolean isBgzf(byte[] header) {
+		return header.length == BGZF_HEADER && isGzip(header) && (header[3] & 0x04) != 0 && header[10] >= 6
+				&& header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+	}
+
+	private static boolean isZstd(byte[] header) {
+		return header.length >= 4 && (header[0] & 0xff) == 0x28 && (header[1] & 0xff) == 0xb5
+				&& (header[2] & 0xff) == 0x2f && (header[3] & 0xff) == 0xfd;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return block[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int toCopy = Math.min(len, block.length - pos);
+		System.arraycopy(block, pos, b, off, toCopy);
+		pos += toCopy;
+		return toCopy;
+	}
+
+	/**
+	 * @return false at the end of the input
+	 */
+	private boolean fill() throws IOException {
+		while (pos == block.length) {
+			while (!endOfInput && inFlight.size() < maxInFlight) {
+				submitNextBlock();
+			}
+			if (inFlight.isEmpty()) {
+				return false;
+			}
+			block = get(inFlight.poll());
+			pos = 0;
+		}
+		return true;
+	}
+
+	private void submitNextBlock() throws IOException {
+		byte[] header = in.readNBytes(GZIP_HEADER);
+		if (header.length == 0) {
+			endOfInput = true;
+			return;
+		} else if (header.length < GZIP_HEADER || !isGzip(header) || (header[3] & 0x04) == 0) {
+			throw new IOException("Not a BGZF block, decompress the input before converting it");
+		}
+		int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+		byte[] extra = readFully(extraLength);
+		int blockSize = -1;
+		for (int at = 0; at + 4 <= extraLength;) {
+			int fieldLength = (extra[at + 2] & 0xff) | (extra[at + 3] & 0xff) << 8;
+			if (extra[at] == 'B' && extra[at + 1] == 'C' && fieldLength == 2 && at + 6 <= extraLength) {
+				blockSize = ((extra[at + 4] & 0xff) | (extra[at + 5] & 0xff) << 8) + 1;
+			}
+			at += 4 + fieldLength;
+		}
+		if (blockSize < 0) {
+			throw new IOException("A gzip member without a BGZF block size, decompress the input before converting it");
+		}
+		byte[] data = readFully(blockSize - GZIP_HEADER - extraLength);
+		inFlight.add(executor.submit(() -> inflate(data)));
+	}
+
+	private byte[] readFully(int length) throws IOException {
+		byte[] bytes = in.readNBytes(length);
+		if (bytes.length != length) {
+			throw new EOFException("Truncated BGZF block");
+		}
+		return bytes;
+	}
+
+	/**
+	 * @param data the deflated data followed by the CRC32 and the size
+	 */
+	private byte[] inflate(byte[] data) throws InterruptedException, IOException {
+		int footer = data.length - 8;
+		int size = readIntLE(data, footer + 4);
+		byte[] inflated = new byte[size];
+		Inflater inflater = inflaters.take();
+		try {
+			inflater.reset();
+			inflater.setInput(data, 0, footer);
+			int inflatedSize = 0;
+			while (inflatedSize < size && !inflater.finished()) {
+				int n = inflater.inflate(inflated, inflatedSize, size - inflatedSize);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflatedSize += n;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(inflated, 0, inflatedSize);
+			if (inflatedSize != size || (int) crc.getValue() != readIntLE(data, footer)) {
+				throw new IOException("Corrupt BGZF block");
+			}
+			return inflated;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block", e);
+		} finally {
+			inflaters.add(inflater);
+		}
+	}
+
+	private static int readIntLE(byte[] bytes, int at) {
+		return (bytes[at] & 0xff) | (bytes[at + 1] & 0xff) << 8 | (bytes[at + 2] & 0xff) << 16
+				| (bytes[at + 3] & 0xff) << 24;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		executor.shutdownNow();
+		for (Inflater inflater : inflaters) {
+			inflater.end();
+		}
+		in.close();
+	}
+
+	private static byte[] get(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tokenizes the S, L and P lines of a GFA1 file at the byte level and hands
+ * the fields to a {@link RecordSink} as slices of the line. All other record
+ * types, and those left out by the {@link Projection}, are skipped.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class ByteRecordParser implements MappedGFAReader.LineConsumer {
+	private final RecordSink sink;
+	private final NodeLengths nodeLengths;
+	private final boolean extra;
+	private final String base;
+	private final ConversionMetrics metrics;
+	private long rank;
+	private long begin;
+	private ConversionEvents.PathConversion pathEvent;
+	private String pathName;
+	private Checkpoints checkpoints;
+	private Projection projection = Projection.ALL;
+	private byte[] nodeName;
+	private int sequenceLength;
+
+	/**
+	 * @param sink        receives the records
+	 * @param nodeLengths filled from the segments and used for the step positions
+	 *                    when extra is true
+	 * @param extra       calculate the positions of each step
+	 * @param base        the base IRI of the graph
+	 */
+	ByteRecordParser(RecordSink sink, NodeLengths nodeLengths, boolean extra, String base) {
+		this(sink, nodeLengths, extra, base, new ConversionMetrics());
+	}
+
+	/**
+	 * @param metrics counts the lines by record type
+	 */
+	ByteRecordParser(RecordSink sink, NodeLengths nodeLengths, boolean extra, String base,
+			ConversionMetrics metrics) {
+		this.sink = sink;
+		this.nodeLengths = nodeLengths;
+		this.extra = extra;
+		this.base = base;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void accept(ByteBuffer line, int start, int end) {
+		if (end - start < 2 || line.get(start + 1) != '\t') {
+			if (end > start) {
+				metrics.otherLine();
+			}
+			return;
+		}
+		byte code = line.get(start);
+		if (!projection.converts(code)) {
+			metrics.otherLine();
+			return;
+		}
+		switch (code) {
+		case 'S':
+			segment(line, start + 2, end);
+			break;
+		case 'L':
+			link(line, start + 2, end);
+			break;
+		case 'P':
+			path(line, start + 2, end);
+			break;
+		default:
+			metrics.otherLine();
+			break;
+		}
+	}
+
+	private void segment(ByteBuffer line, int nameStart, int end) {
+		int nameEnd = nextField(line, nameStart, end);
+		if (!extra && !projection.sequences()) {
+			// Nothing needs the sequence, so it is not even searched for.
+			metrics.segment();
+			sink.node(line, nameStart, nameEnd, RecordSink.NO_SEQUENCE, RecordSink.NO_SEQUENCE);
+			return;
+		}
+		int sequenceStart = fieldStart(line, nameEnd, end);
+		int sequenceEnd = nextField(line, sequenceStart, end);
+		if (extra) {
+			nodeLengths.put(line, nameStart, nameEnd, sequenceEnd - sequenceStart);
+		}
+		metrics.segment();
+		if (projection.sequences()) {
+			sink.node(line, nameStart, nameEnd, sequenceStart, sequenceEnd);
+		} else {
+			sink.node(line, nameStart, nameEnd, RecordSink.NO_SEQUENCE, RecordSink.NO_SEQUENCE);
+		}
+	}
+
+	/**
+	 * @return if the sequence of a node may be handed over in pieces, through
+	 *         {@link #startNode}, {@link #sequence} and {@link #endNode}
+	 */
+	boolean streamsSequences() {
+		return sink.streamsSequences() || !projection.sequences();
+	}
+
+	/**
+	 * Start a node, its sequence is given piece by piece afterwards.
+	 */
+	void startNode(ByteBuffer line, int nameStart, int nameEnd) {
+		metrics.segment();
+		if (extra) {
+			// The input may move before the length is known.
+			nodeName = new byte[nameEnd - nameStart];
+			line.get(nameStart, nodeName);
+		}
+		sequenceLength = 0;
+		if (projection.sequences()) {
+			sink.startNode(line, nameStart, nameEnd);
+		} else {
+			sink.node(line, nameStart, nameEnd, RecordSink.NO_SEQUENCE, RecordSink.NO_SEQUENCE);
+		}
+	}
+
+	/**
+	 * The next piece of the sequence of the current node.
+	 */
+	void sequence(ByteBuffer line, int start, int end) {
+		sequenceLength += end - start;
+		if (projection.sequences()) {
+			sink.sequence(line, start, end);
+		}
+	}
+
+	void endNode() {
+		if (extra) {
+			nodeLengths.put(ByteBuffer.wrap(nodeName), 0, nodeName.length, sequenceLength);
+			nodeName = null;
+		}
+		if (projection.sequences()) {
+			sink.endNode();
+		}
+	}
+
+	private void link(ByteBuffer line, int fromStart, int end) {
+		int fromEnd = nextField(line, fromStart, end);
+		int fromOrientation = fieldStart(line, fromEnd, end);
+		int toStart = fieldStart(line, nextField(line, fromOrientation, end), end);
+		int toEnd = nextField(line, toStart, end);
+		int toOrientation = fieldStart(line, toEnd, end);
+		metrics.link();
+		sink.link(line, fromStart, fromEnd, line.get(fromOrientation) == '-', toStart, toEnd,
+				line.get(toOrientation) == '-');
+	}
+
+	private void path(ByteBuffer line, int nameStart, int end) {
+		int nameEnd = nextField(line, nameStart, end);
+		startPath(line, nameStart, nameEnd);
+		if (!projection.steps()) {
+			endPath();
+			return;
+		}
+		int stepsStart = fieldStart(line, nameEnd, end);
+		int stepsEnd = nextField(line, stepsStart, end);
+		int stepStart = stepsStart;
+		while (stepStart < stepsEnd) {
+			int stepEnd = stepStart;
+			while (stepEnd < stepsEnd && line.get(stepEnd) != ',') {
+				stepEnd++;
+			}
+			// The last character of a step is its orientation.
+			step(line, stepStart, stepEnd - 1);
+			stepStart = stepEnd + 1;
+		}
+		endPath();
+	}
+
+	/**
+	 * Take checkpoints at the starts of lines.
+	 *
+	 * @return this parser
+	 */
+	ByteRecordParser checkpoints(Checkpoints checkpoints) {
+		this.checkpoints = checkpoints;
+		return this;
+	}
+
+	/**
+	 * Convert only what the projection asks for. With extra positions and the
+	 * nodes left out, the node lengths must have been prescanned.
+	 *
+	 * @return this parser
+	 */
+	ByteRecordParser projection(Projection projection) {
+		this.projection = projection;
+		return this;
+	}
+
+	Projection projection() {
+		return projection;
+	}
+
+	/**
+	 * A line that is not converted, skipped by the input without handing it to
+	 * this parser.
+	 */
+	void skipped() {
+		metrics.otherLine();
+	}
+
+	/**
+	 * A line starts, everything before it has been handed to the sink.
+	 *
+	 * @param offset of the line in the input
+	 */
+	void lineStart(long offset) {
+		if (checkpoints != null) {
+			checkpoints.lineStart(offset);
+		}
+	}
+
+	/**
+	 * The input that has been handed to this parser, for inputs that do not
+	 * count it themselves.
+	 */
+	void consumed(long bytes) {
+		metrics.inputBytes(bytes);
+	}
+
+	/**
+	 * Start a path, the steps are given one by one afterwards.
+	 */
+	void startPath(ByteBuffer line, int nameStart, int nameEnd) {
+		metrics.path();
+		pathEvent = ConversionEvents.beginPath();
+		pathName = toAsciiString(line, nameStart, nameEnd);
+		sink.startPath(GFA2RDF.createPathIRI(base, pathName));
+		rank = 1;
+		begin = 1; // We start at position 1.
+	}
+
+	/**
+	 * The next step of the current path.
+	 *
+	 * @param nodeStart index of the first byte of the node id
+	 * @param nodeEnd   index after the last byte of the node id, i.e. of the
+	 *                  orientation
+	 */
+	void step(ByteBuffer line, int nodeStart, int nodeEnd) {
+		long end = extra ? begin + nodeLengths.get(line, nodeStart, nodeEnd) : begin;
+		sink.step(rank++, line, nodeStart, nodeEnd, begin, end);
+		begin = end;
+	}
+
+	void endPath() {
+		sink.endPath();
+		ConversionEvents.endPath(pathEvent, pathName, rank - 1);
+		pathEvent = null;
+	}
+
+	/**
+	 * @return the index of the tab ending the field starting at from, or end.
+	 */
+	private static int nextField(ByteBuffer line, int from, int end) {
+		for (int i = from; i < end; i++) {
+			if (line.get(i) == '\t') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private static int fieldStart(ByteBuffer line, int previousFieldEnd, int end) {
+		if (previousFieldEnd >= end) {
+			throw new IllegalArgumentException("GFA line is missing fields: " + toAsciiString(line,
+					Math.max(0, end - 80), end));
+		}
+		return previousFieldEnd + 1;
+	}
+
+	static String toAsciiString(ByteBuffer line, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		line.get(start, bytes);
+		return new String(bytes, US_ASCII);
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Periodically records how far a conversion got, so that a conversion that
+ * died can be resumed instead of redone. Checkpoints are taken at the start of
+ * a line, once the interval has passed. All triples of the lines before it are
+ * then flushed and forced to disk, and the input offset of the line, the size
+ * of the output and the counts so far are written to a
+ * {@value #SUFFIX} file next to the output. That file is replaced
+ * atomically, so it always describes a complete checkpoint.
+ * <p>
+ * On resume the output is cut back to the size recorded in the checkpoint,
+ * anything written after it is converted again from the recorded input
+ * offset. The lengths of the nodes before that offset are not saved, they are
+ * read again from the input by the {@link SegmentScanner}, which is much
+ * faster than converting.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class Checkpoints {
+	static final String SUFFIX = ".checkpoint";
+	private static final int VERSION = 1;
+
+	/**
+	 * How far a conversion got, the counts include all earlier runs.
+	 */
+	static final class Checkpoint {
+		final long inputOffset;
+		final long outputOffset;
+		final long segments;
+		final long links;
+		final long paths;
+		final long triples;
+
+		Checkpoint(long inputOffset, long outputOffset, long segments, long links, long paths, long triples) {
+			this.inputOffset = inputOffset;
+			this.outputOffset = outputOffset;
+			this.segments = segments;
+			this.links = links;
+			this.paths = paths;
+			this.triples = triples;
+		}
+	}
+
+	private static final Checkpoint START = new Checkpoint(0, 0, 0, 0, 0, 0);
+
+	private final Path output;
+	private final Path file;
+	private final String settings;
+	private final long intervalNanos;
+	private final ConversionMetrics metrics;
+	private final Checkpoint resumed;
+	private FileChannel outputChannel;
+	private Runnable flush = () -> {
+	};
+	private long next;
+	private long taken;
+
+	/**
+	 * @param output        the file the RDF is written to
+	 * @param settings      everything the output depends on, a checkpoint made
+	 *                      with other settings can not be resumed from
+	 * @param intervalNanos the time between checkpoints
+	 * @param resume        continue from the last checkpoint, if there is one
+	 * @param metrics       counts what this run converts
+	 */
+	Checkpoints(Path output, String settings, long intervalNanos, boolean resume, ConversionMetrics metrics)
+			throws IOException {
+		this.output = output;
+		this.file = output.resolveSibling(output.getFileName() + SUFFIX);
+		this.settings = settings;
+		this.intervalNanos = intervalNanos;
+		this.metrics = metrics;
+		this.resumed = resume ? load() : START;
+		this.next = System.nanoTime() + intervalNanos;
+	}
+
+	private Checkpoint load() throws IOException {
+		if (!Files.exists(file)) {
+			System.err.println("No " + file + " to resume from, converting from the start");
+			return START;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		}
+		if (!String.valueOf(VERSION).equals(properties.getProperty("version"))) {
+			throw new IOException(file + " is not a checkpoint of this version");
+		} else if (!settings.equals(properties.getProperty("settings"))) {
+			throw new IOException(file + " was made for another input or with other options, it can not be resumed");
+		}
+		try {
+			return new Checkpoint(Long.parseLong(properties.getProperty("inputOffset")),
+					Long.parseLong(properties.getProperty("outputOffset")),
+					Long.parseLong(properties.getProperty("segments")),
+					Long.parseLong(properties.getProperty("links")), Long.parseLong(properties.getProperty("paths")),
+					Long.parseLong(properties.getProperty("triples")));
+		} catch (NumberFormatException | NullPointerException e) {
+			throw new IOException(file + " is damaged", e);
+		}
+	}
+
+	/**
+	 * @return where the input should be read from, 0 unless resuming
+	 */
+	long inputOffset() {
+		return resumed.inputOffset;
+	}
+
+	/**
+	 * @return the number of segments before the input offset
+	 */
+	long segments() {
+		return resumed.segments;
+	}
+
+	/**
+	 * @return the number of checkpoints taken by this run
+	 */
+	long taken() {
+		return taken;
+	}
+
+	/**
+	 * Open the output, cut back to the checkpoint when resuming, otherwise
+	 * empty.
+	 */
+	FileOutputStream openOutput() throws IOException {
+		FileOutputStream stream;
+		if (resumed != START) {
+			long size = Files.size(output);
+			if (size < resumed.outputOffset) {
+				throw new IOException(output + " is shorter than the checkpoint in " + file
+						+ ", it can not be resumed");
+			}
+			try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+				channel.truncate(resumed.outputOffset);
+			}
+			stream = new FileOutputStream(output.toFile(), true);
+		} else {
+			stream = new FileOutputStream(output.toFile());
+		}
+		outputChannel = stream.getChannel();
+		return stream;
+	}
+
+	/**
+	 * @param flush writes out everything the writer holds on to
+	 */
+	void flushWith(Runnable flush) {
+		this.flush = flush;
+	}
+
+	/**
+	 * A line starts at this input offset, all lines before it have been
+	 * converted. Takes a checkpoint once the interval has passed.
+	 */
+	void lineStart(long inputOffset) {
+		long now = System.nanoTime();
+		if (now - next >= 0) {
+			try {
+				checkpoint(inputOffset);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			next = System.nanoTime() + intervalNanos;
+		}
+	}
+
+	private void checkpoint(long inputOffset) throws IOException {
+		flush.run();
+		outputChannel.force(false);
+		Properties properties = new Properties();
+		properties.setProperty("version", String.valueOf(VERSION));
+		properties.setProperty("settings", settings);
+		properties.setProperty("inputOffset", String.valueOf(inputOffset));
+		properties.setProperty("outputOffset", String.valueOf(outputChannel.size()));
+		properties.setProperty("segments", String.valueOf(resumed.segments + metrics.lines('S')));
+		properties.setProperty("links", String.valueOf(resumed.links + metrics.lines('L')));
+		properties.setProperty("paths", String.valueOf(resumed.paths + metrics.lines('P')));
+		properties.setProperty("triples", String.valueOf(resumed.triples + metrics.triples()));
+		Path partial = file.resolveSibling(file.getFileName() + ".partial");
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			properties.store(Channels.newOutputStream(channel), "Resume with --resume");
+			channel.force(true);
+		}
+		Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		taken++;
+	}
+
+	/**
+	 * The conversion is done, there is nothing left to resume.
+	 */
+	void completed() throws IOException {
+		Files.deleteIfExists(file);
+	}
+}
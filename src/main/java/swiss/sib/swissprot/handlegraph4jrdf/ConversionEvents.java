@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of a conversion. Record a run with
+ * {@code -XX:StartFlightRecording=filename=gfa2rdf.jfr} and look for the
+ * {@value #CATEGORY} category in JDK Mission Control or with
+ * {@code jfr print --categories GFA2RDF gfa2rdf.jfr}.
+ * <p>
+ * Events are only created once per path, per write to the output file and
+ * per period, so they cost next to nothing when no recording is running.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class ConversionEvents {
+	static final String CATEGORY = "GFA2RDF";
+
+	private ConversionEvents() {
+
+	}
+
+	/**
+	 * The conversion of one path line, from its name to its last step.
+	 */
+	@Name("swiss.sib.swissprot.handlegraph4jrdf.PathConversion")
+	@Label("Path Conversion")
+	@Category(CATEGORY)
+	@Description("Conversion of the steps of one GFA path line")
+	@StackTrace(false)
+	static final class PathConversion extends Event {
+		@Label("Path Name")
+		String pathName;
+
+		@Label("Steps")
+		long steps;
+	}
+
+	/**
+	 * A buffer of converted triples being written to the output file.
+	 */
+	@Name("swiss.sib.swissprot.handlegraph4jrdf.OutputFlush")
+	@Label("Output Flush")
+	@Category(CATEGORY)
+	@Description("A buffer of RDF written to the output file")
+	@StackTrace(false)
+	static final class OutputFlush extends Event {
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	/**
+	 * The progress of the conversion, taken every period.
+	 */
+	@Name("swiss.sib.swissprot.handlegraph4jrdf.BatchSummary")
+	@Label("Batch Summary")
+	@Category(CATEGORY)
+	@Description("What was converted since the previous summary")
+	@Period("10 s")
+	@StackTrace(false)
+	static final class BatchSummary extends Event {
+		@Label("Segments")
+		long segments;
+
+		@Label("Links")
+		long links;
+
+		@Label("Paths")
+		long paths;
+
+		@Label("Triples")
+		long triples;
+
+		@Label("Input Read")
+		@DataAmount
+		long inputBytes;
+
+		@Label("Output Written")
+		@DataAmount
+		long outputBytes;
+	}
+
+	/**
+	 * @return a path event that has begun, or null if no recording wants it
+	 */
+	static PathConversion beginPath() {
+		PathConversion event = new PathConversion();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit a path event from {@link #beginPath()}, which may be null.
+	 */
+	static void endPath(PathConversion event, String pathName, long steps) {
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.pathName = pathName;
+				event.steps = steps;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return the output with an event for every write that reaches it, to be
+	 *         wrapped in the buffer whose flushes are of interest
+	 */
+	static OutputStream recordFlushes(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				OutputFlush event = new OutputFlush();
+				event.begin();
+				out.write(b, off, len);
+				event.end();
+				if (event.shouldCommit()) {
+					event.bytes = len;
+					event.commit();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Emit the difference in the metrics as a summary every period of a
+	 * recording, until the returned hook is removed with
+	 * {@link #stopBatchSummaries(Runnable)}.
+	 */
+	static Runnable startBatchSummaries(ConversionMetrics metrics) {
+		Runnable hook = new Runnable() {
+			private long segments;
+			private long links;
+			private long paths;
+			private long triples;
+			private long inputBytes;
+			private long outputBytes;
+
+			@Override
+			public synchronized void run() {
+				BatchSummary summary = new BatchSummary();
+				long segmentsNow = metrics.lines('S');
+				long linksNow = metrics.lines('L');
+				long pathsNow = metrics.lines('P');
+				long triplesNow = metrics.triples();
+				long inputBytesNow = metrics.inputBytes();
+				long outputBytesNow = metrics.outputBytes();
+				summary.segments = segmentsNow - segments;
+				summary.links = linksNow - links;
+				summary.paths = pathsNow - paths;
+				summary.triples = triplesNow - triples;
+				summary.inputBytes = inputBytesNow - inputBytes;
+				summary.outputBytes = outputBytesNow - outputBytes;
+				summary.commit();
+				segments = segmentsNow;
+				links = linksNow;
+				paths = pathsNow;
+				triples = triplesNow;
+				inputBytes = inputBytesNow;
+				outputBytes = outputBytesNow;
+			}
+		};
+		FlightRecorder.addPeriodicEvent(BatchSummary.class, hook);
+		return hook;
+	}
+
+	/**
+	 * Stop the summaries, after a last one of the end of the conversion.
+	 */
+	static void stopBatchSummaries(Runnable hook) {
+		FlightRecorder.removePeriodicEvent(hook);
+		hook.run();
+	}
+}
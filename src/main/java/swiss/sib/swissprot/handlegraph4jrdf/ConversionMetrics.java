@@ -0,0 +1,431 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFHandler;
+
+/**
+ * Counts what a conversion has read and written. The counters are
+ * {@link LongAdder}s, cheap enough to update for every line and triple, and
+ * safe to update from the threads of the parallel conversions. A report can be
+ * printed at any time while the conversion runs.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class ConversionMetrics {
+	private static final double MB = 1024 * 1024;
+	private final long startNanos = System.nanoTime();
+	private final LongAdder segments = new LongAdder();
+	private final LongAdder links = new LongAdder();
+	private final LongAdder paths = new LongAdder();
+	private final LongAdder otherLines = new LongAdder();
+	private final LongAdder inputBytes = new LongAdder();
+	private final LongAdder outputBytes = new LongAdder();
+	private final LongAdder nodeIRICacheHits = new LongAdder();
+	private final LongAdder nodeIRICacheMisses = new LongAdder();
+	private final Map<String, LongAdder> triplesByPredicate = new ConcurrentHashMap<>();
+	private volatile long inputSize = -1;
+	private volatile long[] delta;
+	private final List<String> stageQueues = new CopyOnWriteArrayList<>();
+
+	/**
+	 * The lines that changed since the previous version of the input, see
+	 * {@link DeltaConverter}.
+	 */
+	void delta(long removed, long added, long unchanged) {
+		delta = new long[] { removed, added, unchanged };
+	}
+
+	/**
+	 * How full a queue between two stages of the {@link PipelinedConverter}
+	 * was, and how long its ends waited on each other.
+	 */
+	void stageQueue(String name, double meanDepth, int maxDepth, int capacity, long producerWaitMillis,
+			long consumerWaitMillis) {
+		stageQueues.add(String.format(Locale.ROOT,
+				"{\"name\": \"%s\", \"meanDepth\": %.1f, \"maxDepth\": %d, \"capacity\": %d, "
+						+ "\"producerWaitMillis\": %d, \"consumerWaitMillis\": %d}",
+				name, meanDepth, maxDepth, capacity, producerWaitMillis, consumerWaitMillis));
+	}
+
+	void segment() {
+		segments.increment();
+	}
+
+	void link() {
+		links.increment();
+	}
+
+	void path() {
+		paths.increment();
+	}
+
+	void otherLine() {
+		otherLines.increment();
+	}
+
+	/**
+	 * Count a line by its record type.
+	 */
+	void line(char code) {
+		switch (code) {
+		case 'S':
+			segments.increment();
+			break;
+		case 'L':
+			links.increment();
+			break;
+		case 'P':
+			paths.increment();
+			break;
+		default:
+			otherLines.increment();
+			break;
+		}
+	}
+
+	/**
+	 * @return the counter of the triples with this predicate, to keep around in
+	 *         hot loops
+	 */
+	LongAdder triples(String predicate) {
+		return triplesByPredicate.computeIfAbsent(predicate, p -> new LongAdder());
+	}
+
+	void triple(IRI predicate) {
+		LongAdder counter = triplesByPredicate.get(predicate.stringValue());
+		if (counter == null) {
+			counter = triples(predicate.stringValue());
+		}
+		counter.increment();
+	}
+
+	void inputBytes(long bytes) {
+		inputBytes.add(bytes);
+	}
+
+	void nodeIRICacheHit() {
+		nodeIRICacheHits.increment();
+	}
+
+	void nodeIRICacheMiss() {
+		nodeIRICacheMisses.increment();
+	}
+
+	/**
+	 * @param size of the input file, for the progress and the time to go
+	 */
+	void inputSize(long size) {
+		this.inputSize = size;
+	}
+
+	/**
+	 * @return the input stream, counting the bytes read from it
+	 */
+	InputStream countInput(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int read = super.read();
+				if (read >= 0) {
+					inputBytes.increment();
+				}
+				return read;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) {
+					inputBytes.add(read);
+				}
+				return read;
+			}
+		};
+	}
+
+	/**
+	 * @return the output stream, counting the bytes written to it
+	 */
+	OutputStream countOutput(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				outputBytes.increment();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				outputBytes.add(len);
+			}
+		};
+	}
+
+	/**
+	 * @return a handler counting the statements by predicate before handing them
+	 *         on
+	 */
+	RDFHandler countTriples(RDFHandler handler) {
+		return new CountingRDFHandler(handler, this);
+	}
+
+	/**
+	 * @return the handler that the counting handler hands on to, or the handler
+	 *         itself.
+	 */
+	static RDFHandler uncounted(RDFHandler handler) {
+		if (handler instanceof CountingRDFHandler) {
+			return ((CountingRDFHandler) handler).handler;
+		}
+		return handler;
+	}
+
+	/**
+	 * @return the number of statements a handler from
+	 *         {@link #countTriples(RDFHandler)} has handed on
+	 */
+	static long triplesCounted(RDFHandler counted) {
+		return ((CountingRDFHandler) counted).triples;
+	}
+
+	/**
+	 * Print the report to err every period seconds, until the returned executor
+	 * is shut down.
+	 */
+	ScheduledExecutorService reportEvery(long period, PrintStream err) {
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "gfa2rdf-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> err.println(report()), period, period, TimeUnit.SECONDS);
+		return reporter;
+	}
+
+	/**
+	 * @return one line with the progress so far
+	 */
+	String report() {
+		double seconds = elapsedSeconds();
+		long triples = triples();
+		long read = inputBytes.sum();
+		StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.ROOT,
+				"%.0fs: %d segments, %d links, %d paths, %d triples (%.0f/s), read %.1f MB", seconds,
+				segments.sum(), links.sum(), paths.sum(), triples, triples / Math.max(seconds, 1e-9), read / MB));
+		long size = inputSize;
+		if (size > 0 && read > 0) {
+			double done = Math.min(1d, (double) read / size);
+			double toGo = seconds / done - seconds;
+			report.append(String.format(Locale.ROOT, " of %.1f MB (%.1f%%, %.0fs to go)", size / MB, done * 100,
+					toGo));
+		}
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long lookups = nodeIRICacheHits.sum() + nodeIRICacheMisses.sum();
+		if (lookups > 0) {
+			report.append(String.format(Locale.ROOT, ", node IRI cache hits %.1f%%", nodeIRICacheHitRate() * 100));
+		}
+		report.append(String.format(Locale.ROOT, ", wrote %.1f MB, heap %.0f of %.0f MB, gc %d ms",
+				outputBytes.sum() / MB, heap.getUsed() / MB, heap.getMax() / MB, gcMillis()));
+		return report.toString();
+	}
+
+	/**
+	 * Write all counters as a JSON object.
+	 */
+	void writeJson(PrintStream out) {
+		double seconds = elapsedSeconds();
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		out.println("{");
+		out.printf(Locale.ROOT, "  \"elapsedSeconds\": %.3f,%n", seconds);
+		out.printf("  \"lines\": {\"S\": %d, \"L\": %d, \"P\": %d, \"other\": %d},%n", segments.sum(), links.sum(),
+				paths.sum(), otherLines.sum());
+		out.printf("  \"triples\": %d,%n", triples());
+		out.printf(Locale.ROOT, "  \"triplesPerSecond\": %.1f,%n", triples() / Math.max(seconds, 1e-9));
+		out.println("  \"triplesByPredicate\": {");
+		Map<String, LongAdder> sorted = new TreeMap<>(triplesByPredicate);
+		int i = 0;
+		for (Map.Entry<String, LongAdder> e : sorted.entrySet()) {
+			out.printf("    \"%s\": %d%s%n", e.getKey().replace("\\", "\\\\").replace("\"", "\\\""),
+					e.getValue().sum(), ++i < sorted.size() ? "," : "");
+		}
+		out.println("  },");
+		out.printf("  \"inputBytes\": %d,%n", inputBytes.sum());
+		out.printf("  \"inputSize\": %d,%n", inputSize);
+		out.printf("  \"outputBytes\": %d,%n", outputBytes.sum());
+		long[] lines = delta;
+		if (lines != null) {
+			out.printf("  \"deltaLines\": {\"removed\": %d, \"added\": %d, \"unchanged\": %d},%n", lines[0],
+					lines[1], lines[2]);
+		}
+		if (!stageQueues.isEmpty()) {
+			out.println("  \"stageQueues\": [");
+			for (int q = 0; q < stageQueues.size(); q++) {
+				out.printf("    %s%s%n", stageQueues.get(q), q + 1 < stageQueues.size() ? "," : "");
+			}
+			out.println("  ],");
+		}
+		out.printf(Locale.ROOT, "  \"nodeIRICache\": {\"hits\": %d, \"misses\": %d, \"hitRate\": %.4f},%n",
+				nodeIRICacheHits.sum(), nodeIRICacheMisses.sum(), nodeIRICacheHitRate());
+		out.printf("  \"heapUsedBytes\": %d,%n", heap.getUsed());
+		out.printf("  \"heapMaxBytes\": %d,%n", heap.getMax());
+		out.printf("  \"gcCount\": %d,%n", gcCount());
+		out.printf("  \"gcMillis\": %d%n", gcMillis());
+		out.println("}");
+		out.flush();
+	}
+
+	long triples() {
+		long triples = 0;
+		for (LongAdder counter : triplesByPredicate.values()) {
+			triples += counter.sum();
+		}
+		return triples;
+	}
+
+	long triples(IRI predicate) {
+		LongAdder counter = triplesByPredicate.get(predicate.stringValue());
+		return counter == null ? 0 : counter.sum();
+	}
+
+	long lines(char code) {
+		switch (code) {
+		case 'S':
+			return segments.sum();
+		case 'L':
+			return links.sum();
+		case 'P':
+			return paths.sum();
+		default:
+			return otherLines.sum();
+		}
+	}
+
+	long inputBytes() {
+		return inputBytes.sum();
+	}
+
+	long outputBytes() {
+		return outputBytes.sum();
+	}
+
+	long nodeIRICacheHits() {
+		return nodeIRICacheHits.sum();
+	}
+
+	long nodeIRICacheMisses() {
+		return nodeIRICacheMisses.sum();
+	}
+
+	/**
+	 * @return the fraction of node IRI lookups that were hits, 0 without lookups
+	 */
+	double nodeIRICacheHitRate() {
+		long hits = nodeIRICacheHits.sum();
+		long lookups = hits + nodeIRICacheMisses.sum();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	private double elapsedSeconds() {
+		return (System.nanoTime() - startNanos) / 1e9;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static final class CountingRDFHandler implements RDFHandler {
+		private final RDFHandler handler;
+		private final ConversionMetrics metrics;
+		private long triples;
+
+		private CountingRDFHandler(RDFHandler handler, ConversionMetrics metrics) {
+			this.handler = handler;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public void startRDF() {
+			handler.startRDF();
+		}
+
+		@Override
+		public void endRDF() {
+			handler.endRDF();
+		}
+
+		@Override
+		public void handleNamespace(String prefix, String uri) {
+			handler.handleNamespace(prefix, uri);
+		}
+
+		@Override
+		public void handleStatement(Statement st) {
+			metrics.triple(st.getPredicate());
+			triples++;
+			handler.handleStatement(st);
+		}
+
+		@Override
+		public void handleComment(String comment) {
+			handler.handleComment(comment);
+		}
+	}
+}
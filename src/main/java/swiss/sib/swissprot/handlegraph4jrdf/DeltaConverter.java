@@ -0,0 +1,378 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+
+/**
+ * Finds the triples added and removed between two versions of a GFA file,
+ * without converting the parts that did not change.
+ * <p>
+ * Every S, L and P line of both files becomes a record of its key, the node
+ * name, the link ends or the path name, and a hash of the content that the
+ * triples are made of. The records are sorted together on disk by the
+ * {@link ExternalSorter}, so the lines of both versions with the same key meet
+ * and memory does not grow with the graph. Keys whose content hashes differ
+ * have their previous lines converted as removed triples and their current
+ * lines as added triples, only those lines are read again.
+ * <p>
+ * With extra the positions of the steps depend on the lengths of the nodes. A
+ * path that did not change but steps on a node whose sequence length changed
+ * is therefore converted again as well.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class DeltaConverter {
+	private static final byte PREVIOUS = 0;
+	private static final byte CURRENT = 1;
+	private static final int HASH_BYTES = 16;
+	// The key is followed by a 0, the version, the hash, the line offset and the sequence length.
+	private static final int TAIL = 1 + 1 + HASH_BYTES + Long.BYTES + Integer.BYTES;
+	private static final byte[] NO_HASH = new byte[HASH_BYTES];
+	private static final byte[] PATCH_START = "TX .\n".getBytes(US_ASCII);
+	private static final byte[] PATCH_END = "TC .\n".getBytes(US_ASCII);
+
+	/**
+	 * The lines that need to be converted to go from the previous version to
+	 * the current one.
+	 */
+	static final class Delta {
+		/**
+		 * Offsets of the lines in the previous version whose triples are removed.
+		 */
+		final LongArrayList removed = new LongArrayList();
+		/**
+		 * Offsets of the lines in the current version whose triples are added.
+		 */
+		final LongArrayList added = new LongArrayList();
+		long unchanged;
+	}
+
+	private final String base;
+	private final boolean preCompress;
+	private final boolean extra;
+	private final Path tempDirectory;
+	private final long memoryBudget;
+	private final ConversionMetrics metrics;
+
+	/**
+	 * @param base          the base IRI of the graph
+	 * @param preCompress   leave out the inferable triples
+	 * @param extra         write the FALDO positions of each step
+	 * @param tempDirectory where the records are sorted
+	 * @param memoryBudget  bytes of records sorted in memory
+	 * @param metrics       counts the changed lines and their triples
+	 */
+	DeltaConverter(String base, boolean preCompress, boolean extra, Path tempDirectory, long memoryBudget,
+			ConversionMetrics metrics) {
+		this.base = base;
+		this.preCompress = preCompress;
+		this.extra = extra;
+		this.tempDirectory = tempDirectory;
+		this.memoryBudget = memoryBudget;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Find the changed lines, and fill the node lengths of both versions.
+	 */
+	Delta compare(MappedGFAReader previous, NodeLengths previousLengths, MappedGFAReader current,
+			NodeLengths currentLengths) throws IOException {
+		Delta delta = new Delta();
+		try (ExternalSorter sorter = new ExternalSorter(tempDirectory, "delta", memoryBudget);
+				OffHeapAllocator allocator = new OffHeapAllocator()) {
+			addRecords(previous, PREVIOUS, previousLengths, sorter);
+			addRecords(current, CURRENT, currentLengths, sorter);
+			OffHeapBytesIntMap resized = new OffHeapBytesIntMap(allocator);
+			// Pairs of previous and current offsets of the paths that did not change.
+			LongArrayList unchangedPaths = new LongArrayList();
+			Group group = new Group();
+			sorter.sorted(false, record -> {
+				if (!group.sameKey(record)) {
+					group.compare(delta, resized, unchangedPaths);
+					group.start(record);
+				}
+				group.add(record);
+			});
+			group.compare(delta, resized, unchangedPaths);
+			if (extra && resized.size() > 0) {
+				for (int i = 0; i < unchangedPaths.size(); i += 2) {
+					if (stepsOnResized(current, unchangedPaths.get(i + 1), resized)) {
+						delta.removed.add(unchangedPaths.get(i));
+						delta.added.add(unchangedPaths.get(i + 1));
+						delta.unchanged--;
+					}
+				}
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * Write the delta as an RDF Patch transaction, deleting the removed triples
+	 * before adding the added ones.
+	 */
+	void writePatch(Delta delta, MappedGFAReader previous, NodeLengths previousLengths, MappedGFAReader current,
+			NodeLengths currentLengths, OutputStream out) throws IOException {
+		out.write(PATCH_START);
+		convert(previous, delta.removed, previousLengths, new LinePrefixing(out, 'D'));
+		convert(current, delta.added, currentLengths, new LinePrefixing(out, 'A'));
+		out.write(PATCH_END);
+	}
+
+	/**
+	 * Write the removed and the added triples as N-Triples, each to their own
+	 * output.
+	 */
+	void writeSplit(Delta delta, MappedGFAReader previous, NodeLengths previousLengths, MappedGFAReader current,
+			NodeLengths currentLengths, OutputStream removed, OutputStream added) throws IOException {
+		convert(previous, delta.removed, previousLengths, removed);
+		convert(current, delta.added, currentLengths, added);
+	}
+
+	private void convert(MappedGFAReader gfa, LongArrayList lines, NodeLengths lengths, OutputStream out)
+			throws IOException {
+		long[] offsets = lines.toSortedArray();
+		try (DirectNTriplesWriter writer = new DirectNTriplesWriter(out, base, preCompress, extra, metrics)) {
+			ByteRecordParser parser = new ByteRecordParser(writer, lengths, extra, base, metrics);
+			for (long offset : offsets) {
+				gfa.readLine(offset, (line, start, end) -> {
+					metrics.inputBytes(end - start + 1);
+					parser.accept(line, start, end);
+				});
+			}
+		}
+	}
+
+	private void addRecords(MappedGFAReader gfa, byte version, NodeLengths lengths, ExternalSorter sorter)
+			throws IOException {
+		MessageDigest digest = sha256();
+		gfa.forEachLine(0, gfa.size(), (lineOffset, line, start, end) -> {
+			if (end - start < 2 || line.get(start + 1) != '\t') {
+				return;
+			}
+			byte type = line.get(start);
+			if (type != 'S' && type != 'L' && type != 'P') {
+				return;
+			}
+			int nameStart = start + 2;
+			int nameEnd = nextField(line, nameStart, end);
+			int keyEnd = nameEnd;
+			byte[] hash = NO_HASH;
+			int sequenceLength = 0;
+			if (type == 'L') {
+				// The link ends and their orientations are all there is to a link.
+				keyEnd = nextField(line, fieldStart(nextField(line, fieldStart(nextField(line,
+						fieldStart(nameEnd, end), end), end), end), end), end);
+			} else {
+				int contentStart = fieldStart(nameEnd, end);
+				int contentEnd = nextField(line, contentStart, end);
+				digest.update(line.slice(contentStart, contentEnd - contentStart));
+				hash = digest.digest();
+				if (type == 'S') {
+					sequenceLength = contentEnd - contentStart;
+					if (extra) {
+						lengths.put(line, nameStart, nameEnd, sequenceLength);
+					}
+				}
+			}
+			int keyLength = 1 + keyEnd - nameStart;
+			ByteBuffer record = ByteBuffer.allocate(keyLength + TAIL);
+			record.put(type);
+			record.put(1, line, nameStart, keyEnd - nameStart);
+			record.position(keyLength);
+			record.put((byte) 0);
+			record.put(version);
+			record.put(hash, 0, HASH_BYTES);
+			record.putLong(lineOffset);
+			record.putInt(sequenceLength);
+			try {
+				sorter.add(record.array());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * The records of both versions with the same key.
+	 */
+	private static final class Group {
+		private byte[] key;
+		private final LongArrayList previousOffsets = new LongArrayList();
+		private final LongArrayList currentOffsets = new LongArrayList();
+		private final StringBuilder previousHashes = new StringBuilder();
+		private final StringBuilder currentHashes = new StringBuilder();
+		private int previousLength = -1;
+		private int currentLength = -1;
+
+		private boolean sameKey(byte[] record) {
+			return key != null && key.length == record.length - TAIL
+					&& Arrays.equals(key, 0, key.length, record, 0, key.length);
+		}
+
+		private void start(byte[] record) {
+			key = Arrays.copyOf(record, record.length - TAIL);
+			previousOffsets.clear();
+			currentOffsets.clear();
+			previousHashes.setLength(0);
+			currentHashes.setLength(0);
+			previousLength = -1;
+			currentLength = -1;
+		}
+
+		private void add(byte[] record) {
+			ByteBuffer tail = ByteBuffer.wrap(record, record.length - TAIL + 1, TAIL - 1);
+			boolean current = tail.get() == CURRENT;
+			String hash = new String(record, tail.position(), HASH_BYTES, ISO_8859_1);
+			tail.position(tail.position() + HASH_BYTES);
+			long offset = tail.getLong();
+			int length = tail.getInt();
+			// Within a key the records are sorted by version and then by hash.
+			if (current) {
+				currentOffsets.add(offset);
+				currentHashes.append(hash);
+				currentLength = length;
+			} else {
+				previousOffsets.add(offset);
+				previousHashes.append(hash);
+				previousLength = length;
+			}
+		}
+
+		private void compare(Delta delta, OffHeapBytesIntMap resized, LongArrayList unchangedPaths) {
+			if (key == null) {
+				return;
+			}
+			if (previousHashes.toString().equals(currentHashes.toString())) {
+				delta.unchanged += currentOffsets.size();
+				if (key[0] == 'P') {
+					for (int i = 0; i < currentOffsets.size(); i++) {
+						unchangedPaths.add(previousOffsets.get(i));
+						unchangedPaths.add(currentOffsets.get(i));
+					}
+				}
+				return;
+			}
+			delta.removed.addAll(previousOffsets);
+			delta.added.addAll(currentOffsets);
+			if (key[0] == 'S' && previousLength >= 0 && currentLength >= 0 && previousLength != currentLength) {
+				resized.put(ByteBuffer.wrap(key), 1, key.length, 1);
+			}
+		}
+	}
+
+	private static boolean stepsOnResized(MappedGFAReader gfa, long offset, OffHeapBytesIntMap resized)
+			throws IOException {
+		boolean[] found = { false };
+		gfa.readLine(offset, (line, start, end) -> {
+			int stepsStart = fieldStart(nextField(line, start + 2, end), end);
+			int stepsEnd = nextField(line, stepsStart, end);
+			int stepStart = stepsStart;
+			while (stepStart < stepsEnd && !found[0]) {
+				int stepEnd = stepStart;
+				while (stepEnd < stepsEnd && line.get(stepEnd) != ',') {
+					stepEnd++;
+				}
+				// The last character of a step is its orientation.
+				found[0] = resized.get(line, stepStart, stepEnd - 1) != 0;
+				stepStart = stepEnd + 1;
+			}
+		});
+		return found[0];
+	}
+
+	private static int nextField(ByteBuffer line, int from, int end) {
+		for (int i = from; i < end; i++) {
+			if (line.get(i) == '\t') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private static int fieldStart(int previousFieldEnd, int end) {
+		return Math.min(previousFieldEnd + 1, end);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every JVM has SHA-256", e);
+		}
+	}
+
+	/**
+	 * Puts a letter and a space in front of every line, turning N-Triples into
+	 * the add or delete rows of an RDF Patch.
+	 */
+	private static final class LinePrefixing extends FilterOutputStream {
+		private final byte letter;
+		private boolean lineStart = true;
+
+		private LinePrefixing(OutputStream out, char letter) {
+			super(out);
+			this.letter = (byte) letter;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (lineStart) {
+				out.write(letter);
+				out.write(' ');
+			}
+			out.write(b);
+			lineStart = b == '\n';
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int from = off;
+			for (int i = off; i < off + len; i++) {
+				if (lineStart) {
+					out.write(b, from, i - from);
+					out.write(letter);
+					out.write(' ');
+					from = i;
+				}
+				lineStart = b[i] == '\n';
+			}
+			out.write(b, from, off + len - from);
+		}
+	}
+}
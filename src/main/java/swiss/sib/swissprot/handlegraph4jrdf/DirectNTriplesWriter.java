@@ -0,0 +1,491 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+
+/**
+ * Writes the triples of a GFA1 graph as N-Triples (which is also valid Turtle)
+ * straight into a reusable byte buffer. No RDF4J statements, values or
+ * per-triple strings are created, the IRIs of the vocabulary and the
+ * namespaces of the current path are encoded once.
+ *
+ * This writer emits the same triples as the RDF4J Rio based conversion in
+ * {@link GFA2RDF}, which remains the reference implementation.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class DirectNTriplesWriter implements RecordWriter {
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] TYPE = iri(RDF.TYPE);
+	private static final byte[] VALUE = iri(RDF.VALUE);
+	private static final byte[] PATH_CLASS = iri(VG.Path);
+	private static final byte[] STEP_CLASS = iri(VG.Step);
+	private static final byte[] NODE_CLASS = iri(VG.Node);
+	private static final byte[] PATH = iri(VG.path);
+	private static final byte[] RANK = iri(VG.rank);
+	private static final byte[] NODE = iri(VG.node);
+	private static final byte[] FORWARD_TO_FORWARD = iri(VG.linksForwardToForward);
+	private static final byte[] FORWARD_TO_REVERSE = iri(VG.linksForwardToReverse);
+	private static final byte[] REVERSE_TO_FORWARD = iri(VG.linksReverseToForward);
+	private static final byte[] REVERSE_TO_REVERSE = iri(VG.linksReverseToReverse);
+	private static final byte[] REGION_CLASS = iri(FALDO.Region);
+	private static final byte[] POSITION_CLASS = iri(FALDO.Position);
+	private static final byte[] EXACT_POSITION_CLASS = iri(FALDO.ExactPosition);
+	private static final byte[] BEGIN = iri(FALDO.begin);
+	private static final byte[] END = iri(FALDO.end);
+	private static final byte[] POSITION = iri(FALDO.position);
+	private static final byte[] INT_DATATYPE = ("\"^^" + new String(iri(XSD.INT), US_ASCII)).getBytes(US_ASCII);
+	private static final byte[] LONG_DATATYPE = ("\"^^" + new String(iri(XSD.LONG), US_ASCII)).getBytes(US_ASCII);
+	private static final byte[] TRIPLE_END = " .\n".getBytes(US_ASCII);
+
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int pos = 0;
+
+	private final boolean preCompress;
+	private final boolean extra;
+	private final byte[] nodeNamespace;
+	private byte[] pathIRI;
+	private byte[] pathStepNamespace;
+	private byte[] pathPositionNamespace;
+	private final ConversionMetrics metrics;
+	// The predicates are constants, so their counters can be found by identity.
+	private final Map<byte[], LongAdder> triplesByPredicate = new IdentityHashMap<>();
+	private long triples;
+
+	/**
+	 * @param out         where the N-Triples are written to
+	 * @param base        the base IRI of the graph
+	 * @param preCompress leave out the inferable triples
+	 * @param extra       write the FALDO positions of each step
+	 */
+	DirectNTriplesWriter(OutputStream out, String base, boolean preCompress, boolean extra) {
+		this(out, base, preCompress, extra, new ConversionMetrics());
+	}
+
+	/**
+	 * @param metrics counts the triples written by predicate
+	 */
+	DirectNTriplesWriter(OutputStream out, String base, boolean preCompress, boolean extra,
+			ConversionMetrics metrics) {
+		this(out, base, preCompress, extra, DEFAULT_BUFFER_SIZE, metrics);
+	}
+
+	DirectNTriplesWriter(OutputStream out, String base, boolean preCompress, boolean extra, int bufferSize,
+			ConversionMetrics metrics) {
+		this.out = out;
+		this.buffer = new byte[bufferSize];
+		this.preCompress = preCompress;
+		this.extra = extra;
+		this.nodeNamespace = ('<' + base + "node/").getBytes(UTF_8);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Start a new path, all following steps belong to it.
+	 *
+	 * @param pathIRI the full IRI of the path
+	 */
+	@Override
+	public void startPath(String pathIRI) {
+		this.pathIRI = ('<' + pathIRI + '>').getBytes(UTF_8);
+		this.pathStepNamespace = ('<' + pathIRI + "/step/").getBytes(UTF_8);
+		this.pathPositionNamespace = ('<' + pathIRI + "/position/").getBytes(UTF_8);
+		write(this.pathIRI);
+		writePredicate(TYPE);
+		write(PATH_CLASS);
+		write(TRIPLE_END);
+	}
+
+	/**
+	 * Write a step of the current path.
+	 *
+	 * @param rank   of the step in the path
+	 * @param nodeId the id of the node that this step visits
+	 * @param begin  the first position of this step on the path, only used with
+	 *               extra
+	 * @param end    the position after the last of this step, only used with
+	 *               extra
+	 */
+	void writeStep(long rank, byte[] nodeId, long begin, long end) {
+		writeStepStart(rank);
+		writeNodeIRI(nodeId, 0, nodeId.length);
+		write(TRIPLE_END);
+		if (extra) {
+			writePositions(rank, begin, end);
+		}
+	}
+
+	@Override
+	public void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end) {
+		writeStepStart(rank);
+		writeNodeIRI(line, nodeStart, nodeEnd - nodeStart);
+		write(TRIPLE_END);
+		if (extra) {
+			writePositions(rank, begin, end);
+		}
+	}
+
+	/**
+	 * Writes all triples of a step up to the object of its vg:node triple.
+	 */
+	private void writeStepStart(long rank) {
+		if (!preCompress) {
+			writeStepIRI(rank);
+			writePredicate(TYPE);
+			write(STEP_CLASS);
+			write(TRIPLE_END);
+			writeStepIRI(rank);
+			writePredicate(TYPE);
+			write(REGION_CLASS);
+			write(TRIPLE_END);
+		}
+		writeStepIRI(rank);
+		writePredicate(PATH);
+		write(pathIRI);
+		write(TRIPLE_END);
+
+		writeStepIRI(rank);
+		writePredicate(RANK);
+		writeIntegerLiteral(rank);
+		write(TRIPLE_END);
+
+		writeStepIRI(rank);
+		writePredicate(NODE);
+	}
+
+	private void writePositions(long rank, long begin, long end) {
+		writeStepIRI(rank);
+		writePredicate(BEGIN);
+		writePositionIRI(begin);
+		write(TRIPLE_END);
+
+		writeStepIRI(rank);
+		writePredicate(END);
+		writePositionIRI(end);
+		write(TRIPLE_END);
+		writePosition(begin);
+		writePosition(end);
+	}
+
+	private void writePosition(long position) {
+		if (!preCompress) {
+			writePositionIRI(position);
+			writePredicate(TYPE);
+			write(POSITION_CLASS);
+			write(TRIPLE_END);
+		}
+		writePositionIRI(position);
+		writePredicate(TYPE);
+		write(EXACT_POSITION_CLASS);
+		write(TRIPLE_END);
+
+		writePositionIRI(position);
+		writePredicate(POSITION);
+		writeIntegerLiteral(position);
+		write(TRIPLE_END);
+	}
+
+	/**
+	 * Write a node with its sequence.
+	 *
+	 * @param name     the id of the node
+	 * @param sequence the nucleotide sequence, never needs escaping
+	 */
+	void writeNode(byte[] name, String sequence) {
+		writeNodeIRI(name, 0, name.length);
+		writePredicate(TYPE);
+		write(NODE_CLASS);
+		write(TRIPLE_END);
+
+		writeNodeIRI(name, 0, name.length);
+		writePredicate(VALUE);
+		writeByte('"');
+		writeAscii(sequence);
+		writeByte('"');
+		write(TRIPLE_END);
+	}
+
+	@Override
+	public void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd) {
+		writeNodeIRI(line, nameStart, nameEnd - nameStart);
+		writePredicate(TYPE);
+		write(NODE_CLASS);
+		write(TRIPLE_END);
+		if (sequenceStart == NO_SEQUENCE) {
+			return;
+		}
+		writeNodeIRI(line, nameStart, nameEnd - nameStart);
+		writePredicate(VALUE);
+		writeByte('"');
+		write(line, sequenceStart, sequenceEnd - sequenceStart);
+		writeByte('"');
+		write(TRIPLE_END);
+	}
+
+	@Override
+	public boolean streamsSequences() {
+		return true;
+	}
+
+	@Override
+	public void startNode(ByteBuffer line, int nameStart, int nameEnd) {
+		writeNodeIRI(line, nameStart, nameEnd - nameStart);
+		writePredicate(TYPE);
+		write(NODE_CLASS);
+		write(TRIPLE_END);
+
+		writeNodeIRI(line, nameStart, nameEnd - nameStart);
+		writePredicate(VALUE);
+		writeByte('"');
+	}
+
+	@Override
+	public void sequence(ByteBuffer line, int start, int end) {
+		write(line, start, end - start);
+	}
+
+	@Override
+	public void endNode() {
+		writeByte('"');
+		write(TRIPLE_END);
+	}
+
+	/**
+	 * Write a link between two nodes.
+	 */
+	void writeLink(byte[] from, boolean reverseOfFrom, byte[] to, boolean reverseOfTo) {
+		writeNodeIRI(from, 0, from.length);
+		writePredicate(linkPredicate(reverseOfFrom, reverseOfTo));
+		writeNodeIRI(to, 0, to.length);
+		write(TRIPLE_END);
+	}
+
+	@Override
+	public void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart, int toEnd,
+			boolean reverseOfTo) {
+		writeNodeIRI(line, fromStart, fromEnd - fromStart);
+		writePredicate(linkPredicate(reverseOfFrom, reverseOfTo));
+		writeNodeIRI(line, toStart, toEnd - toStart);
+		write(TRIPLE_END);
+	}
+
+	private static byte[] linkPredicate(boolean reverseOfFrom, boolean reverseOfTo) {
+		if (reverseOfFrom) {
+			return reverseOfTo ? REVERSE_TO_REVERSE : REVERSE_TO_FORWARD;
+		} else {
+			return reverseOfTo ? FORWARD_TO_REVERSE : FORWARD_TO_FORWARD;
+		}
+	}
+
+	private void writeNodeIRI(byte[] name, int offset, int length) {
+		write(nodeNamespace);
+		write(name, offset, length);
+		writeByte('>');
+	}
+
+	private void writeNodeIRI(ByteBuffer line, int offset, int length) {
+		write(nodeNamespace);
+		write(line, offset, length);
+		writeByte('>');
+	}
+
+	private void writeStepIRI(long rank) {
+		write(pathStepNamespace);
+		writeLong(rank);
+		writeByte('>');
+	}
+
+	private void writePositionIRI(long position) {
+		write(pathPositionNamespace);
+		writeLong(position);
+		writeByte('>');
+	}
+
+	private void writePredicate(byte[] predicate) {
+		LongAdder triples = triplesByPredicate.get(predicate);
+		if (triples == null) {
+			triples = metrics.triples(new String(predicate, 1, predicate.length - 2, UTF_8));
+			triplesByPredicate.put(predicate, triples);
+		}
+		triples.increment();
+		this.triples++;
+		writeByte(' ');
+		write(predicate);
+		writeByte(' ');
+	}
+
+	/**
+	 * Same datatype choice as the Rio conversion: xsd:int when it fits, xsd:long
+	 * otherwise.
+	 */
+	private void writeIntegerLiteral(long value) {
+		writeByte('"');
+		writeLong(value);
+		if (value < Integer.MAX_VALUE) {
+			write(INT_DATATYPE);
+		} else {
+			write(LONG_DATATYPE);
+		}
+	}
+
+	private void writeLong(long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				write(Long.toString(value).getBytes(US_ASCII));
+				return;
+			}
+			writeByte('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		ensure(digits);
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buffer[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		pos += digits;
+	}
+
+	private void writeByte(char b) {
+		ensure(1);
+		buffer[pos++] = (byte) b;
+	}
+
+	private void write(byte[] bytes) {
+		write(bytes, 0, bytes.length);
+	}
+
+	private void write(byte[] bytes, int offset, int length) {
+		if (length > buffer.length - pos) {
+			flushBuffer();
+			if (length > buffer.length) {
+				try {
+					out.write(bytes, offset, length);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, pos, length);
+		pos += length;
+	}
+
+	/**
+	 * Copies from the buffer in pieces, so that slices larger than the write
+	 * buffer do not need to be materialized.
+	 */
+	private void write(ByteBuffer bytes, int offset, int length) {
+		while (length > 0) {
+			if (pos == buffer.length) {
+				flushBuffer();
+			}
+			int toCopy = Math.min(length, buffer.length - pos);
+			bytes.get(offset, buffer, pos, toCopy);
+			pos += toCopy;
+			offset += toCopy;
+			length -= toCopy;
+		}
+	}
+
+	/**
+	 * Copies the characters of an ASCII string into the buffer one by one,
+	 * without encoding it into a new byte array first.
+	 */
+	private void writeAscii(String ascii) {
+		int length = ascii.length();
+		for (int i = 0; i < length; i++) {
+			if (pos == buffer.length) {
+				flushBuffer();
+			}
+			buffer[pos++] = (byte) ascii.charAt(i);
+		}
+	}
+
+	private void ensure(int length) {
+		if (length > buffer.length - pos) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() {
+		try {
+			out.write(buffer, 0, pos);
+			pos = 0;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the number of triples written by this writer
+	 */
+	@Override
+	public long triples() {
+		return triples;
+	}
+
+	/**
+	 * Write out the buffered triples and flush the underlying stream.
+	 */
+	void flush() {
+		flushBuffer();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Flushes, but does not close the underlying stream.
+	 */
+	@Override
+	public void close() {
+		flush();
+	}
+
+	private static byte[] iri(IRI iri) {
+		return ('<' + iri.stringValue() + '>').getBytes(UTF_8);
+	}
+}
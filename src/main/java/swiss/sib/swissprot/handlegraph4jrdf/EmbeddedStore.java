@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.eclipse.rdf4j.common.transaction.IsolationLevels;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.lmdb.LmdbStore;
+import org.eclipse.rdf4j.sail.lmdb.config.LmdbStoreConfig;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
+
+/**
+ * An RDF4J native or LMDB store embedded in this process, loaded through a
+ * {@link SailRepository} connection. The statements are added as they are,
+ * they are never serialized.
+ * <p>
+ * The native store builds the triple indexes that are configured but missing
+ * when it starts. While loading it runs with only the first of its indexes,
+ * afterwards it is restarted with all of them, which builds the others in one
+ * pass over the first. The LMDB store of RDF4J 4.3 hangs when it reindexes, so
+ * it keeps all of its indexes up to date while loading.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public final class EmbeddedStore implements StoreLoader.Store, AutoCloseable {
+	/**
+	 * The triple indexes of a store, by default.
+	 */
+	public static final String DEFAULT_INDEXES = "spoc,posc";
+
+	/**
+	 * The kinds of embedded stores.
+	 */
+	public enum Type {
+		/**
+		 * The RDF4J native store, B-trees in files.
+		 */
+		NATIVE,
+		/**
+		 * The RDF4J LMDB store.
+		 */
+		LMDB
+	}
+
+	private final Path directory;
+	private final Type type;
+	private final String indexes;
+	private final Resource[] contexts;
+	private SailRepository repository;
+	private RepositoryConnection connection;
+
+	/**
+	 * Opens, or creates, the store.
+	 *
+	 * @param directory where the store keeps its files
+	 * @param type      which store
+	 * @param indexes   the triple indexes, e.g. {@value #DEFAULT_INDEXES}
+	 * @param graph     the IRI of the named graph to add to, or null for the
+	 *                  default graph
+	 */
+	public EmbeddedStore(Path directory, Type type, String indexes, String graph) {
+		this.directory = directory;
+		this.type = type;
+		this.indexes = indexes;
+		this.contexts = graph == null ? new Resource[0]
+				: new Resource[] { SimpleValueFactory.getInstance().createIRI(graph) };
+		open(indexes);
+	}
+
+	/**
+	 * @return the connection the statements are loaded through
+	 */
+	public RepositoryConnection getConnection() {
+		return connection;
+	}
+
+	@Override
+	public void begin() {
+		// Nothing reads the store while it is loaded.
+		connection.begin(IsolationLevels.NONE);
+	}
+
+	@Override
+	public void add(List<Statement> statements) {
+		connection.add(statements, contexts);
+	}
+
+	@Override
+	public void commit() {
+		connection.commit();
+	}
+
+	@Override
+	public void rollback() {
+		connection.rollback();
+	}
+
+	@Override
+	public void setNamespace(String prefix, String name) {
+		connection.setNamespace(prefix, name);
+	}
+
+	@Override
+	public void deferIndexes() {
+		int firstEnd = indexes.indexOf(',');
+		if (type == Type.NATIVE && firstEnd >= 0) {
+			reopen(indexes.substring(0, firstEnd).trim());
+		}
+	}
+
+	@Override
+	public void buildIndexes() {
+		if (type == Type.NATIVE && indexes.indexOf(',') >= 0) {
+			reopen(indexes);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			connection.close();
+		} finally {
+			repository.shutDown();
+		}
+	}
+
+	private void reopen(String tripleIndexes) {
+		close();
+		open(tripleIndexes);
+	}
+
+	private void open(String tripleIndexes) {
+		Sail sail;
+		switch (type) {
+		case LMDB:
+			sail = new LmdbStore(directory.toFile(), new LmdbStoreConfig(tripleIndexes));
+			break;
+		default:
+			sail = new NativeStore(directory.toFile(), tripleIndexes);
+		}
+		repository = new SailRepository(sail);
+		repository.init();
+		connection = repository.getConnection();
+	}
+}
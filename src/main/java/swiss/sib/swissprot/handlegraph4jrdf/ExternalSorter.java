@@ -0,0 +1,243 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts byte records by their unsigned bytes, with bounded memory. Records are
+ * collected until the memory budget is used up, then sorted and written to a
+ * run file. Reading merges the runs, at most {@link #MAX_FAN_IN} at a time.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class ExternalSorter implements AutoCloseable {
+	static final int MAX_FAN_IN = 64;
+	// Roughly what an array and its reference cost beyond its bytes.
+	private static final int RECORD_OVERHEAD = 24;
+	private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Receives the records in sorted order.
+	 */
+	@FunctionalInterface
+	interface RecordConsumer {
+		void accept(byte[] record) throws IOException;
+	}
+
+	private final Path directory;
+	private final String name;
+	private final long memoryBudget;
+	private final List<byte[]> records = new ArrayList<>();
+	private long used;
+	private final List<Path> runs = new ArrayList<>();
+	private long added;
+
+	/**
+	 * @param directory    where the runs are written
+	 * @param name         to recognize the run files by
+	 * @param memoryBudget the number of bytes of records kept in memory
+	 */
+	ExternalSorter(Path directory, String name, long memoryBudget) {
+		this.directory = directory;
+		this.name = name;
+		this.memoryBudget = memoryBudget;
+	}
+
+	void add(byte[] record) throws IOException {
+		records.add(record);
+		added++;
+		used += record.length + RECORD_OVERHEAD;
+		if (used >= memoryBudget) {
+			spill();
+		}
+	}
+
+	/**
+	 * @return the number of records added
+	 */
+	long size() {
+		return added;
+	}
+
+	/**
+	 * Give all records to the consumer in sorted order. No records may be added
+	 * afterwards.
+	 *
+	 * @param distinct give equal records only once
+	 */
+	void sorted(boolean distinct, RecordConsumer consumer) throws IOException {
+		RecordConsumer target = distinct ? new Distinct(consumer) : consumer;
+		if (runs.isEmpty()) {
+			records.sort(Arrays::compareUnsigned);
+			for (byte[] record : records) {
+				target.accept(record);
+			}
+			records.clear();
+			return;
+		}
+		spill();
+		while (runs.size() > MAX_FAN_IN) {
+			List<Path> merged = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+			runs.subList(0, MAX_FAN_IN).clear();
+			Path run = newRun();
+			try (DataOutputStream out = open(run)) {
+				merge(merged, record -> write(out, record));
+			}
+			runs.add(run);
+		}
+		merge(new ArrayList<>(runs), target);
+	}
+
+	private void spill() throws IOException {
+		if (records.isEmpty()) {
+			return;
+		}
+		records.sort(Arrays::compareUnsigned);
+		Path run = newRun();
+		try (DataOutputStream out = open(run)) {
+			for (byte[] record : records) {
+				write(out, record);
+			}
+		}
+		runs.add(run);
+		records.clear();
+		used = 0;
+	}
+
+	private Path newRun() throws IOException {
+		return Files.createTempFile(directory, name, ".run");
+	}
+
+	private static DataOutputStream open(Path run) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), RUN_BUFFER_SIZE));
+	}
+
+	private static void write(DataOutputStream out, byte[] record) throws IOException {
+		out.writeInt(record.length);
+		out.write(record);
+	}
+
+	/**
+	 * Merge the runs into the consumer, deleting them once read.
+	 */
+	private void merge(List<Path> toMerge, RecordConsumer consumer) throws IOException {
+		PriorityQueue<Run> heads = new PriorityQueue<>((a, b) -> Arrays.compareUnsigned(a.head, b.head));
+		try {
+			for (Path path : toMerge) {
+				Run run = new Run(path);
+				if (run.next()) {
+					heads.add(run);
+				} else {
+					run.close();
+				}
+			}
+			while (!heads.isEmpty()) {
+				Run run = heads.poll();
+				consumer.accept(run.head);
+				if (run.next()) {
+					heads.add(run);
+				} else {
+					run.close();
+				}
+			}
+		} finally {
+			for (Run run : heads) {
+				run.close();
+			}
+			for (Path path : toMerge) {
+				Files.deleteIfExists(path);
+				runs.remove(path);
+			}
+		}
+	}
+
+	/**
+	 * Removes all run files that are left.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+		records.clear();
+	}
+
+	private static final class Run {
+		private final DataInputStream in;
+		private byte[] head;
+
+		private Run(Path path) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), RUN_BUFFER_SIZE));
+		}
+
+		private boolean next() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			head = new byte[length];
+			in.readFully(head);
+			return true;
+		}
+
+		private void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Skips records equal to the one before.
+	 */
+	private static final class Distinct implements RecordConsumer {
+		private final RecordConsumer consumer;
+		private byte[] previous;
+
+		private Distinct(RecordConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void accept(byte[] record) throws IOException {
+			if (previous == null || !Arrays.equals(previous, record)) {
+				previous = record;
+				consumer.accept(record);
+			}
+		}
+	}
+}
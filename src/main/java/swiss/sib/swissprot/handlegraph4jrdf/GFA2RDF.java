@@ -26,34 +26,56 @@ package swiss.sib.swissprot.handlegraph4jrdf;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
-import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
 import org.eclipse.rdf4j.common.net.ParsedIRI;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Namespace;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
 import org.eclipse.rdf4j.model.impl.NumericLiteral;
 import org.eclipse.rdf4j.model.impl.SimpleIRI;
+import org.eclipse.rdf4j.model.impl.SimpleNamespace;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandler;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.Rio;
 import org.eclipse.rdf4j.rio.UnsupportedRDFormatException;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
 import org.eclipse.rdf4j.rio.helpers.BasicWriterSettings;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
+import org.eclipse.rdf4j.rio.turtle.TurtleUtil;
 import org.eclipse.rdf4j.rio.turtle.TurtleWriter;
 
 import io.github.jervenbolleman.handlegraph4j.gfa1.GFA1Reader;
@@ -80,17 +102,19 @@ public class GFA2RDF implements Callable<Integer> {
 	}
 
 	private static final ValueFactory VF = SimpleValueFactory.getInstance();
-	private final LongIntHashMap nodeLengthMapByLongId = new LongIntHashMap();
-	private final ObjectIntHashMap<String> nodeLengthMapByByteArrayId = new ObjectIntHashMap<>();
+	NodeLengths nodeLengths = new NodeLengths();
+	private NodeIRICache nodeIRIs;
+	final ConversionMetrics metrics = new ConversionMetrics();
+	private Projection projection = Projection.ALL;
 
 	@Parameters(index = "0", description = "The GFA file to translate to RDF")
 	private File inputFile;
 
-	@Parameters(index = "1", description = "The output file to write RDF too")
+	@Parameters(index = "1", arity = "0..1", description = "The output file to write RDF too, not needed with --store-dir or --graph-store")
 	private File outputFile;
 
 	@Option(names = { "-b", "--base" }, description = "Base IRI of this graph")
-	private String base = "http://example.org/vg/";
+	String base = "http://example.org/vg/";
 
 	@Option(names = { "-s", "--short" }, description = "try to generate shorter text, and leave out inferable triples")
 	boolean preCompress;
@@ -101,31 +125,660 @@ public class GFA2RDF implements Callable<Integer> {
 	@Option(names = { "-f", "--rdf-format" }, description = "Which RDF serialization format to use (mimetype", defaultValue =  "text/turtle")
 	String format = "text/turtle";
 
+	@Option(names = { "--step-chunk-size" }, description = "convert the steps of each path in chunks of this many steps on a fork-join pool, 0 converts them sequentially", defaultValue = "0")
+	int stepChunkSize;
+
+	@Option(names = { "--engine" }, description = "Which output engine to use: ${COMPLETION-CANDIDATES}. DIRECT writes N-Triples without building RDF4J statements, TURTLE writes compact Turtle, BINARY writes dictionary encoded binary RDF and HDT an HDT file. All of them ignore --rdf-format", defaultValue = "RIO")
+	Engine engine = Engine.RIO;
+
+	@Option(names = { "--mmap" }, description = "memory map the input and tokenize it as bytes, instead of decoding it into lines of text")
+	boolean memoryMap;
+
+	@Option(names = { "--stream" }, description = "read the input through a fixed size buffer, streaming the steps of each path so that path lines may be of any length")
+	boolean stream;
+
+	@Option(names = { "--parallel" }, description = "convert the segment and link lines on this many threads, each working on its own byte range of the memory mapped input. Paths follow after all segments and links. Requires --engine DIRECT", defaultValue = "0")
+	int parallel;
+
+	@Option(names = { "--range-size" }, description = "megabytes of input in each --parallel range", defaultValue = "16")
+	long rangeSize = ParallelRangeConverter.DEFAULT_RANGE_SIZE / (1024 * 1024);
+
+	@Option(names = { "--ranges-in-flight" }, description = "the number of --parallel ranges converted or waiting to be written at once, each holds its N-Triples in memory. Defaults to twice --parallel")
+	int rangesInFlight;
+
+	@Option(names = { "--pipeline" }, description = "read, tokenize, map to RDF and write on separate threads connected by bounded queues, reporting how full each queue was in the metrics summary")
+	boolean pipeline;
+
+	@Option(names = { "--virtual-threads" }, description = "run the --pipeline stages on virtual threads when the JVM supports them")
+	boolean virtualThreads;
+
+	@Option(names = { "--node-length-budget" }, description = "megabytes of memory to keep the node lengths for --extra in, beyond which they spill to memory mapped files. 0 means no limit", defaultValue = "0")
+	long nodeLengthBudget;
+
+	@Option(names = { "--spill-directory" }, description = "where node lengths spill to once --node-length-budget is used up, and where --engine HDT sorts, defaults to the temporary directory")
+	File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+	@Option(names = { "--sort-buffer" }, description = "megabytes of records --engine HDT sorts in memory before spilling a sorted run to --spill-directory", defaultValue = "256")
+	long sortBuffer = 256;
+
+	@Option(names = { "--prescan" }, description = "with --extra, read the segment lengths in a first pass so that paths may come before their segments. The lengths are saved next to the input in a " + NodeLengthsSidecar.SUFFIX + " file, reused while the input is unchanged")
+	boolean prescan;
+
+	@Option(names = { "--report-interval" }, description = "seconds between progress reports on stderr, 0 for none", defaultValue = "60")
+	long reportInterval = 60;
+
+	@Option(names = { "--node-iri-cache" }, description = "how many node IRIs to keep for reuse by the links and steps referring to them, 0 for none", defaultValue = "" + NodeIRICache.DEFAULT_CAPACITY)
+	int nodeIRICacheSize = NodeIRICache.DEFAULT_CAPACITY;
+
+	@Option(names = { "--compression" }, description = "how to compress the output: ${COMPLETION-CANDIDATES}. AUTO picks BGZF for a .gz or .bgz output file, ZSTD for .zst and none otherwise", defaultValue = "AUTO")
+	Compression compression = Compression.AUTO;
+
+	@Option(names = { "--compression-threads" }, description = "the number of threads compressing the output, defaults to the number of processors")
+	int compressionThreads = Runtime.getRuntime().availableProcessors();
+
+	@Option(names = { "--decompression-threads" }, description = "the number of threads inflating the blocks of a BGZF compressed input, defaults to the number of processors")
+	int decompressionThreads = Runtime.getRuntime().availableProcessors();
+
+	@Option(names = { "--shard-by" }, description = "write the output as shards, split by: ${COMPLETION-CANDIDATES}. TYPE puts nodes, links and paths in their own shards, PATH also every path. A manifest lists the shards with their triple counts. Reads the input with --stream, or --mmap when given", defaultValue = "NONE")
+	ShardedOutput.SplitBy shardBy = ShardedOutput.SplitBy.NONE;
+
+	@Option(names = { "--shard-size" }, description = "megabytes of uncompressed RDF after which a shard is closed and the next one started, 0 for no limit", defaultValue = "0")
+	long shardSize;
+
+	@Option(names = { "--checkpoint-interval" }, description = "seconds between checkpoints of how far the conversion got, written to a " + Checkpoints.SUFFIX + " file next to the output, 0 for none. Requires --engine DIRECT", defaultValue = "0")
+	double checkpointInterval;
+
+	@Option(names = { "--resume" }, description = "continue from the checkpoint next to the output, cutting the output back to it. Needs the same input and options as the run that wrote the checkpoint")
+	boolean resume;
+
+	@Option(names = { "--previous" }, description = "write only what changed since this earlier version of the input, as an RDF Patch of N-Triples that deletes the removed and adds the added triples. Lines are compared by a hash of their content, sorted on disk in --spill-directory")
+	File previous;
+
+	@Option(names = { "--removed" }, description = "with --previous, write the removed triples as N-Triples to this file and the added ones to the output, instead of an RDF Patch")
+	File removed;
+
+	@Option(names = { "--path" }, description = "convert only the path with this name, may be repeated. Seeks to the paths through an index saved next to the input in a " + GFAIndex.SUFFIX + " file, reused while the input is unchanged. With --extra the node lengths are prescanned")
+	List<String> paths = new ArrayList<>();
+
+	@Option(names = { "--node-range" }, description = "convert only the segments with a numeric id in this range, e.g. 100-200, and the links between them, found through the same index as --path")
+	String nodeRange;
+
+	@Option(names = { "--store-dir" }, description = "load the statements into the embedded RDF4J store in this directory, created when missing, in one pass and without an output file")
+	File storeDirectory;
+
+	@Option(names = { "--store-type" }, description = "the kind of store in --store-dir: ${COMPLETION-CANDIDATES}", defaultValue = "NATIVE")
+	EmbeddedStore.Type storeType = EmbeddedStore.Type.NATIVE;
+
+	@Option(names = { "--store-indexes" }, description = "the triple indexes of the store in --store-dir. A NATIVE store keeps only the first up to date while loading, and builds the others afterwards", defaultValue = EmbeddedStore.DEFAULT_INDEXES)
+	String storeIndexes = EmbeddedStore.DEFAULT_INDEXES;
+
+	@Option(names = { "--graph-store" }, description = "load the statements into the remote store at this SPARQL 1.1 Graph Store HTTP Protocol endpoint instead, without an output file. Each transaction is kept in memory as N-Triples and sent as one POST")
+	String graphStore;
+
+	@Option(names = { "--store-graph" }, description = "the named graph that --store-dir or --graph-store adds to, the default graph when not given")
+	String storeGraph;
+
+	@Option(names = { "--store-batch-size" }, description = "the number of statements handed to the store at once", defaultValue = "" + StoreLoader.DEFAULT_BATCH_SIZE)
+	int storeBatchSize = StoreLoader.DEFAULT_BATCH_SIZE;
+
+	@Option(names = { "--store-commit-size" }, description = "the number of statements in each store transaction", defaultValue = "" + StoreLoader.DEFAULT_COMMIT_SIZE)
+	long storeCommitSize = StoreLoader.DEFAULT_COMMIT_SIZE;
+
+	@Option(names = { "--only" }, description = "convert only these record types, may be repeated: ${COMPLETION-CANDIDATES}. The lines of the other types are skipped by their first byte, without being tokenized. Reads the input as bytes, with --stream unless --mmap is given")
+	List<Projection.RecordType> only = new ArrayList<>();
+
+	@Option(names = { "--no-sequence" }, description = "leave the sequence out of the nodes, which are then only typed. Unless --extra needs their lengths the sequences are not even scanned")
+	boolean noSequence;
+
+	@Option(names = { "--no-steps" }, description = "leave the steps out of the paths, which are then only typed. The steps are skipped without being tokenized")
+	boolean noSteps;
+
+	@Option(names = { "--metrics-json" }, description = "write a JSON summary of the conversion to this file, instead of to stderr")
+	File metricsJson;
+
+	/**
+	 * The ways the triples can be serialized.
+	 */
+	enum Engine {
+		/**
+		 * Build RDF4J statements and hand them to a Rio writer, the reference
+		 * implementation.
+		 */
+		RIO,
+		/**
+		 * Write N-Triples bytes directly with the {@link DirectNTriplesWriter}.
+		 */
+		DIRECT,
+		/**
+		 * Write Turtle with the {@link PrefixedURITurtleWriter}, which writes the
+		 * prefixed names of the generated IRIs without looking them up.
+		 */
+		TURTLE,
+		/**
+		 * Write dictionary encoded binary RDF with the {@link BinaryRDFWriter}, to
+		 * be read back with the {@link BinaryRDFReader}.
+		 */
+		BINARY,
+		/**
+		 * Write an HDT file with the {@link HDTWriter}, sorting the terms and
+		 * triples on disk.
+		 */
+		HDT
+	}
+
+	/**
+	 * The ways the output can be compressed.
+	 */
+	enum Compression {
+		/**
+		 * Choose by the extension of the output file.
+		 */
+		AUTO,
+		/**
+		 * Write the RDF as is.
+		 */
+		NONE,
+		/**
+		 * Blocked gzip, readable by gzip and the htslib tools.
+		 */
+		BGZF,
+		/**
+		 * Zstandard frames.
+		 */
+		ZSTD;
+
+		/**
+		 * @return the compression to use for the output file
+		 */
+		Compression of(File output) {
+			if (this != AUTO) {
+				return this;
+			}
+			String name = output.getName();
+			if (name.endsWith(".gz") || name.endsWith(".bgz")) {
+				return BGZF;
+			} else if (name.endsWith(".zst") || name.endsWith(".zstd")) {
+				return ZSTD;
+			}
+			return NONE;
+		}
+	}
+
 	/**
 	 * Run the actual conversion.
 	 */
 	@Override
 	public Integer call() throws Exception { // your business logic goes here...
 		ParsedIRI baseIRI = new ParsedIRI(base);
-		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-			try (Stream<String> s = Files.lines(inputFile.toPath(), StandardCharsets.US_ASCII)) {
-				writeConvertedToOutputStream(out, baseIRI, s);
+		boolean selecting = !paths.isEmpty() || nodeRange != null;
+		boolean sharded = shardBy != ShardedOutput.SplitBy.NONE || shardSize > 0;
+		boolean compressedInput = BlockDecompressedInputStream.isCompressed(inputFile.toPath());
+		projection = Projection.of(only, noSequence, noSteps);
+		checkOptions(selecting, sharded, compressedInput);
+		OffHeapAllocator allocator = nodeLengthBudget > 0
+				? new OffHeapAllocator(nodeLengthBudget * 1024 * 1024, spillDirectory.toPath())
+				: new OffHeapAllocator();
+		if (compressedInput && (memoryMap || parallel > 0)) {
+			System.err.println(inputFile + " is compressed and can not be memory mapped, reading it as a stream");
+		}
+		boolean withoutNodes = !projection.converts(Projection.RecordType.NODES);
+		if (extra && (prescan || selecting || withoutNodes)) {
+			nodeLengths = NodeLengthsSidecar.loadOrBuild(inputFile.toPath(), allocator, decompressionThreads);
+		} else if (nodeLengthBudget > 0) {
+			nodeLengths = new NodeLengths(allocator);
+		}
+		metrics.inputSize(Files.size(inputFile.toPath()));
+		ScheduledExecutorService reporter = reportInterval > 0 ? metrics.reportEvery(reportInterval, System.err)
+				: null;
+		Runnable batchSummaries = ConversionEvents.startBatchSummaries(metrics);
+		Checkpoints checkpoints = checkpointInterval > 0 || resume ? openCheckpoints() : null;
+		boolean loading = storeDirectory != null || graphStore != null;
+		try (OutputStream out = sharded || loading ? null
+				: metrics.countOutput(checkpoints == null ? openOutput(outputFile)
+						: openOutput(checkpoints.openOutput(), outputFile))) {
+			if (checkpoints != null) {
+				writeCheckpointed(out, checkpoints, compressedInput);
+			} else if (previous != null) {
+				writeDelta(out);
+			} else if (selecting) {
+				writeSelected(out, baseIRI);
+			} else if (storeDirectory != null) {
+				try (ByteInput input = memoryMap && !compressedInput ? new MappedGFAReader(inputFile.toPath())
+						: new StreamingGFAReader(openInput());
+						EmbeddedStore embedded = new EmbeddedStore(storeDirectory.toPath(), storeType, storeIndexes,
+								storeGraph)) {
+					loadConvertedIntoStore(input, new StoreLoader(embedded, storeBatchSize, storeCommitSize));
+				}
+			} else if (graphStore != null) {
+				try (ByteInput input = memoryMap && !compressedInput ? new MappedGFAReader(inputFile.toPath())
+						: new StreamingGFAReader(openInput())) {
+					loadConvertedIntoStore(input, new StoreLoader(new GraphStore(graphStore, storeGraph),
+							storeBatchSize, storeCommitSize));
+				}
+			} else if (sharded) {
+				try (ByteInput input = memoryMap && !compressedInput ? new MappedGFAReader(inputFile.toPath())
+						: new StreamingGFAReader(openInput())) {
+					writeSharded(outputFile.toPath(), baseIRI, input, shardSize * 1024 * 1024);
+				}
+			} else if (parallel > 0 && !compressedInput) {
+				try (MappedGFAReader reader = new MappedGFAReader(inputFile.toPath())) {
+					writeConvertedInParallel(out, reader, rangeSize * 1024 * 1024);
+				}
+			} else if (memoryMap && !compressedInput) {
+				try (MappedGFAReader reader = new MappedGFAReader(inputFile.toPath())) {
+					writeConvertedToOutputStream(out, baseIRI, reader);
+				}
+			} else if (pipeline) {
+				try (InputStream in = openInput()) {
+					writeConvertedPipelined(out, baseIRI, in, PipelinedConverter.DEFAULT_BLOCK_SIZE);
+				}
+			} else if (stream || memoryMap || parallel > 0 || !projection.isAll()) {
+				try (StreamingGFAReader reader = new StreamingGFAReader(openInput())) {
+					writeConvertedToOutputStream(out, baseIRI, reader);
+				}
+			} else {
+				InputStream in = openInput();
+				try (Stream<String> s = new BufferedReader(
+						new InputStreamReader(in, StandardCharsets.US_ASCII.newDecoder())).lines()) {
+					writeConvertedToOutputStream(out, baseIRI, s);
+				}
 			}
+		} finally {
+			nodeLengths.close();
+			if (reporter != null) {
+				reporter.shutdownNow();
+			}
+			ConversionEvents.stopBatchSummaries(batchSummaries);
+			writeMetrics();
+		}
+		if (checkpoints != null) {
+			// Only once the output is closed and complete.
+			checkpoints.completed();
 		}
 		return 0;
 	}
 
+	/**
+	 * Reject the combinations of options that can not work, before any output is
+	 * opened.
+	 */
+	private void checkOptions(boolean selecting, boolean sharded, boolean compressedInput) throws IOException {
+		if (storeDirectory != null || graphStore != null) {
+			if (storeDirectory != null && graphStore != null) {
+				throw new IllegalArgumentException("Load into either --store-dir or --graph-store, not both");
+			} else if (sharded || parallel > 0 || pipeline || checkpointInterval > 0 || resume || previous != null
+					|| selecting) {
+				throw new IllegalArgumentException("A store is loaded with the whole conversion in one pass, it can "
+						+ "not be combined with sharding, --parallel, --pipeline, checkpoints, --previous or a "
+						+ "selection");
+			}
+		} else if (outputFile == null) {
+			throw new IllegalArgumentException("An output file is needed, unless loading into --store-dir or "
+					+ "--graph-store");
+		}
+		if (previous != null) {
+			if (engine != Engine.DIRECT) {
+				throw new IllegalArgumentException("--previous writes N-Triples, it requires --engine DIRECT");
+			} else if (parallel > 0 || pipeline || sharded || selecting || !projection.isAll()) {
+				throw new IllegalArgumentException("--previous writes a single delta of the whole input, it can not "
+						+ "be combined with --parallel, --pipeline, sharding, --path, --node-range, --only, "
+						+ "--no-sequence or --no-steps");
+			} else if (compressedInput || BlockDecompressedInputStream.isCompressed(previous.toPath())) {
+				throw new IllegalArgumentException("--previous compares memory mapped files, decompress "
+						+ inputFile + " and " + previous + " first");
+			}
+		} else if (selecting) {
+			if (parallel > 0 || pipeline || sharded) {
+				throw new IllegalArgumentException(
+						"--path and --node-range can not be combined with --parallel, --pipeline or sharding");
+			} else if (compressedInput) {
+				throw new IllegalArgumentException("--path and --node-range seek in the input, decompress "
+						+ inputFile + " first");
+			}
+		}
+		if (engine == Engine.HDT && shardSize > 0) {
+			throw new IllegalArgumentException("--shard-size needs the shards to be written while converting, "
+					+ "--engine HDT only writes when all triples are sorted");
+		}
+		if (parallel > 0) {
+			if (engine != Engine.DIRECT) {
+				throw new IllegalArgumentException("--parallel needs the output of each range to be concatenable, "
+						+ "which only --engine DIRECT guarantees");
+			} else if (rangeSize < 1 || rangesInFlight < 0) {
+				throw new IllegalArgumentException("--range-size must be positive and --ranges-in-flight can not be "
+						+ "negative");
+			}
+		}
+		if (compressionThreads < 1) {
+			throw new IllegalArgumentException("--compression-threads needs at least one thread");
+		}
+	}
+
+	/**
+	 * @return the input file, decompressed if needed. The compressed bytes are
+	 *         counted, as they are what the size of the input file measures.
+	 */
+	private InputStream openInput() throws IOException {
+		return BlockDecompressedInputStream.open(metrics.countInput(Files.newInputStream(inputFile.toPath())),
+				decompressionThreads);
+	}
+
+	/**
+	 * @return the output file, buffered and compressed as asked
+	 */
+	private OutputStream openOutput(File output) throws IOException {
+		return openOutput(new FileOutputStream(output), output);
+	}
+
+	/**
+	 * @param opened the output file, opened where writing continues
+	 * @return the output file, buffered and compressed as asked
+	 */
+	OutputStream openOutput(OutputStream opened, File output) {
+		OutputStream file = ConversionEvents.recordFlushes(opened);
+		switch (compression.of(output)) {
+		case BGZF:
+			return new BlockCompressedOutputStream(file, BlockCompressedOutputStream.Codec.BGZF,
+					compressionThreads);
+		case ZSTD:
+			return new BlockCompressedOutputStream(file, BlockCompressedOutputStream.Codec.ZSTD,
+					compressionThreads);
+		default:
+			return new BufferedOutputStream(file);
+		}
+	}
+
+	/**
+	 * @return the checkpoints of this conversion, read back from the last run
+	 *         when resuming
+	 */
+	Checkpoints openCheckpoints() throws IOException {
+		if (engine != Engine.DIRECT) {
+			throw new IllegalArgumentException("--checkpoint-interval and --resume require --engine DIRECT, "
+					+ "the output of the other engines can not be continued from an arbitrary line");
+		} else if (parallel > 0 || pipeline || shardBy != ShardedOutput.SplitBy.NONE || shardSize > 0
+				|| previous != null || !paths.isEmpty() || nodeRange != null) {
+			throw new IllegalArgumentException("--checkpoint-interval and --resume convert the lines in input order, "
+					+ "they can not be combined with --parallel, --pipeline, sharding, --previous or a selection");
+		}
+		Path input = inputFile.toPath();
+		String settings = String.join(" ", input.toAbsolutePath().toString(), String.valueOf(Files.size(input)),
+				String.valueOf(Files.getLastModifiedTime(input).toMillis()), base, String.valueOf(preCompress),
+				String.valueOf(extra), compression.of(outputFile).name(), projection.toString());
+		return new Checkpoints(outputFile.toPath(), settings, (long) (checkpointInterval * 1_000_000_000L), resume,
+				metrics);
+	}
+
+	/**
+	 * Convert the input from the checkpoint on, taking new checkpoints as it
+	 * goes. The lengths of the nodes before the checkpoint are read again from
+	 * the input unless they were prescanned.
+	 *
+	 * @param out writes to the file that the checkpoints opened
+	 */
+	void writeCheckpointed(OutputStream out, Checkpoints checkpoints, boolean compressedInput) throws IOException {
+		long from = checkpoints.inputOffset();
+		if (extra && !prescan && from > 0) {
+			try (ReadableByteChannel in = Channels.newChannel(openInput())) {
+				long segments = SegmentScanner.scan(in, from, nodeLengths);
+				if (segments != checkpoints.segments()) {
+					throw new IOException("Found " + segments + " segments before the checkpoint instead of "
+							+ checkpoints.segments() + ", it can not be resumed");
+				}
+			}
+		}
+		try (DirectNTriplesWriter writer = new DirectNTriplesWriter(out, base, preCompress, extra, metrics)) {
+			checkpoints.flushWith(writer::flush);
+			ByteRecordParser parser = new ByteRecordParser(writer, nodeLengths, extra, base, metrics)
+					.projection(projection).checkpoints(checkpoints);
+			if (memoryMap && !compressedInput) {
+				try (MappedGFAReader reader = new MappedGFAReader(inputFile.toPath())) {
+					reader.parse(parser, from);
+				}
+			} else {
+				InputStream in = openInput();
+				in.skipNBytes(from);
+				try (StreamingGFAReader reader = new StreamingGFAReader(in, StreamingGFAReader.DEFAULT_BUFFER_SIZE,
+						from)) {
+					reader.parse(parser);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Convert only the paths and node range asked for, seeking to them through
+	 * the {@link GFAIndex} of the input.
+	 */
+	void writeSelected(OutputStream out, ParsedIRI baseIRI) throws IOException, URISyntaxException {
+		long[] range = nodeRange == null ? null : SelectedGFAReader.parseNodeRange(nodeRange);
+		try (MappedGFAReader reader = new MappedGFAReader(inputFile.toPath())) {
+			writeConvertedToOutputStream(out, baseIRI,
+					new SelectedGFAReader(reader, GFAIndex.loadOrBuild(inputFile.toPath(), reader), paths, range));
+		}
+	}
+
+	/**
+	 * Write the triples that changed since the previous version of the input,
+	 * see {@link DeltaConverter}.
+	 *
+	 * @param out receives the RDF Patch, or the added triples when the removed
+	 *            ones go to their own file
+	 */
+	void writeDelta(OutputStream out) throws IOException {
+		DeltaConverter converter = new DeltaConverter(base, preCompress, extra, spillDirectory.toPath(),
+				sortBuffer * 1024 * 1024, metrics);
+		try (MappedGFAReader before = new MappedGFAReader(previous.toPath());
+				MappedGFAReader after = new MappedGFAReader(inputFile.toPath());
+				NodeLengths previousLengths = nodeLengthBudget > 0
+						? new NodeLengths(new OffHeapAllocator(nodeLengthBudget * 1024 * 1024, spillDirectory.toPath()))
+						: new NodeLengths()) {
+			DeltaConverter.Delta delta = converter.compare(before, previousLengths, after, nodeLengths);
+			metrics.delta(delta.removed.size(), delta.added.size(), delta.unchanged);
+			if (removed == null) {
+				converter.writePatch(delta, before, previousLengths, after, nodeLengths, out);
+			} else {
+				try (OutputStream removedOut = metrics.countOutput(openOutput(removed))) {
+					converter.writeSplit(delta, before, previousLengths, after, nodeLengths, removedOut, out);
+				}
+			}
+		}
+	}
+
+	private void writeMetrics() throws IOException {
+		if (metricsJson == null) {
+			metrics.writeJson(System.err);
+		} else {
+			try (PrintStream json = new PrintStream(new FileOutputStream(metricsJson), false,
+					StandardCharsets.UTF_8)) {
+				metrics.writeJson(json);
+			}
+		}
+	}
+
 	void writeConvertedToOutputStream(final OutputStream out, ParsedIRI baseIRI, Stream<String> s)
 			throws RDFHandlerException, UnsupportedRDFormatException, URISyntaxException {
-		RDFFormat rdfformat = Rio.getWriterFormatForMIMEType(format).orElse(RDFFormat.TURTLE);
-		RDFWriter tw = Rio.createWriter(rdfformat, out, baseIRI.toString());
+		if (engine == Engine.DIRECT) {
+			try (DirectNTriplesWriter writer = new DirectNTriplesWriter(out, base, preCompress, extra, metrics)) {
+				convert(s.iterator(), writer);
+			}
+			return;
+		} else if (writesRecords()) {
+			try (RecordWriter writer = recordWriter(out)) {
+				ByteRecordParser parser = new ByteRecordParser(writer, nodeLengths, extra, base, metrics)
+						.projection(projection);
+				s.forEach(line -> {
+					byte[] bytes = line.getBytes(US_ASCII);
+					parser.accept(ByteBuffer.wrap(bytes), 0, bytes.length);
+				});
+			}
+			return;
+		}
+		RDFWriter tw = startRioWriter(out, baseIRI);
+		Iterator<String> si = s.iterator();
+		convert(si, tw, nodePrefix());
+
+		tw.endRDF();
+	}
+
+	void writeConvertedToOutputStream(final OutputStream out, ParsedIRI baseIRI, ByteInput input)
+			throws RDFHandlerException, UnsupportedRDFormatException, URISyntaxException, IOException {
+		if (writesRecords()) {
+			try (RecordWriter writer = recordWriter(out)) {
+				convert(input, writer);
+			}
+			return;
+		}
+		RDFWriter tw = startRioWriter(out, baseIRI);
+		convert(input, new RioRecordSink(metrics.countTriples(tw), nodeIRIs(nodePrefix())));
+		tw.endRDF();
+	}
+
+	/**
+	 * Convert the input straight into a store, the statements are never
+	 * serialized. When the conversion fails the transaction in progress is
+	 * rolled back, earlier commits stay.
+	 *
+	 * @param loader batches the statements into the store
+	 */
+	void loadConvertedIntoStore(ByteInput input, StoreLoader loader) throws IOException {
+		try {
+			convertToHandler(input, loader);
+		} catch (IOException | RuntimeException e) {
+			loader.abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Convert the input into RDF4J statements for the handler, from startRDF to
+	 * endRDF.
+	 */
+	void convertToHandler(ByteInput input, RDFHandler handler) throws IOException {
+		handler.startRDF();
+		handler.handleNamespace(RDF.PREFIX, RDF.NAMESPACE);
+		handler.handleNamespace(VG.PREFIX, VG.NAMESPACE);
+		handler.handleNamespace(FALDO.PREFIX, FALDO.NAMESPACE);
+		handler.handleNamespace("node", base + "node/");
+		convert(input, new RioRecordSink(metrics.countTriples(handler), nodeIRIs(nodePrefix())));
+		handler.endRDF();
+	}
+
+	/**
+	 * Convert the input into shards named after the output, see
+	 * {@link ShardedOutput}.
+	 *
+	 * @param maxBytes the size of the uncompressed RDF at which a shard is
+	 *                 closed, 0 for no limit
+	 */
+	void writeSharded(Path output, ParsedIRI baseIRI, ByteInput input, long maxBytes) throws IOException {
+		ShardedOutput.Shards shards = new ShardedOutput.Shards() {
+			@Override
+			public OutputStream create(Path file) throws IOException {
+				return metrics.countOutput(openOutput(file.toFile()));
+			}
+
+			@Override
+			public ShardedOutput.ShardWriter writer(OutputStream out) throws IOException {
+				return shardWriter(out, baseIRI);
+			}
+		};
+		try (ShardedOutput sharded = new ShardedOutput(output, shardBy, maxBytes, shards)) {
+			convert(input, sharded);
+		}
+	}
+
+	private ShardedOutput.ShardWriter shardWriter(OutputStream out, ParsedIRI baseIRI) throws IOException {
+		if (writesRecords()) {
+			RecordWriter writer = recordWriter(out);
+			return new ShardedOutput.ShardWriter(writer, writer::triples, writer::close);
+		}
+		RDFWriter tw;
+		try {
+			tw = startRioWriter(out, baseIRI);
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+		RDFHandler counted = metrics.countTriples(tw);
+		return new ShardedOutput.ShardWriter(new RioRecordSink(counted, nodeIRIs(nodePrefix())),
+				() -> ConversionMetrics.triplesCounted(counted), tw::endRDF);
+	}
+
+	void writeConvertedInParallel(final OutputStream out, MappedGFAReader reader, long rangeBytes)
+			throws IOException {
+		new ParallelRangeConverter(parallel, rangeBytes, rangesInFlight > 0 ? rangesInFlight : parallel * 2, base,
+				preCompress, extra, nodeLengths, metrics).projection(projection).convert(reader, out);
+	}
+
+	void writeConvertedPipelined(final OutputStream out, ParsedIRI baseIRI, InputStream in, int blockSize)
+			throws IOException, URISyntaxException {
+		PipelinedConverter converter = new PipelinedConverter(virtualThreads, blockSize,
+				PipelinedConverter.DEFAULT_QUEUE_DEPTH, nodeLengths, extra, base, metrics).projection(projection);
+		if (engine == Engine.DIRECT) {
+			ByteArrayOutputStream blockOut = new ByteArrayOutputStream();
+			DirectNTriplesWriter writer = new DirectNTriplesWriter(blockOut, base, preCompress, extra, metrics);
+			converter.convert(in, block -> {
+				block.replay(writer);
+				writer.flush();
+				byte[] bytes = blockOut.toByteArray();
+				blockOut.reset();
+				return bytes;
+			}, out::write);
+			return;
+		} else if (writesRecords()) {
+			// The dictionary and the deltas run through the whole file, so the
+			// records are encoded in order on the write stage.
+			try (RecordWriter writer = recordWriter(out)) {
+				converter.convert(in, block -> block, block -> block.replay(writer));
+			}
+			return;
+		}
+		RDFWriter tw = startRioWriter(out, baseIRI);
+		RDFHandler counted = metrics.countTriples(tw);
+		RecordingHandler recorder = new RecordingHandler();
+		RioRecordSink sink = new RioRecordSink(recorder, nodeIRIs(nodePrefix()));
+		converter.convert(in, block -> {
+			block.replay(sink);
+			return recorder.take();
+		}, events -> replay(events, counted));
+		tw.endRDF();
+	}
+
+	/**
+	 * @return if the engine encodes the records itself with a
+	 *         {@link RecordWriter}
+	 */
+	private boolean writesRecords() {
+		return engine == Engine.DIRECT || engine == Engine.BINARY || engine == Engine.HDT;
+	}
+
+	private RecordWriter recordWriter(OutputStream out) {
+		switch (engine) {
+		case DIRECT:
+			return new DirectNTriplesWriter(out, base, preCompress, extra, metrics);
+		case BINARY:
+			return new BinaryRDFWriter(out, base, preCompress, extra, metrics);
+		case HDT:
+			return new HDTWriter(out, base, preCompress, extra, spillDirectory.toPath(), sortBuffer * 1024 * 1024,
+					metrics);
+		default:
+			throw new IllegalStateException(engine + " does not write records itself");
+		}
+	}
+
+	private RDFWriter startRioWriter(final OutputStream out, ParsedIRI baseIRI) throws URISyntaxException {
+		RDFWriter tw;
+		if (engine == Engine.TURTLE) {
+			tw = new PrefixedURITurtleWriter(out, baseIRI);
+		} else {
+			RDFFormat rdfformat = Rio.getWriterFormatForMIMEType(format).orElse(RDFFormat.TURTLE);
+			tw = Rio.createWriter(rdfformat, out, baseIRI.toString());
+		}
 		tw.startRDF();
-		String nodePrefix;
 		if (preCompress) {
 			tw.set(BasicWriterSettings.PRETTY_PRINT, false);
 			tw.handleNamespace("r", RDF.NAMESPACE);
 			tw.handleNamespace("", VG.NAMESPACE);
-			nodePrefix = "n";
 			tw.handleNamespace("S", VG.Step.stringValue());
 			tw.handleNamespace("N", VG.Node.stringValue());
 			tw.handleNamespace("v", RDF.VALUE.stringValue());
@@ -144,30 +797,115 @@ public class GFA2RDF implements Callable<Integer> {
 			tw.set(BasicWriterSettings.PRETTY_PRINT, true);
 			tw.handleNamespace(RDF.PREFIX, RDF.NAMESPACE);
 			tw.handleNamespace(VG.PREFIX, VG.NAMESPACE);
-			nodePrefix = "node";
 			tw.handleNamespace(FALDO.PREFIX, FALDO.NAMESPACE);
 		}
-		tw.handleNamespace(nodePrefix, base + "node/");
-		Iterator<String> si = s.iterator();
-		convert(si, tw, nodePrefix);
+		tw.handleNamespace(nodePrefix(), base + "node/");
+		return tw;
+	}
 
-		tw.endRDF();
+	private String nodePrefix() {
+		if (preCompress) {
+			return "n";
+		} else {
+			return "node";
+		}
+	}
+
+	/**
+	 * @return the node IRIs with this prefix, kept for all conversions by this
+	 *         instance
+	 */
+	private NodeIRICache nodeIRIs(String nodePrefix) {
+		if (nodeIRIs == null || !nodeIRIs.prefix().equals(nodePrefix)) {
+			String nodeNamespace = base + "node/";
+			nodeIRIs = new NodeIRICache(nodePrefix, nodeIRICacheSize,
+					nodeId -> new PrefixedIRI(nodePrefix, nodeNamespace, nodeId), metrics);
+		}
+		return nodeIRIs;
 	}
 
 	/**
 	 * Conversion of GFA1 strings to VG style turtle RDF,
 	 * 
 	 * @param si         a GFA1 file as an iterator of lines.
-	 * @param tw         the RDF writer in turtle format.
+	 * @param tw         receives the statements, e.g. a Rio writer in turtle
+	 *                   format. See {@link GFAConverter} for thread safe
+	 *                   conversions into handlers.
 	 * @param nodePrefix a prefix to give to nodes (namespacing them)
 	 */
-	public void convert(Iterator<String> si, RDFWriter tw, String nodePrefix) {
+	public void convert(Iterator<String> si, RDFHandler tw, String nodePrefix) {
 		int pathCounter = 0;
+		RDFHandler counted = metrics.countTriples(tw);
+		NodeIRICache nodeIRIs = nodeIRIs(nodePrefix);
+		GFA1Reader gfA1Reader = new GFA1Reader(si);
+		while (gfA1Reader.hasNext()) {
+			Line line = gfA1Reader.next();
+			pathCounter = convertLineToRdf(line, counted, pathCounter, nodeIRIs);
+		}
+	}
+
+	/**
+	 * Conversion of GFA1 strings to N-Triples, without going through RDF4J
+	 * statements.
+	 * 
+	 * @param si     a GFA1 file as an iterator of lines.
+	 * @param writer the direct N-Triples writer.
+	 */
+	void convert(Iterator<String> si, DirectNTriplesWriter writer) {
 		GFA1Reader gfA1Reader = new GFA1Reader(si);
 		while (gfA1Reader.hasNext()) {
 			Line line = gfA1Reader.next();
-			pathCounter = convertLineToRdf(line, tw, pathCounter, nodePrefix);
+			metrics.line(line.getCode());
+			switch (line.getCode()) {
+			case PathLine.CODE:
+				convertPathLine((PathLine) line, writer);
+				break;
+			case SegmentLine.CODE:
+				SegmentLine segmentLine = (SegmentLine) line;
+				String name = segmentLine.getNameAsString();
+				if (extra) {
+					nodeLengths.put(name, segmentLine.getSequence().length());
+				}
+				writer.writeNode(name.getBytes(US_ASCII), segmentLine.getSequence().asString());
+				break;
+			case LinkLine.CODE:
+				LinkLine linkLine = (LinkLine) line;
+				writer.writeLink(linkLine.getFromNameAsString().getBytes(US_ASCII),
+						linkLine.isReverseComplimentOfFrom(), linkLine.getToNameAsString().getBytes(US_ASCII),
+						linkLine.isReverseComplimentOfTo());
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private void convertPathLine(PathLine pathLine, DirectNTriplesWriter writer) {
+		ConversionEvents.PathConversion event = ConversionEvents.beginPath();
+		String pathName = pathLine.getNameAsString();
+		writer.startPath(createPathIRI(base, pathName));
+		Iterator<Step> steps = pathLine.steps();
+		long begin = 1; // We start at position 1.
+		long stepCount = 0;
+		while (steps.hasNext()) {
+			Step step = steps.next();
+			long end = extra ? begin + getNodeLengthOfStep(step) : begin;
+			writer.writeStep(step.rank(), step.nodeId(), begin, end);
+			begin = end;
+			stepCount++;
 		}
+		ConversionEvents.endPath(event, pathName, stepCount);
+	}
+
+	/**
+	 * Conversion of a GFA1 file that is tokenized as bytes, the lines are never
+	 * decoded into strings.
+	 * 
+	 * @param input the memory mapped or streamed GFA1 file
+	 * @param sink  receiving the records
+	 */
+	void convert(ByteInput input, RecordSink sink) throws IOException {
+		input.parse(new ByteRecordParser(sink, nodeLengths, extra, base, metrics).projection(projection));
 	}
 
 	/**
@@ -176,28 +914,72 @@ public class GFA2RDF implements Callable<Integer> {
 	 * @param args the default main arguments
 	 */
 	public static void main(String[] args) {
-		int exitCode = new CommandLine(new GFA2RDF()).execute(args);
+		int exitCode = new CommandLine(new GFA2RDF()).setCaseInsensitiveEnumValuesAllowed(true).execute(args);
 		System.exit(exitCode);
 	}
 
-	private int convertLineToRdf(Line line, RDFWriter tw, int pathCounter, String nodePrefix) {
+	private int convertLineToRdf(Line line, RDFHandler tw, int pathCounter, NodeIRICache nodeIRIs) {
+		metrics.line(line.getCode());
 		switch (line.getCode()) {
 		case PathLine.CODE:
-			return convertPathLineToRdf((PathLine) line, tw, pathCounter, nodePrefix);
+			return convertPathLineToRdf((PathLine) line, tw, pathCounter, nodeIRIs);
 		case SegmentLine.CODE:
-			convertSegmentLineToRdf((SegmentLine) line, tw, nodePrefix);
+			convertSegmentLineToRdf((SegmentLine) line, tw, nodeIRIs);
 			return pathCounter;
 		case LinkLine.CODE:
-			convertLinkLineToRdf((LinkLine) line, tw, nodePrefix);
+			convertLinkLineToRdf((LinkLine) line, tw, nodeIRIs);
 			return pathCounter;
 		default:
 			return pathCounter;
 		}
 	}
 
-	private int convertPathLineToRdf(PathLine pathLine, RDFWriter writer, int pathCounter, String nodePrefix) {
-		String nameAsString = pathLine.getNameAsString();
-		IRI pathIRI;
+	private int convertPathLineToRdf(PathLine pathLine, RDFHandler writer, int pathCounter, NodeIRICache nodeIRIs) {
+		ConversionEvents.PathConversion event = ConversionEvents.beginPath();
+		String pathName = pathLine.getNameAsString();
+		PathNames path = startPath(createPathIRI(base, pathName), writer);
+		Iterator<Step> steps = pathLine.steps();
+		long stepCount;
+		if (stepChunkSize > 0) {
+			stepCount = convertStepsInParallel(steps, path, writer, nodeIRIs);
+		} else {
+			long begin = 1; // We start at position 1.
+			stepCount = 0;
+			while (steps.hasNext()) {
+				Step step = steps.next();
+				long end = extra ? begin + getNodeLengthOfStep(step) : begin;
+				IRI node = nodeIRIs.get(step.nodeHasLongId(), step.nodeHasLongId() ? step.nodeLongId() : 0,
+						step.nodeId());
+				writeStep(step.rank(), node, begin, end, path, writer);
+				begin = end;
+				stepCount++;
+			}
+		}
+		endPath(path, writer);
+		ConversionEvents.endPath(event, pathName, stepCount);
+		return pathCounter + 1;
+	}
+
+	/**
+	 * The IRIs and prefixes of the path being converted.
+	 */
+	private static final class PathNames {
+		private final IRI pathIRI;
+		private final String pathStepBase;
+		private final String pathPositionBase;
+		private final String pathStepPrefix;
+		private final String pathPositionPrefix;
+
+		private PathNames(IRI pathIRI, String pathStepPrefix, String pathPositionPrefix) {
+			this.pathIRI = pathIRI;
+			this.pathStepBase = pathIRI.stringValue() + "/step/";
+			this.pathPositionBase = pathIRI.stringValue() + "/position/";
+			this.pathStepPrefix = pathStepPrefix;
+			this.pathPositionPrefix = pathPositionPrefix;
+		}
+	}
+
+	private PathNames startPath(String pathIRIString, RDFHandler writer) {
 		String pathPrefix;
 		String pathStepPrefix;
 		String pathPositionPrefix;
@@ -210,108 +992,210 @@ public class GFA2RDF implements Callable<Integer> {
 			pathStepPrefix = "pathstep";
 			pathPositionPrefix = "pathposition";
 		}
-		if (nameAsString.startsWith("http://") || nameAsString.startsWith("ftp://")
-				|| nameAsString.startsWith("https://")) {
-			pathIRI = new PrefixedIRI(pathPrefix, nameAsString, "");
-		} else {
-			pathIRI = new PrefixedIRI(pathPrefix, base + "path/", nameAsString);
-		}
+		PathNames path = new PathNames(new PrefixedIRI(pathPrefix, pathIRIString, ""), pathStepPrefix,
+				pathPositionPrefix);
 
-		String pathStepBase = pathIRI.stringValue() + "/step/";
-		String pathPositionBase = pathIRI.stringValue() + "/position/";
-
-		writer.handleNamespace(pathPrefix, pathIRI.stringValue());
-		writer.handleNamespace(pathStepPrefix, pathStepBase);
+		writer.handleNamespace(pathPrefix, pathIRIString);
+		writer.handleNamespace(pathStepPrefix, path.pathStepBase);
 		if (extra) {
-			writer.handleNamespace(pathPositionPrefix, pathPositionBase);
-		}
-		writer.handleStatement(VF.createStatement(pathIRI, RDF.TYPE, VG.Path));
-		Iterator<Step> steps = pathLine.steps();
-		int begin = 1; // We start at position 1.
-		while (steps.hasNext()) {
-			Step step = steps.next();
-			writeStep(step, pathStepBase, writer, pathIRI, begin, pathPositionBase, nodePrefix, pathPrefix,
-					pathStepPrefix, pathPositionPrefix);
+			writer.handleNamespace(pathPositionPrefix, path.pathPositionBase);
 		}
+		writer.handleStatement(VF.createStatement(path.pathIRI, RDF.TYPE, VG.Path));
+		return path;
+	}
+
+	private void endPath(PathNames path, RDFHandler counted) {
+		RDFHandler writer = ConversionMetrics.uncounted(counted);
 		if (writer instanceof PrefixedURITurtleWriter) {
 			PrefixedURITurtleWriter tw = (PrefixedURITurtleWriter) writer;
-			tw.unsetNamespace(pathIRI.stringValue());
-			tw.unsetNamespace(pathStepBase);
-			tw.unsetNamespace(pathPositionBase);
+			tw.unsetNamespace(path.pathIRI.stringValue());
+			tw.unsetNamespace(path.pathStepBase);
+			tw.unsetNamespace(path.pathPositionBase);
+		} else if (writer instanceof RecordingHandler) {
+			((RecordingHandler) writer).events.add(path);
 		}
-		return pathCounter++;
 	}
 
-	void writeStep(Step step, String pathStepBase, RDFWriter tw, IRI pathIRI, int begin, String pathPositionBase,
-			String nodePrefix, String pathPrefix, String pathStepPrefix, String pathPositionPrefix)
+	/**
+	 * Converts the steps of a path in windows of parallelism times
+	 * {@link #stepChunkSize} steps. Each chunk of a window is turned into
+	 * statements on the common fork-join pool, the chunks are then handed to the
+	 * writer in step order. The output is therefore identical to the sequential
+	 * conversion.
+	 * 
+	 * When the extra positions are requested the node lengths of a window are
+	 * looked up in parallel and turned into end offsets with a parallel prefix
+	 * sum. Offsets are longs so that paths longer than 2Gbp are fine.
+	 *
+	 * @return the number of steps converted
+	 */
+	private long convertStepsInParallel(Iterator<Step> steps, PathNames path, RDFHandler writer,
+			NodeIRICache nodeIRIs) {
+		int windowSize = Math.multiplyExact(stepChunkSize, ForkJoinPool.getCommonPoolParallelism());
+		StepWindow window = new StepWindow(stepChunkSize);
+		long offset = 1; // We start at position 1.
+		long stepCount = 0;
+		while (steps.hasNext()) {
+			window.fill(steps, windowSize);
+			final int windowFill = window.size;
+			stepCount += windowFill;
+			final long windowOffset = offset;
+			final long[] ends = window.ends;
+			if (extra) {
+				IntStream.range(0, windowFill).parallel().forEach(i -> ends[i] = nodeLengths.get(window.nodeIds[i]));
+				Arrays.parallelPrefix(ends, 0, windowFill, Long::sum);
+				offset += ends[windowFill - 1];
+			}
+			int chunks = (windowFill + stepChunkSize - 1) / stepChunkSize;
+			List<Collection<Statement>> converted = IntStream.range(0, chunks).parallel().mapToObj(c -> {
+				StatementCollector chunk = new StatementCollector(new ArrayList<>());
+				int to = Math.min(windowFill, (c + 1) * stepChunkSize);
+				for (int i = c * stepChunkSize; i < to; i++) {
+					long begin = i == 0 ? windowOffset : windowOffset + ends[i - 1];
+					long end = extra ? windowOffset + ends[i] : begin;
+					IRI node = nodeIRIs.get(window.nodeHasLongIds[i], window.nodeLongIds[i], window.nodeIds[i]);
+					writeStep(window.ranks[i], node, begin, end, path, chunk);
+				}
+				return chunk.getStatements();
+			}).collect(Collectors.toList());
+			for (Collection<Statement> chunk : converted) {
+				for (Statement statement : chunk) {
+					writer.handleStatement(statement);
+				}
+			}
+		}
+		return stepCount;
+	}
+
+	/**
+	 * The primitives of a window of steps, copied out so that the reader is free
+	 * to reuse its step objects. Grows up to the window size so that short paths
+	 * do not pay for a full window.
+	 */
+	private static final class StepWindow {
+		private long[] ranks;
+		private byte[][] nodeIds;
+		private long[] nodeLongIds;
+		private boolean[] nodeHasLongIds;
+		private long[] ends;
+		private int size;
+
+		private StepWindow(int capacity) {
+			ranks = new long[capacity];
+			nodeIds = new byte[capacity][];
+			nodeLongIds = new long[capacity];
+			nodeHasLongIds = new boolean[capacity];
+			ends = new long[capacity];
+		}
+
+		private void fill(Iterator<Step> steps, int windowSize) {
+			size = 0;
+			while (size < windowSize && steps.hasNext()) {
+				if (size == ranks.length) {
+					int capacity = Math.min(windowSize, ranks.length * 2);
+					ranks = Arrays.copyOf(ranks, capacity);
+					nodeIds = Arrays.copyOf(nodeIds, capacity);
+					nodeLongIds = Arrays.copyOf(nodeLongIds, capacity);
+					nodeHasLongIds = Arrays.copyOf(nodeHasLongIds, capacity);
+					ends = new long[capacity];
+				}
+				Step step = steps.next();
+				ranks[size] = step.rank();
+				nodeIds[size] = step.nodeId();
+				nodeHasLongIds[size] = step.nodeHasLongId();
+				if (nodeHasLongIds[size]) {
+					nodeLongIds[size] = step.nodeLongId();
+				}
+				size++;
+			}
+		}
+	}
+
+	private static boolean isAbsoluteIRI(String pathName) {
+		return pathName.startsWith("http://") || pathName.startsWith("ftp://") || pathName.startsWith("https://");
+	}
+
+	static String createPathIRI(String base, String pathName) {
+		if (isAbsoluteIRI(pathName)) {
+			return pathName;
+		} else {
+			return base + "path/" + pathName;
+		}
+	}
+
+	void writeStep(long rank, IRI node, long begin, long end, PathNames path, RDFHandler tw)
 			throws RDFHandlerException {
-		long rank = step.rank();
-		IRI stepIRI = new PrefixedIRI(pathStepPrefix, pathStepBase, Long.toString(rank));
+		IRI stepIRI = new PrefixedIRI(path.pathStepPrefix, path.pathStepBase, Long.toString(rank));
 		if (!preCompress) {
 			tw.handleStatement(VF.createStatement(stepIRI, RDF.TYPE, VG.Step));
 			tw.handleStatement(VF.createStatement(stepIRI, RDF.TYPE, FALDO.Region));
 		}
-		tw.handleStatement(VF.createStatement(stepIRI, VG.path, pathIRI));
-		if (rank < Integer.MAX_VALUE) {
-			tw.handleStatement(VF.createStatement(stepIRI, VG.rank, VF.createLiteral((int) rank)));
-		} else {
-			tw.handleStatement(VF.createStatement(stepIRI, VG.rank, VF.createLiteral(rank)));
-		}
-		tw.handleStatement(
-				VF.createStatement(stepIRI, VG.node, createNodeId(nodePrefix, new String(step.nodeId(), US_ASCII))));
+		tw.handleStatement(VF.createStatement(stepIRI, VG.path, path.pathIRI));
+		tw.handleStatement(VF.createStatement(stepIRI, VG.rank, createIntegerLiteral(rank)));
+		tw.handleStatement(VF.createStatement(stepIRI, VG.node, node));
 		if (extra) {
-			int end = writePositions(begin, step, pathPositionBase, tw, stepIRI, pathPositionPrefix);
-			begin = end;
+			writePositions(begin, end, path, tw, stepIRI);
 		}
 	}
 
-	int writePositions(int begin, Step step, String pathPositionBase, RDFWriter tw, IRI stepIRI,
-			String pathPositionPrefix) throws RDFHandlerException {
-		int end = begin + getNodeLengthOfStep(step);
-		IRI beginIri = new PrefixedIRI(pathPositionPrefix, pathPositionBase, String.valueOf(begin));
-		IRI endIri = new PrefixedIRI(pathPositionPrefix, pathPositionBase, String.valueOf(end));
+	void writePositions(long begin, long end, PathNames path, RDFHandler tw, IRI stepIRI)
+			throws RDFHandlerException {
+		IRI beginIri = new PrefixedIRI(path.pathPositionPrefix, path.pathPositionBase, Long.toString(begin));
+		IRI endIri = new PrefixedIRI(path.pathPositionPrefix, path.pathPositionBase, Long.toString(end));
 		tw.handleStatement(VF.createStatement(stepIRI, FALDO.begin, beginIri));
 		tw.handleStatement(VF.createStatement(stepIRI, FALDO.end, endIri));
 		if (!preCompress) {
 			tw.handleStatement(VF.createStatement(beginIri, RDF.TYPE, FALDO.Position));
 		}
 		tw.handleStatement(VF.createStatement(beginIri, RDF.TYPE, FALDO.ExactPosition));
-		tw.handleStatement(VF.createStatement(beginIri, FALDO.position, VF.createLiteral(begin)));
+		tw.handleStatement(VF.createStatement(beginIri, FALDO.position, createIntegerLiteral(begin)));
 		if (!preCompress) {
 			tw.handleStatement(VF.createStatement(endIri, RDF.TYPE, FALDO.Position));
 		}
 		tw.handleStatement(VF.createStatement(endIri, RDF.TYPE, FALDO.ExactPosition));
-		tw.handleStatement(VF.createStatement(endIri, FALDO.position, VF.createLiteral(end)));
-		return end;
+		tw.handleStatement(VF.createStatement(endIri, FALDO.position, createIntegerLiteral(end)));
+	}
+
+	/**
+	 * Ranks and positions are written as xsd:int when they fit, xsd:long
+	 * otherwise.
+	 */
+	private static Literal createIntegerLiteral(long value) {
+		if (value < Integer.MAX_VALUE) {
+			return VF.createLiteral((int) value);
+		} else {
+			return VF.createLiteral(value);
+		}
 	}
 
-	private void convertSegmentLineToRdf(SegmentLine segmentLine, RDFWriter tw, String nodePrefix) {
+	private void convertSegmentLineToRdf(SegmentLine segmentLine, RDFHandler tw, NodeIRICache nodeIRIs) {
 		String name = segmentLine.getNameAsString();
-		IRI nodeIRI = createNodeId(nodePrefix, name);
-		tw.handleStatement(VF.createStatement(nodeIRI, RDF.TYPE, VG.Node));
 		if (extra) {
-			try {
-				int id = Integer.parseInt(name);
-				nodeLengthMapByLongId.put(id, segmentLine.getSequence().length());
-			} catch (NumberFormatException e) {
-				nodeLengthMapByByteArrayId.put(name, segmentLine.getSequence().length());
-			}
+			nodeLengths.put(name, segmentLine.getSequence().length());
 		}
-		tw.handleStatement(
-				VF.createStatement(nodeIRI, RDF.VALUE, VF.createLiteral(segmentLine.getSequence().asString())));
+		writeNode(nodeIRIs.get(name), segmentLine.getSequence().asString(), tw);
 	}
 
-	private void convertLinkLineToRdf(LinkLine linkLine, RDFWriter tw, String nodePrefix) {
-		IRI fromNodeIRI = createNodeId(nodePrefix, linkLine.getFromNameAsString());
-		IRI toNodeIRI = createNodeId(nodePrefix, linkLine.getToNameAsString());
-		if (linkLine.isReverseComplimentOfFrom()) {
-			if (linkLine.isReverseComplimentOfTo()) {
+	private void writeNode(IRI nodeIRI, String sequence, RDFHandler tw) {
+		tw.handleStatement(VF.createStatement(nodeIRI, RDF.TYPE, VG.Node));
+		tw.handleStatement(VF.createStatement(nodeIRI, RDF.VALUE, VF.createLiteral(sequence)));
+	}
+
+	private void convertLinkLineToRdf(LinkLine linkLine, RDFHandler tw, NodeIRICache nodeIRIs) {
+		writeLink(nodeIRIs.get(linkLine.getFromNameAsString()), linkLine.isReverseComplimentOfFrom(),
+				nodeIRIs.get(linkLine.getToNameAsString()), linkLine.isReverseComplimentOfTo(), tw);
+	}
+
+	private void writeLink(IRI fromNodeIRI, boolean reverseOfFrom, IRI toNodeIRI, boolean reverseOfTo,
+			RDFHandler tw) {
+		if (reverseOfFrom) {
+			if (reverseOfTo) {
 				tw.handleStatement(VF.createStatement(fromNodeIRI, VG.linksReverseToReverse, toNodeIRI));
 			} else {
 				tw.handleStatement(VF.createStatement(fromNodeIRI, VG.linksReverseToForward, toNodeIRI));
 			}
 		} else {
-			if (linkLine.isReverseComplimentOfTo()) {
+			if (reverseOfTo) {
 				tw.handleStatement(VF.createStatement(fromNodeIRI, VG.linksForwardToReverse, toNodeIRI));
 			} else {
 				tw.handleStatement(VF.createStatement(fromNodeIRI, VG.linksForwardToForward, toNodeIRI));
@@ -319,19 +1203,105 @@ public class GFA2RDF implements Callable<Integer> {
 		}
 	}
 
-	IRI createNodeId(String prefix, String nodeId) {
-		return new PrefixedIRI(prefix, base + "node/", nodeId);
+	private int getNodeLengthOfStep(Step step) {
+		return nodeLengths.get(step.nodeId());
 	}
 
-	private int getNodeLengthOfStep(Step step) {
-		if (step.nodeHasLongId()) {
-			return nodeLengthMapByLongId.get(step.nodeLongId());
-		} else {
-			return nodeLengthMapByByteArrayId.get(step.nodeId());
+	/**
+	 * Turns the byte level records into RDF4J statements for a Rio writer, so
+	 * that the memory mapped input can be checked against the reference
+	 * conversion.
+	 */
+	private class RioRecordSink implements RecordSink {
+		private final RDFHandler writer;
+		private final NodeIRICache nodeIRIs;
+		private PathNames path;
+
+		private RioRecordSink(RDFHandler writer, NodeIRICache nodeIRIs) {
+			this.writer = writer;
+			this.nodeIRIs = nodeIRIs;
+		}
+
+		@Override
+		public void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd) {
+			IRI nodeIRI = nodeIRIs.get(line, nameStart, nameEnd);
+			if (sequenceStart == NO_SEQUENCE) {
+				writer.handleStatement(VF.createStatement(nodeIRI, RDF.TYPE, VG.Node));
+			} else {
+				writeNode(nodeIRI, ByteRecordParser.toAsciiString(line, sequenceStart, sequenceEnd), writer);
+			}
+		}
+
+		@Override
+		public void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart, int toEnd,
+				boolean reverseOfTo) {
+			writeLink(nodeIRIs.get(line, fromStart, fromEnd), reverseOfFrom, nodeIRIs.get(line, toStart, toEnd),
+					reverseOfTo, writer);
+		}
+
+		@Override
+		public void startPath(String pathIRI) {
+			path = GFA2RDF.this.startPath(pathIRI, writer);
+		}
+
+		@Override
+		public void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end) {
+			writeStep(rank, nodeIRIs.get(line, nodeStart, nodeEnd), begin, end, path, writer);
 		}
 
+		@Override
+		public void endPath() {
+			GFA2RDF.this.endPath(path, writer);
+			path = null;
+		}
 	}
 
+	/**
+	 * Keeps the statements, namespaces and path ends of a block in order, so that
+	 * they can be handed to the Rio writer from another thread.
+	 */
+	private static class RecordingHandler extends AbstractRDFHandler {
+		private List<Object> events = new ArrayList<>();
+
+		@Override
+		public void handleNamespace(String prefix, String uri) {
+			events.add(new SimpleNamespace(prefix, uri));
+		}
+
+		@Override
+		public void handleStatement(Statement st) {
+			events.add(st);
+		}
+
+		/**
+		 * @return the events recorded since the last take
+		 */
+		private List<Object> take() {
+			List<Object> taken = events;
+			events = new ArrayList<>();
+			return taken;
+		}
+
+	}
+
+	private void replay(List<Object> events, RDFHandler tw) {
+		for (Object event : events) {
+			if (event instanceof Namespace) {
+				Namespace namespace = (Namespace) event;
+				tw.handleNamespace(namespace.getPrefix(), namespace.getName());
+			} else if (event instanceof PathNames) {
+				endPath((PathNames) event, tw);
+			} else {
+				tw.handleStatement((Statement) event);
+			}
+		}
+	}
+
+	/**
+	 * Writes the {@link PrefixedIRI}s as prefixed names directly, instead of
+	 * looking up their namespace. Consecutive statements about the same step or
+	 * node are grouped into predicate lists by the {@link TurtleWriter}.
+	 */
 	private class PrefixedURITurtleWriter extends TurtleWriter {
 
 		public PrefixedURITurtleWriter(OutputStream out, ParsedIRI piri) {
@@ -341,9 +1311,11 @@ public class GFA2RDF implements Callable<Integer> {
 		@Override
 		protected void writeURI(IRI res) throws IOException {
 
-			if (res instanceof PrefixedIRI) {
+			if (res instanceof PrefixedIRI && ((PrefixedIRI) res).isValidPrefixedName()) {
 				PrefixedIRI pi = (PrefixedIRI) res;
-				writer.write(pi.prefix + ':' + pi.localName);
+				writer.write(pi.prefix);
+				writer.write(':');
+				writer.write(pi.localName);
 			} else {
 				String prefix = namespaceTable.get(res.stringValue());
 				if (prefix != null) {
@@ -357,13 +1329,13 @@ public class GFA2RDF implements Callable<Integer> {
 
 		@Override
 		protected void writeLiteral(Literal res) throws IOException {
-			if (res instanceof NumericLiteral) {
+			// A bare number reads back as an xsd:integer, so only shorten when asked to.
+			if (preCompress && res instanceof NumericLiteral) {
 				String normalized = XMLDatatypeUtil.normalize(res.getLabel(), res.getDatatype());
 				switch (normalized) {
 				case XMLDatatypeUtil.POSITIVE_INFINITY:
 				case XMLDatatypeUtil.NEGATIVE_INFINITY:
 				case XMLDatatypeUtil.NaN:
-					super.writeLiteral(res);
 					break;
 				default:
 					writer.write(normalized);
@@ -392,6 +1364,14 @@ public class GFA2RDF implements Callable<Integer> {
 			this.localName = localName;
 		}
 
+		/**
+		 * Path names may contain characters that can not be in a prefixed name,
+		 * those are written as full IRIs.
+		 */
+		private boolean isValidPrefixedName() {
+			return localName.isEmpty() || TurtleUtil.isPN_LOCAL(localName);
+		}
+
 		@Override
 		public String toString() {
 			return stringValue();
@@ -0,0 +1,296 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFHandler;
+
+/**
+ * Converts GFA1 to RDF4J statements in process, for embedding the conversion
+ * in other applications. The statements go to any {@link RDFHandler}, e.g. a
+ * {@code StatementCollector} filling a model, or in arrays of a chosen size to
+ * a {@link BatchHandler}, so that a sink that forwards them, to a queue or an
+ * index, pays one call per batch instead of one per statement. Nothing is
+ * serialized as text.
+ * <p>
+ * A converter holds only its settings, one instance may run any number of
+ * conversions at the same time on different threads. Each conversion keeps its
+ * own node lengths, and delivers its statements on the thread that called
+ * convert.
+ * <p>
+ * A conversion can be cancelled by the supplier given to convert, or by
+ * interrupting the converting thread. Either is checked every
+ * {@value #CANCELLATION_CHECK_INTERVAL} statements, after which the conversion
+ * stops with a {@link CancellationException} and the handler sees no endRDF.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public final class GFAConverter {
+	/**
+	 * How many statements are delivered between checks for cancellation.
+	 */
+	public static final int CANCELLATION_CHECK_INTERVAL = 1024;
+	private static final BooleanSupplier NEVER = () -> false;
+
+	/**
+	 * Receives the statements in arrays.
+	 */
+	@FunctionalInterface
+	public interface BatchHandler {
+		/**
+		 * @param statements a batch of the batch size, only the last batch of a
+		 *                   conversion may be smaller. The array is not used by
+		 *                   the converter afterwards.
+		 */
+		void handle(Statement[] statements);
+	}
+
+	private final String base;
+	private final boolean preCompress;
+	private final boolean extra;
+
+	/**
+	 * @param base        the base IRI of the graph, under which the nodes and
+	 *                    paths are named
+	 * @param preCompress leave out the inferable triples
+	 * @param extra       add the FALDO positions of each step
+	 */
+	public GFAConverter(String base, boolean preCompress, boolean extra) {
+		this.base = base;
+		this.preCompress = preCompress;
+		this.extra = extra;
+	}
+
+	/**
+	 * Convert a GFA1 file to statements.
+	 *
+	 * @param gfa     plain, gzip, BGZF or zstd compressed GFA1, not closed
+	 * @param handler receives the statements, from startRDF to endRDF
+	 * @return the number of statements
+	 */
+	public long convert(InputStream gfa, RDFHandler handler) throws IOException {
+		return convert(gfa, handler, NEVER);
+	}
+
+	/**
+	 * Convert a GFA1 file to statements, unless cancelled.
+	 *
+	 * @param cancelled true once the conversion should stop
+	 * @throws CancellationException when cancelled
+	 * @see #convert(InputStream, RDFHandler)
+	 */
+	public long convert(InputStream gfa, RDFHandler handler, BooleanSupplier cancelled) throws IOException {
+		GFA2RDF converter = new GFA2RDF();
+		converter.base = base;
+		converter.preCompress = preCompress;
+		converter.extra = extra;
+		// Closing the reader releases the decompressor, but not the caller's stream.
+		try (StreamingGFAReader reader = new StreamingGFAReader(
+				BlockDecompressedInputStream.open(new NotClosed(gfa), 1))) {
+			converter.convertToHandler(reader, new Cancellable(handler, cancelled));
+		} finally {
+			converter.nodeLengths.close();
+		}
+		return converter.metrics.triples();
+	}
+
+	/**
+	 * Convert a GFA1 file to statements, delivered in arrays.
+	 *
+	 * @param gfa       plain, gzip, BGZF or zstd compressed GFA1, not closed
+	 * @param batchSize the number of statements per batch
+	 * @param batches   receives the statements
+	 * @return the number of statements
+	 */
+	public long convert(InputStream gfa, int batchSize, BatchHandler batches) throws IOException {
+		return convert(gfa, batchSize, batches, NEVER);
+	}
+
+	/**
+	 * Convert a GFA1 file to statements delivered in arrays, unless cancelled.
+	 *
+	 * @param cancelled true once the conversion should stop
+	 * @throws CancellationException when cancelled, the batch in progress is
+	 *                               not delivered
+	 * @see #convert(InputStream, int, BatchHandler)
+	 */
+	public long convert(InputStream gfa, int batchSize, BatchHandler batches, BooleanSupplier cancelled)
+			throws IOException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive");
+		}
+		return convert(gfa, new Batching(batchSize, batches), cancelled);
+	}
+
+	/**
+	 * Load a GFA1 file into a store, in batched transactions.
+	 *
+	 * @param gfa    plain, gzip, BGZF or zstd compressed GFA1, not closed
+	 * @param loader batches the statements into the store
+	 * @return the number of statements
+	 * @see StoreLoader
+	 */
+	public long load(InputStream gfa, StoreLoader loader) throws IOException {
+		return load(gfa, loader, NEVER);
+	}
+
+	/**
+	 * Load a GFA1 file into a store, unless cancelled. When the conversion fails
+	 * or is cancelled, the transaction in progress is rolled back and earlier
+	 * commits stay.
+	 *
+	 * @param cancelled true once the conversion should stop
+	 * @throws CancellationException when cancelled
+	 * @see #load(InputStream, StoreLoader)
+	 */
+	public long load(InputStream gfa, StoreLoader loader, BooleanSupplier cancelled) throws IOException {
+		try {
+			return convert(gfa, loader, cancelled);
+		} catch (IOException | RuntimeException e) {
+			loader.abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Leaves the stream of the caller open.
+	 */
+	private static final class NotClosed extends FilterInputStream {
+		private NotClosed(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() {
+			// The caller closes the stream.
+		}
+	}
+
+	/**
+	 * Stops the conversion once it is cancelled.
+	 */
+	private static final class Cancellable implements RDFHandler {
+		private final RDFHandler handler;
+		private final BooleanSupplier cancelled;
+		private int untilCheck;
+
+		private Cancellable(RDFHandler handler, BooleanSupplier cancelled) {
+			this.handler = handler;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public void startRDF() {
+			checkCancelled();
+			handler.startRDF();
+		}
+
+		@Override
+		public void endRDF() {
+			checkCancelled();
+			handler.endRDF();
+		}
+
+		@Override
+		public void handleNamespace(String prefix, String uri) {
+			handler.handleNamespace(prefix, uri);
+		}
+
+		@Override
+		public void handleStatement(Statement st) {
+			if (--untilCheck < 0) {
+				checkCancelled();
+				untilCheck = CANCELLATION_CHECK_INTERVAL;
+			}
+			handler.handleStatement(st);
+		}
+
+		@Override
+		public void handleComment(String comment) {
+			handler.handleComment(comment);
+		}
+
+		private void checkCancelled() {
+			if (cancelled.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("GFA conversion cancelled");
+			}
+		}
+	}
+
+	/**
+	 * Collects the statements into arrays for a batch handler.
+	 */
+	private static final class Batching implements RDFHandler {
+		private final int batchSize;
+		private final BatchHandler batches;
+		private Statement[] batch;
+		private int size;
+
+		private Batching(int batchSize, BatchHandler batches) {
+			this.batchSize = batchSize;
+			this.batches = batches;
+			this.batch = new Statement[batchSize];
+		}
+
+		@Override
+		public void startRDF() {
+			// Batches carry only statements.
+		}
+
+		@Override
+		public void endRDF() {
+			if (size > 0) {
+				batches.handle(Arrays.copyOf(batch, size));
+				size = 0;
+			}
+		}
+
+		@Override
+		public void handleNamespace(String prefix, String uri) {
+			// Batches carry only statements.
+		}
+
+		@Override
+		public void handleStatement(Statement st) {
+			batch[size++] = st;
+			if (size == batchSize) {
+				batches.handle(batch);
+				batch = new Statement[batchSize];
+				size = 0;
+			}
+		}
+
+		@Override
+		public void handleComment(String comment) {
+			// Batches carry only statements.
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the records of a GFA file are, saved next to it so that a selection of
+ * paths or nodes can be converted without reading the whole file. The index
+ * holds the offset of every path line by name, and the segment and link lines
+ * as chunks of consecutive lines of one type, with the smallest and largest
+ * numeric node id in each. Like the {@link NodeLengthsSidecar} it is reused as
+ * long as the size and modification time of the GFA file did not change.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class GFAIndex {
+	static final String SUFFIX = ".index";
+	private static final byte[] MAGIC = "GFA2RDFI".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+	/**
+	 * Chunks end after this many bytes, so that a node range skips most of a
+	 * block of segments sorted by id.
+	 */
+	static final long CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * Consecutive segment or link lines. For links the ids are those of the
+	 * node the link starts from.
+	 */
+	static final class Chunk {
+		final byte type;
+		final long from;
+		final long to;
+		final long minId;
+		final long maxId;
+
+		Chunk(byte type, long from, long to, long minId, long maxId) {
+			this.type = type;
+			this.from = from;
+			this.to = to;
+			this.minId = minId;
+			this.maxId = maxId;
+		}
+
+		/**
+		 * @return if a node with an id in the range may be in this chunk
+		 */
+		boolean mayContain(long first, long last) {
+			return minId <= last && maxId >= first;
+		}
+	}
+
+	private final List<Chunk> chunks;
+	private final Map<String, Long> paths;
+
+	private GFAIndex(List<Chunk> chunks, Map<String, Long> paths) {
+		this.chunks = chunks;
+		this.paths = paths;
+	}
+
+	List<Chunk> chunks() {
+		return chunks;
+	}
+
+	/**
+	 * @return the offset of the path line, or -1 if there is no such path
+	 */
+	long pathOffset(String name) {
+		return paths.getOrDefault(name, -1L);
+	}
+
+	/**
+	 * Read the index of the input, indexing the input first if there is no up
+	 * to date index.
+	 */
+	static GFAIndex loadOrBuild(Path input, MappedGFAReader reader) throws IOException {
+		Path sidecar = sidecarOf(input);
+		GFAIndex index = load(input, sidecar);
+		if (index == null) {
+			index = build(reader);
+			write(input, sidecar, index);
+		}
+		return index;
+	}
+
+	static Path sidecarOf(Path input) {
+		return input.resolveSibling(input.getFileName() + SUFFIX);
+	}
+
+	static GFAIndex build(MappedGFAReader reader) throws IOException {
+		Builder builder = new Builder();
+		reader.forEachLine(0, reader.size(), builder::line);
+		builder.endChunk();
+		return new GFAIndex(builder.chunks, builder.paths);
+	}
+
+	/**
+	 * Collects the chunks and paths line by line.
+	 */
+	private static final class Builder {
+		private final List<Chunk> chunks = new ArrayList<>();
+		private final Map<String, Long> paths = new HashMap<>();
+		private byte type;
+		private long from;
+		private long to;
+		private long minId;
+		private long maxId;
+
+		private void line(long lineOffset, ByteBuffer line, int start, int end) {
+			byte lineType = end - start >= 2 && line.get(start + 1) == '\t' ? line.get(start) : 0;
+			if (lineType == 'P') {
+				endChunk();
+				int nameEnd = start + 2;
+				while (nameEnd < end && line.get(nameEnd) != '\t') {
+					nameEnd++;
+				}
+				paths.put(ByteRecordParser.toAsciiString(line, start + 2, nameEnd), lineOffset);
+			} else if (lineType == 'S' || lineType == 'L') {
+				if (lineType != type || lineOffset - from >= CHUNK_SIZE) {
+					endChunk();
+					type = lineType;
+					from = lineOffset;
+					minId = Long.MAX_VALUE;
+					maxId = Long.MIN_VALUE;
+				}
+				int nameEnd = start + 2;
+				while (nameEnd < end && line.get(nameEnd) != '\t') {
+					nameEnd++;
+				}
+				long id = NodeLengths.parseId(line, start + 2, nameEnd);
+				// A name that is not a number matches no node range.
+				if (id >= 0) {
+					minId = Math.min(minId, id);
+					maxId = Math.max(maxId, id);
+				}
+				to = lineOffset + (end - start) + 1;
+			} else {
+				endChunk();
+			}
+		}
+
+		private void endChunk() {
+			if (type != 0) {
+				chunks.add(new Chunk(type, from, to, minId, maxId));
+				type = 0;
+			}
+		}
+	}
+
+	private static GFAIndex load(Path input, Path sidecar) throws IOException {
+		if (!Files.exists(sidecar)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION || in.readLong() != Files.size(input)
+					|| in.readLong() != Files.getLastModifiedTime(input).toMillis()) {
+				return null;
+			}
+			int chunkCount = in.readInt();
+			List<Chunk> chunks = new ArrayList<>(chunkCount);
+			for (int i = 0; i < chunkCount; i++) {
+				chunks.add(new Chunk(in.readByte(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+			}
+			int pathCount = in.readInt();
+			Map<String, Long> paths = new HashMap<>(pathCount * 2);
+			for (int i = 0; i < pathCount; i++) {
+				long offset = in.readLong();
+				byte[] name = new byte[in.readInt()];
+				in.readFully(name);
+				paths.put(new String(name, UTF_8), offset);
+			}
+			return new GFAIndex(chunks, paths);
+		} catch (EOFException e) {
+			// Truncated, index again.
+			return null;
+		}
+	}
+
+	private static void write(Path input, Path sidecar, GFAIndex index) throws IOException {
+		// Write next to the sidecar and move it in place, never leaving a partial index.
+		Path partial = sidecar.resolveSibling(sidecar.getFileName() + ".partial");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(Files.size(input));
+			out.writeLong(Files.getLastModifiedTime(input).toMillis());
+			out.writeInt(index.chunks.size());
+			for (Chunk chunk : index.chunks) {
+				out.writeByte(chunk.type);
+				out.writeLong(chunk.from);
+				out.writeLong(chunk.to);
+				out.writeLong(chunk.minId);
+				out.writeLong(chunk.maxId);
+			}
+			out.writeInt(index.paths.size());
+			for (Map.Entry<String, Long> path : index.paths.entrySet()) {
+				byte[] name = path.getKey().getBytes(UTF_8);
+				out.writeLong(path.getValue());
+				out.writeInt(name.length);
+				out.write(name);
+			}
+		}
+		Files.move(partial, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
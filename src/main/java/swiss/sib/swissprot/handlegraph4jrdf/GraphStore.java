@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFWriter;
+import org.eclipse.rdf4j.rio.Rio;
+
+/**
+ * A store reached over the SPARQL 1.1 Graph Store HTTP Protocol. Each
+ * transaction is serialized as N-Triples and added to the graph by one POST
+ * when it commits, so that the store sees it all or nothing. A rollback
+ * discards it without sending anything.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class GraphStore implements StoreLoader.Store {
+	private final HttpClient client = HttpClient.newHttpClient();
+	private final URI graph;
+	private Body transaction;
+	private RDFWriter writer;
+
+	/**
+	 * @param endpoint the graph store endpoint
+	 * @param graph    the IRI of the named graph to add to, or null for the
+	 *                 default graph
+	 */
+	GraphStore(String endpoint, String graph) {
+		String separator = endpoint.indexOf('?') < 0 ? "?" : "&";
+		String parameter = graph == null ? "default" : "graph=" + URLEncoder.encode(graph, UTF_8);
+		this.graph = URI.create(endpoint + separator + parameter);
+	}
+
+	@Override
+	public void begin() {
+		transaction = new Body();
+		writer = Rio.createWriter(RDFFormat.NTRIPLES, transaction);
+		writer.startRDF();
+	}
+
+	@Override
+	public void add(List<Statement> statements) {
+		for (Statement statement : statements) {
+			writer.handleStatement(statement);
+		}
+	}
+
+	@Override
+	public void commit() {
+		writer.endRDF();
+		HttpRequest post = HttpRequest.newBuilder(graph)
+				.header("Content-Type", RDFFormat.NTRIPLES.getDefaultMIMEType())
+				.POST(transaction.publisher())
+				.build();
+		discard();
+		try {
+			HttpResponse<String> response = client.send(post, BodyHandlers.ofString());
+			if (response.statusCode() / 100 != 2) {
+				throw new IOException("The graph store at " + graph + " answered " + response.statusCode() + ": "
+						+ response.body());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new InterruptedIOException("Interrupted while committing to " + graph));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void rollback() {
+		discard();
+	}
+
+	private void discard() {
+		transaction = null;
+		writer = null;
+	}
+
+	/**
+	 * Sends the serialized transaction without copying it first.
+	 */
+	private static final class Body extends ByteArrayOutputStream {
+		private BodyPublisher publisher() {
+			return BodyPublishers.ofByteArray(buf, 0, count);
+		}
+	}
+}
@@ -0,0 +1,848 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+
+/**
+ * Writes the triples of a GFA1 graph as an HDT file, building the four
+ * section dictionary and the bitmap triples without an intermediate RDF
+ * serialization. It holds the same triples as the {@link DirectNTriplesWriter}
+ * writes, without the duplicates.
+ * <p>
+ * Every triple adds a record per subject and object to an
+ * {@link ExternalSorter}, the sorted terms give the dictionary and an ordinal
+ * for every distinct term. A second sort brings the ordinals of each triple
+ * together again, a third sorts the triples by their ids. The ids by ordinal
+ * live in pages from an {@link OffHeapAllocator}, which spill to disk beyond
+ * the memory budget. The HDT file itself is written when this writer is
+ * closed.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class HDTWriter implements RecordWriter {
+	static final byte[] COOKIE = "$HDT".getBytes(US_ASCII);
+	static final String HDT_CONTAINER = "<http://purl.org/HDT/hdt#HDTv1>";
+	static final String HEADER_NTRIPLES = "ntriples";
+	static final String DICTIONARY_FOUR = "<http://purl.org/HDT/hdt#dictionaryFour>";
+	static final String TRIPLES_BITMAP = "<http://purl.org/HDT/hdt#triplesBitmap>";
+	// The types of control information.
+	static final int GLOBAL = 1;
+	static final int HEADER = 2;
+	static final int DICTIONARY = 3;
+	static final int TRIPLES = 4;
+	static final int ORDER_SPO = 1;
+	static final int TYPE_PFC = 2;
+	static final int TYPE_SEQUENCE_LOG = 1;
+	static final int TYPE_BITMAP_PLAIN = 1;
+	static final int PFC_BLOCK_SIZE = 16;
+
+	private static final IRI[] PREDICATES = { RDF.TYPE, RDF.VALUE, VG.path, VG.rank, VG.node,
+			VG.linksForwardToForward, VG.linksForwardToReverse, VG.linksReverseToForward, VG.linksReverseToReverse,
+			FALDO.begin, FALDO.end, FALDO.position };
+	private static final int TYPE = 0;
+	private static final int VALUE = 1;
+	private static final int PATH = 2;
+	private static final int RANK = 3;
+	private static final int NODE = 4;
+	private static final int FORWARD_TO_FORWARD = 5;
+	private static final int FORWARD_TO_REVERSE = 6;
+	private static final int REVERSE_TO_FORWARD = 7;
+	private static final int REVERSE_TO_REVERSE = 8;
+	private static final int BEGIN = 9;
+	private static final int END = 10;
+	private static final int POSITION = 11;
+	private static final byte[] NODE_CLASS = term(VG.Node);
+	private static final byte[] PATH_CLASS = term(VG.Path);
+	private static final byte[] STEP_CLASS = term(VG.Step);
+	private static final byte[] REGION_CLASS = term(FALDO.Region);
+	private static final byte[] POSITION_CLASS = term(FALDO.Position);
+	private static final byte[] EXACT_POSITION_CLASS = term(FALDO.ExactPosition);
+	private static final byte[] INT_DATATYPE = ("\"^^<" + XSD.INT.stringValue() + '>').getBytes(US_ASCII);
+	private static final byte[] LONG_DATATYPE = ("\"^^<" + XSD.LONG.stringValue() + '>').getBytes(US_ASCII);
+
+	private static final int SUBJECT = 0;
+	private static final int OBJECT = 1;
+	// The dictionary sections a subject or object can be in.
+	private static final int SHARED = 0;
+	private static final int SUBJECTS = 1;
+	private static final int OBJECTS = 2;
+	// A term record ends with a 0, the role, the triple number and the predicate.
+	private static final int TERM_RECORD_TAIL = 1 + 1 + Long.BYTES + 1;
+	private static final int JOIN_RECORD = Long.BYTES + 1 + Long.BYTES + 1;
+	private static final int PAGE_SHIFT = 16;
+
+	private final OutputStream out;
+	private final String base;
+	private final boolean preCompress;
+	private final boolean extra;
+	private final Path tempDirectory;
+	private final long memoryBudget;
+	private final byte[] nodeNamespace;
+	private byte[] pathIRI;
+	private byte[] pathStepNamespace;
+	private byte[] pathPositionNamespace;
+	private final ExternalSorter terms;
+	private final List<Path> tempFiles = new ArrayList<>();
+	private final boolean[] predicatesUsed = new boolean[PREDICATES.length];
+	private final ConversionMetrics metrics;
+	private final LongAdder[] triplesByPredicate = new LongAdder[PREDICATES.length];
+	private long triples;
+	private boolean closed;
+
+	/**
+	 * @param out           where the HDT file is written to, once closed
+	 * @param base          the base IRI of the graph
+	 * @param preCompress   leave out the inferable triples
+	 * @param extra         write the FALDO positions of each step
+	 * @param tempDirectory where the sorted runs and spilled pages go
+	 * @param memoryBudget  bytes of records to sort in memory before spilling a
+	 *                      run, the ids of the terms spill beyond it as well
+	 * @param metrics       counts the triples written by predicate
+	 */
+	HDTWriter(OutputStream out, String base, boolean preCompress, boolean extra, Path tempDirectory,
+			long memoryBudget, ConversionMetrics metrics) {
+		this.out = out;
+		this.base = base;
+		this.preCompress = preCompress;
+		this.extra = extra;
+		this.tempDirectory = tempDirectory;
+		this.memoryBudget = memoryBudget;
+		this.nodeNamespace = (base + "node/").getBytes(UTF_8);
+		this.terms = new ExternalSorter(tempDirectory, "hdt-terms", memoryBudget);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void startPath(String pathIRI) {
+		this.pathIRI = pathIRI.getBytes(UTF_8);
+		this.pathStepNamespace = (pathIRI + "/step/").getBytes(UTF_8);
+		this.pathPositionNamespace = (pathIRI + "/position/").getBytes(UTF_8);
+		triple(this.pathIRI, TYPE, PATH_CLASS);
+	}
+
+	@Override
+	public void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end) {
+		byte[] step = withNumber(pathStepNamespace, rank);
+		if (!preCompress) {
+			triple(step, TYPE, STEP_CLASS);
+			triple(step, TYPE, REGION_CLASS);
+		}
+		triple(step, PATH, pathIRI);
+		triple(step, RANK, integerLiteral(rank));
+		triple(step, NODE, nodeIRI(line, nodeStart, nodeEnd));
+		if (extra) {
+			byte[] beginIRI = withNumber(pathPositionNamespace, begin);
+			byte[] endIRI = withNumber(pathPositionNamespace, end);
+			triple(step, BEGIN, beginIRI);
+			triple(step, END, endIRI);
+			position(beginIRI, begin);
+			position(endIRI, end);
+		}
+	}
+
+	private void position(byte[] positionIRI, long position) {
+		if (!preCompress) {
+			triple(positionIRI, TYPE, POSITION_CLASS);
+		}
+		triple(positionIRI, TYPE, EXACT_POSITION_CLASS);
+		triple(positionIRI, POSITION, integerLiteral(position));
+	}
+
+	@Override
+	public void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd) {
+		byte[] node = nodeIRI(line, nameStart, nameEnd);
+		triple(node, TYPE, NODE_CLASS);
+		if (sequenceStart == NO_SEQUENCE) {
+			return;
+		}
+		byte[] sequence = new byte[sequenceEnd - sequenceStart + 2];
+		sequence[0] = '"';
+		line.get(sequenceStart, sequence, 1, sequenceEnd - sequenceStart);
+		sequence[sequence.length - 1] = '"';
+		triple(node, VALUE, sequence);
+	}
+
+	@Override
+	public void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart, int toEnd,
+			boolean reverseOfTo) {
+		triple(nodeIRI(line, fromStart, fromEnd), linkPredicate(reverseOfFrom, reverseOfTo),
+				nodeIRI(line, toStart, toEnd));
+	}
+
+	private static int linkPredicate(boolean reverseOfFrom, boolean reverseOfTo) {
+		if (reverseOfFrom) {
+			return reverseOfTo ? REVERSE_TO_REVERSE : REVERSE_TO_FORWARD;
+		} else {
+			return reverseOfTo ? FORWARD_TO_REVERSE : FORWARD_TO_FORWARD;
+		}
+	}
+
+	private byte[] nodeIRI(ByteBuffer line, int start, int end) {
+		byte[] iri = Arrays.copyOf(nodeNamespace, nodeNamespace.length + end - start);
+		line.get(start, iri, nodeNamespace.length, end - start);
+		return iri;
+	}
+
+	private static byte[] withNumber(byte[] namespace, long number) {
+		byte[] digits = Long.toString(number).getBytes(US_ASCII);
+		byte[] iri = Arrays.copyOf(namespace, namespace.length + digits.length);
+		System.arraycopy(digits, 0, iri, namespace.length, digits.length);
+		return iri;
+	}
+
+	/**
+	 * Same datatype choice as the Rio conversion: xsd:int when it fits, xsd:long
+	 * otherwise.
+	 */
+	private static byte[] integerLiteral(long value) {
+		byte[] quoted = withNumber(new byte[] { '"' }, value);
+		byte[] datatype = value < Integer.MAX_VALUE ? INT_DATATYPE : LONG_DATATYPE;
+		byte[] literal = Arrays.copyOf(quoted, quoted.length + datatype.length);
+		System.arraycopy(datatype, 0, literal, quoted.length, datatype.length);
+		return literal;
+	}
+
+	private void triple(byte[] subject, int predicate, byte[] object) {
+		LongAdder byPredicate = triplesByPredicate[predicate];
+		if (byPredicate == null) {
+			byPredicate = metrics.triples(PREDICATES[predicate].stringValue());
+			triplesByPredicate[predicate] = byPredicate;
+		}
+		byPredicate.increment();
+		predicatesUsed[predicate] = true;
+		long triple = triples++;
+		try {
+			terms.add(termRecord(subject, SUBJECT, triple, predicate));
+			terms.add(termRecord(object, OBJECT, triple, predicate));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static byte[] termRecord(byte[] term, int role, long triple, int predicate) {
+		byte[] record = Arrays.copyOf(term, term.length + TERM_RECORD_TAIL);
+		int at = term.length + 1;
+		record[at++] = (byte) role;
+		putLong(record, at, triple);
+		record[at + Long.BYTES] = (byte) predicate;
+		return record;
+	}
+
+	/**
+	 * @return the number of triples given to this writer, including duplicates
+	 */
+	@Override
+	public long triples() {
+		return triples;
+	}
+
+	/**
+	 * Builds the dictionary and the triples from the sorted terms and writes
+	 * the HDT file. Does not close the underlying stream.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		OffHeapAllocator allocator = new OffHeapAllocator(memoryBudget, tempDirectory);
+		try (ExternalSorter joins = new ExternalSorter(tempDirectory, "hdt-joins", memoryBudget);
+				ExternalSorter ids = new ExternalSorter(tempDirectory, "hdt-triples", memoryBudget)) {
+			Dictionary dictionary = new Dictionary(allocator, joins);
+			terms.sorted(false, dictionary::addTermRecord);
+			terms.close();
+			dictionary.finishTerms();
+
+			List<String> used = new ArrayList<>();
+			for (int i = 0; i < PREDICATES.length; i++) {
+				if (predicatesUsed[i]) {
+					used.add(PREDICATES[i].stringValue());
+				}
+			}
+			Collections.sort(used);
+			int[] predicateIds = new int[PREDICATES.length];
+			for (int i = 0; i < used.size(); i++) {
+				dictionary.predicates.add(used.get(i).getBytes(UTF_8));
+				predicateIds[indexOf(used.get(i))] = i + 1;
+			}
+			dictionary.predicates.finish();
+
+			long[] subject = new long[2];
+			joins.sorted(false, record -> {
+				long id = dictionary.id(getLong(record, Long.BYTES + 1));
+				if (record[Long.BYTES] == SUBJECT) {
+					subject[0] = id;
+					subject[1] = predicateIds[record[JOIN_RECORD - 1]];
+				} else {
+					byte[] spo = new byte[3 * Long.BYTES];
+					putLong(spo, 0, subject[0]);
+					putLong(spo, Long.BYTES, subject[1]);
+					putLong(spo, 2 * Long.BYTES, id);
+					ids.add(spo);
+				}
+			});
+			BitmapTriples bitmapTriples = new BitmapTriples(used.size(), dictionary.objectIds());
+			ids.sorted(true, bitmapTriples::add);
+			bitmapTriples.finish();
+			write(dictionary, bitmapTriples);
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			allocator.close();
+			for (Path tempFile : tempFiles) {
+				try {
+					Files.deleteIfExists(tempFile);
+				} catch (IOException e) {
+					tempFile.toFile().deleteOnExit();
+				}
+			}
+		}
+	}
+
+	private static int indexOf(String predicate) {
+		for (int i = 0; i < PREDICATES.length; i++) {
+			if (PREDICATES[i].stringValue().equals(predicate)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void write(Dictionary dictionary, BitmapTriples bitmapTriples) throws IOException {
+		controlInformation(GLOBAL, HDT_CONTAINER, "BaseUri=" + base + ";");
+		byte[] header = header(dictionary, bitmapTriples);
+		controlInformation(HEADER, HEADER_NTRIPLES, "length=" + header.length + ";");
+		out.write(header);
+		controlInformation(DICTIONARY, DICTIONARY_FOUR, "elements=" + dictionary.elements() + ";");
+		dictionary.shared.writeTo(out);
+		dictionary.subjects.writeTo(out);
+		dictionary.predicates.writeTo(out);
+		dictionary.objects.writeTo(out);
+		controlInformation(TRIPLES, TRIPLES_BITMAP, "order=" + ORDER_SPO + ";");
+		bitmapTriples.writeTo(out);
+	}
+
+	private byte[] header(Dictionary dictionary, BitmapTriples bitmapTriples) {
+		String subject = '<' + base + '>';
+		StringBuilder header = new StringBuilder();
+		header.append(subject).append(" <").append(RDF.TYPE).append("> <http://purl.org/HDT/hdt#Dataset> .\n");
+		header.append(subject).append(" <http://rdfs.org/ns/void#triples> \"").append(bitmapTriples.triples)
+				.append("\" .\n");
+		header.append(subject).append(" <http://rdfs.org/ns/void#properties> \"")
+				.append(dictionary.predicates.size).append("\" .\n");
+		header.append(subject).append(" <http://rdfs.org/ns/void#distinctSubjects> \"")
+				.append(dictionary.shared.size + dictionary.subjects.size).append("\" .\n");
+		header.append(subject).append(" <http://rdfs.org/ns/void#distinctObjects> \"")
+				.append(dictionary.shared.size + dictionary.objects.size).append("\" .\n");
+		return header.toString().getBytes(UTF_8);
+	}
+
+	private void controlInformation(int type, String format, String properties) throws IOException {
+		ByteArrayOutputStream control = new ByteArrayOutputStream();
+		control.write(COOKIE);
+		control.write(type);
+		control.write(format.getBytes(UTF_8));
+		control.write(0);
+		control.write(properties.getBytes(UTF_8));
+		control.write(0);
+		byte[] bytes = control.toByteArray();
+		out.write(bytes);
+		int crc = crc16(bytes, 0, bytes.length);
+		out.write(crc & 0xFF);
+		out.write(crc >>> 8);
+	}
+
+	/**
+	 * Assigns the sections and ids of the subjects and objects from their
+	 * sorted records.
+	 */
+	private final class Dictionary {
+		private final PFCSection shared;
+		private final PFCSection subjects;
+		private final PFCSection predicates;
+		private final PFCSection objects;
+		private final OffHeapAllocator allocator;
+		// The section and index in it of each term, by ordinal.
+		private final List<ByteBuffer> pages = new ArrayList<>();
+		private byte[] term;
+		private boolean subject;
+		private boolean object;
+		private long ordinal = -1;
+		private final ExternalSorter joins;
+
+		/**
+		 * @param joins receives the triple number, role, ordinal and predicate of
+		 *              every term record
+		 */
+		private Dictionary(OffHeapAllocator allocator, ExternalSorter joins) throws IOException {
+			this.allocator = allocator;
+			this.joins = joins;
+			this.shared = new PFCSection();
+			this.subjects = new PFCSection();
+			this.predicates = new PFCSection();
+			this.objects = new PFCSection();
+		}
+
+		private void addTermRecord(byte[] record) throws IOException {
+			int termLength = record.length - TERM_RECORD_TAIL;
+			if (term == null || !Arrays.equals(term, 0, term.length, record, 0, termLength)) {
+				finishTerm();
+				term = Arrays.copyOf(record, termLength);
+				subject = false;
+				object = false;
+				ordinal++;
+			}
+			int at = termLength + 1;
+			if (record[at] == SUBJECT) {
+				subject = true;
+			} else {
+				object = true;
+			}
+			byte[] join = new byte[JOIN_RECORD];
+			System.arraycopy(record, at + 1, join, 0, Long.BYTES);
+			join[Long.BYTES] = record[at];
+			putLong(join, Long.BYTES + 1, ordinal);
+			join[JOIN_RECORD - 1] = record[record.length - 1];
+			joins.add(join);
+		}
+
+		private void finishTerms() throws IOException {
+			finishTerm();
+			shared.finish();
+			subjects.finish();
+			objects.finish();
+		}
+
+		private void finishTerm() throws IOException {
+			if (term == null) {
+				return;
+			}
+			long index;
+			int section;
+			if (subject && object) {
+				section = SHARED;
+				index = shared.add(term);
+			} else if (subject) {
+				section = SUBJECTS;
+				index = subjects.add(term);
+			} else {
+				section = OBJECTS;
+				index = objects.add(term);
+			}
+			int page = (int) (ordinal >>> PAGE_SHIFT);
+			if (page == pages.size()) {
+				pages.add(allocator.allocate(Long.BYTES << PAGE_SHIFT));
+			}
+			pages.get(page).putLong((int) (ordinal & ((1 << PAGE_SHIFT) - 1)) * Long.BYTES, index << 2 | section);
+		}
+
+		/**
+		 * @return the HDT id of the subject or object with this ordinal
+		 */
+		private long id(long ordinal) {
+			long entry = pages.get((int) (ordinal >>> PAGE_SHIFT))
+					.getLong((int) (ordinal & ((1 << PAGE_SHIFT) - 1)) * Long.BYTES);
+			long index = entry >>> 2;
+			return (entry & 3) == SHARED ? index + 1 : shared.size + index + 1;
+		}
+
+		private long objectIds() {
+			return shared.size + objects.size;
+		}
+
+		private long elements() {
+			return shared.size + subjects.size + predicates.size + objects.size;
+		}
+	}
+
+	/**
+	 * A plain front coded dictionary section: the strings in blocks of
+	 * {@link #PFC_BLOCK_SIZE}, the first of each block in full, the others as the
+	 * length of the prefix shared with the one before and the rest.
+	 */
+	private final class PFCSection {
+		private final Path textFile;
+		private final Path blocksFile;
+		private final CountingOutputStream text;
+		private final DataOutputStream blocks;
+		private long blockCount;
+		private byte[] previous;
+		private long size;
+
+		private PFCSection() throws IOException {
+			this.textFile = tempFile("hdt-text");
+			this.blocksFile = tempFile("hdt-blocks");
+			this.text = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(textFile)));
+			this.blocks = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(blocksFile)));
+		}
+
+		/**
+		 * @return the index of the string in this section
+		 */
+		private long add(byte[] string) throws IOException {
+			if (size % PFC_BLOCK_SIZE == 0) {
+				addBlock();
+				text.write(string);
+			} else {
+				int common = Math.max(0, Arrays.mismatch(previous, string));
+				writeVByte(text, common);
+				text.write(string, common, string.length - common);
+			}
+			text.write(0);
+			previous = string;
+			return size++;
+		}
+
+		private void addBlock() throws IOException {
+			blocks.writeLong(text.count);
+			blockCount++;
+		}
+
+		private void finish() throws IOException {
+			addBlock();
+			text.close();
+			blocks.close();
+		}
+
+		private void writeTo(OutputStream out) throws IOException {
+			ByteArrayOutputStream preamble = new ByteArrayOutputStream();
+			preamble.write(TYPE_PFC);
+			writeVByte(preamble, size);
+			writeVByte(preamble, text.count);
+			writeVByte(preamble, PFC_BLOCK_SIZE);
+			writeWithCRC8(out, preamble);
+
+			// The number of bits per offset is only known once all strings are added.
+			try (LogSequence sequence = new LogSequence(tempFile("hdt-blocks-packed"), bits(text.count));
+					DataInputStream offsets = new DataInputStream(
+							new BufferedInputStream(Files.newInputStream(blocksFile)))) {
+				for (long i = 0; i < blockCount; i++) {
+					sequence.add(offsets.readLong());
+				}
+				sequence.finish();
+				sequence.writeTo(out);
+			}
+			copyWithCRC32(textFile, out);
+		}
+	}
+
+	/**
+	 * The triples sorted by subject, predicate and object as the predicates of
+	 * each subject and the objects of each pair in log sequences, with bitmaps
+	 * marking the last of each list.
+	 */
+	private final class BitmapTriples {
+		private final LogSequence predicates;
+		private final LogSequence objects;
+		private final Bitmap predicateEnds;
+		private final Bitmap objectEnds;
+		private long subject;
+		private long predicate;
+		private long triples;
+
+		private BitmapTriples(int predicateCount, long maxObjectId) throws IOException {
+			this.predicates = new LogSequence(tempFile("hdt-seq-y"), bits(predicateCount));
+			this.objects = new LogSequence(tempFile("hdt-seq-z"), bits(maxObjectId));
+			this.predicateEnds = new Bitmap(tempFile("hdt-bitmap-y"));
+			this.objectEnds = new Bitmap(tempFile("hdt-bitmap-z"));
+		}
+
+		private void add(byte[] spo) throws IOException {
+			long s = getLong(spo, 0);
+			long p = getLong(spo, Long.BYTES);
+			long o = getLong(spo, 2 * Long.BYTES);
+			if (s != subject) {
+				if (s != subject + 1) {
+					throw new IllegalStateException("Subject " + (subject + 1) + " has no triples");
+				}
+				if (triples > 0) {
+					predicateEnds.add(true);
+					objectEnds.add(true);
+				}
+				predicates.add(p);
+			} else if (p != predicate) {
+				predicateEnds.add(false);
+				objectEnds.add(true);
+				predicates.add(p);
+			} else {
+				objectEnds.add(false);
+			}
+			objects.add(o);
+			subject = s;
+			predicate = p;
+			triples++;
+		}
+
+		private void finish() throws IOException {
+			if (triples > 0) {
+				predicateEnds.add(true);
+				objectEnds.add(true);
+			}
+			predicates.finish();
+			objects.finish();
+			predicateEnds.finish();
+			objectEnds.finish();
+		}
+
+		private void writeTo(OutputStream out) throws IOException {
+			predicateEnds.writeTo(out);
+			objectEnds.writeTo(out);
+			predicates.writeTo(out);
+			objects.writeTo(out);
+		}
+	}
+
+	/**
+	 * Packs bits into little endian 64 bit words in a temporary file, of which
+	 * only the used bytes of the last are written.
+	 */
+	private static class PackedBits implements AutoCloseable {
+		private final Path file;
+		private final DataOutputStream words;
+		private long word;
+		private int used;
+		protected long entries;
+
+		private PackedBits(Path file) throws IOException {
+			this.file = file;
+			this.words = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+		}
+
+		protected void addBits(long value, int bits) throws IOException {
+			word |= value << used;
+			if (used + bits >= Long.SIZE) {
+				words.writeLong(Long.reverseBytes(word));
+				int written = Long.SIZE - used;
+				word = written == Long.SIZE ? 0 : value >>> written;
+				used = used + bits - Long.SIZE;
+			} else {
+				used += bits;
+			}
+			entries++;
+		}
+
+		void finish() throws IOException {
+			for (int i = 0; i < used; i += Byte.SIZE) {
+				words.write((int) (word >>> i));
+			}
+			words.close();
+		}
+
+		protected void copyTo(OutputStream out) throws IOException {
+			copyWithCRC32(file, out);
+		}
+
+		@Override
+		public void close() throws IOException {
+			words.close();
+		}
+	}
+
+	private static final class LogSequence extends PackedBits {
+		private final int bits;
+
+		private LogSequence(Path file, int bits) throws IOException {
+			super(file);
+			this.bits = bits;
+		}
+
+		private void add(long value) throws IOException {
+			addBits(value, bits);
+		}
+
+		private void writeTo(OutputStream out) throws IOException {
+			ByteArrayOutputStream preamble = new ByteArrayOutputStream();
+			preamble.write(TYPE_SEQUENCE_LOG);
+			preamble.write(bits);
+			writeVByte(preamble, entries);
+			writeWithCRC8(out, preamble);
+			copyTo(out);
+		}
+	}
+
+	private static final class Bitmap extends PackedBits {
+		private Bitmap(Path file) throws IOException {
+			super(file);
+		}
+
+		private void add(boolean bit) throws IOException {
+			addBits(bit ? 1 : 0, 1);
+		}
+
+		private void writeTo(OutputStream out) throws IOException {
+			ByteArrayOutputStream preamble = new ByteArrayOutputStream();
+			preamble.write(TYPE_BITMAP_PLAIN);
+			writeVByte(preamble, entries);
+			writeWithCRC8(out, preamble);
+			copyTo(out);
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+		private long count;
+
+		private CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * @return a new temporary file, removed once this writer is closed
+	 */
+	private Path tempFile(String name) throws IOException {
+		Path file = Files.createTempFile(tempDirectory, name, ".bin");
+		tempFiles.add(file);
+		return file;
+	}
+
+	/**
+	 * @return the number of bits needed for values up to max
+	 */
+	static int bits(long max) {
+		return Long.SIZE - Long.numberOfLeadingZeros(max);
+	}
+
+	/**
+	 * The variable byte encoding of HDT: seven bits per byte, least significant
+	 * first, the last byte has its high bit set.
+	 */
+	static void writeVByte(OutputStream out, long value) throws IOException {
+		while (value > 127) {
+			out.write((int) (value & 127));
+			value >>>= 7;
+		}
+		out.write((int) (value | 0x80));
+	}
+
+	private static void writeWithCRC8(OutputStream out, ByteArrayOutputStream bytes) throws IOException {
+		byte[] written = bytes.toByteArray();
+		out.write(written);
+		out.write(crc8(written, 0, written.length));
+	}
+
+	private static void copyWithCRC32(Path file, OutputStream out) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				crc.update(buffer, 0, read);
+				out.write(buffer, 0, read);
+			}
+		}
+		int value = (int) crc.getValue();
+		for (int i = 0; i < Integer.SIZE; i += Byte.SIZE) {
+			out.write(value >>> i);
+		}
+	}
+
+	/**
+	 * CRC-8 with polynomial 0x07, as checked by HDT readers after the preamble of
+	 * a section.
+	 */
+	static int crc8(byte[] bytes, int offset, int length) {
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++) {
+			crc ^= bytes[i] & 0xFF;
+			for (int bit = 0; bit < Byte.SIZE; bit++) {
+				crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+			}
+		}
+		return crc;
+	}
+
+	/**
+	 * CRC-16 with the reflected polynomial 0xA001, as checked by HDT readers
+	 * after control information.
+	 */
+	static int crc16(byte[] bytes, int offset, int length) {
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++) {
+			crc ^= bytes[i] & 0xFF;
+			for (int bit = 0; bit < Byte.SIZE; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+			}
+		}
+		return crc;
+	}
+
+	private static void putLong(byte[] bytes, int at, long value) {
+		for (int i = Long.BYTES - 1; i >= 0; i--) {
+			bytes[at + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	static long getLong(byte[] bytes, int at) {
+		long value = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			value = value << 8 | (bytes[at + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static byte[] term(IRI iri) {
+		return iri.stringValue().getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a GFA file by memory mapping it in segments and finding the line
+ * boundaries directly in the mapped bytes. Lines are handed out as slices of
+ * the mapping, no characters are decoded.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class MappedGFAReader implements ByteInput {
+	static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+	/**
+	 * Receives a line, without its line terminator.
+	 */
+	@FunctionalInterface
+	interface LineConsumer {
+		/**
+		 * @param buffer the mapped bytes
+		 * @param start  index of the first byte of the line
+		 * @param end    index after the last byte of the line
+		 */
+		void accept(ByteBuffer buffer, int start, int end);
+	}
+
+	/**
+	 * Receives a line, without its line terminator, and where it starts in the
+	 * file.
+	 */
+	@FunctionalInterface
+	interface PositionedLineConsumer {
+		/**
+		 * @param lineOffset the offset of the first byte of the line in the file
+		 * @param buffer     the mapped bytes
+		 * @param start      index of the first byte of the line
+		 * @param end        index after the last byte of the line
+		 */
+		void accept(long lineOffset, ByteBuffer buffer, int start, int end);
+	}
+
+	private final FileChannel channel;
+	private final int segmentSize;
+	private static final int LINE_BUFFER_SIZE = 64 * 1024;
+	private ByteBuffer lineBuffer = ByteBuffer.allocate(LINE_BUFFER_SIZE);
+
+	MappedGFAReader(Path path) throws IOException {
+		this(path, DEFAULT_SEGMENT_SIZE);
+	}
+
+	MappedGFAReader(Path path, int segmentSize) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * The size of the file being read.
+	 */
+	long size() throws IOException {
+		return channel.size();
+	}
+
+	@Override
+	public void parse(ByteRecordParser parser) throws IOException {
+		parse(parser, 0);
+	}
+
+	/**
+	 * Hand every record starting at or after from to the parser, in order.
+	 *
+	 * @param from the offset of the start of a line
+	 */
+	void parse(ByteRecordParser parser, long from) throws IOException {
+		long size = channel.size();
+		// Everything before the start of a line has been consumed.
+		long[] consumed = { from };
+		forEachLine(from, size, (lineOffset, buffer, start, end) -> {
+			parser.consumed(lineOffset - consumed[0]);
+			consumed[0] = lineOffset;
+			parser.lineStart(lineOffset);
+			parser.accept(buffer, start, end);
+		});
+		parser.consumed(size - consumed[0]);
+	}
+
+	/**
+	 * Give every line of the file to the consumer, in order.
+	 */
+	void forEachLine(LineConsumer consumer) throws IOException {
+		forEachLine(0, channel.size(), consumer);
+	}
+
+	/**
+	 * Give every line that starts in the byte range from to to the consumer, in
+	 * order. The range must start at the beginning of a line, the last line may
+	 * continue past to.
+	 */
+	void forEachLine(long from, long to, LineConsumer consumer) throws IOException {
+		forEachLine(from, to, (lineOffset, buffer, start, end) -> consumer.accept(buffer, start, end));
+	}
+
+	/**
+	 * Give every line that starts in the byte range from to to the consumer, in
+	 * order, together with its offset in the file.
+	 */
+	void forEachLine(long from, long to, PositionedLineConsumer consumer) throws IOException {
+		long fileSize = channel.size();
+		long position = from;
+		int mapSize = segmentSize;
+		while (position < to) {
+			long length = Math.min(mapSize, fileSize - position);
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, length);
+			boolean lastOfFile = position + length == fileSize;
+			int limit = (int) length;
+			int start = 0;
+			while (start < limit && position + start < to) {
+				int newLine = indexOfNewLine(buffer, start, limit);
+				if (newLine < 0) {
+					if (lastOfFile) {
+						consumer.accept(position + start, buffer, start, withoutCarriageReturn(buffer, start, limit));
+						start = limit;
+					}
+					break;
+				}
+				consumer.accept(position + start, buffer, start, withoutCarriageReturn(buffer, start, newLine));
+				start = newLine + 1;
+			}
+			if (start == 0 && !lastOfFile) {
+				// A single line does not fit in the mapping, map a larger window.
+				if (mapSize == Integer.MAX_VALUE) {
+					throw new IOException("Line at byte " + position + " is longer than 2GB, read it with --stream");
+				}
+				mapSize = (int) Math.min(Integer.MAX_VALUE, mapSize * 2L);
+			} else {
+				position += start;
+				mapSize = segmentSize;
+			}
+		}
+	}
+
+	/**
+	 * Give the line starting at offset to the consumer. The line is read into a
+	 * buffer that is reused from call to call, so that reading many single lines
+	 * does not pile up mappings that only the garbage collector releases. A
+	 * buffer grown for a long line is dropped afterwards.
+	 */
+	synchronized void readLine(long offset, LineConsumer consumer) throws IOException {
+		long fileSize = channel.size();
+		lineBuffer.clear();
+		int scanned = 0;
+		while (true) {
+			if (!lineBuffer.hasRemaining()) {
+				if (lineBuffer.capacity() == Integer.MAX_VALUE - 8) {
+					throw new IOException("Line at byte " + offset + " is longer than 2GB, read it with --stream");
+				}
+				lineBuffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, lineBuffer.capacity() * 2L))
+						.put(lineBuffer.flip());
+			}
+			int read = channel.read(lineBuffer, offset + lineBuffer.position());
+			int limit = lineBuffer.position();
+			int newLine = indexOfNewLine(lineBuffer, scanned, limit);
+			if (newLine >= 0 || read < 0 || offset + limit >= fileSize) {
+				int end = newLine >= 0 ? newLine : limit;
+				try {
+					consumer.accept(lineBuffer, 0, withoutCarriageReturn(lineBuffer, 0, end));
+				} finally {
+					if (lineBuffer.capacity() > LINE_BUFFER_SIZE) {
+						lineBuffer = ByteBuffer.allocate(LINE_BUFFER_SIZE);
+					}
+				}
+				return;
+			}
+			scanned = limit;
+		}
+	}
+
+	/**
+	 * @return the offset of the first line that starts at or after position.
+	 */
+	long lineStartAtOrAfter(long position) throws IOException {
+		if (position == 0) {
+			return 0;
+		}
+		long fileSize = channel.size();
+		ByteBuffer scan = ByteBuffer.allocate(64 * 1024);
+		// A line starts at position if the byte before it ends a line.
+		long at = position - 1;
+		while (at < fileSize) {
+			scan.clear();
+			int read = channel.read(scan, at);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (scan.get(i) == '\n') {
+					return at + i + 1;
+				}
+			}
+			at += read;
+		}
+		return fileSize;
+	}
+
+	private static int indexOfNewLine(ByteBuffer buffer, int from, int limit) {
+		for (int i = from; i < limit; i++) {
+			if (buffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int withoutCarriageReturn(ByteBuffer buffer, int start, int end) {
+		if (end > start && buffer.get(end - 1) == '\r') {
+			return end - 1;
+		}
+		return end;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+import org.eclipse.rdf4j.model.IRI;
+
+/**
+ * A bounded cache of node IRIs, so that the many references to a node by the
+ * links and the steps of the paths share one IRI instead of building a new
+ * string and IRI every time.
+ * <p>
+ * The cache is direct mapped: an id hashes to exactly one slot, and a new id
+ * for that slot evicts the one that was there. Lookups do not allocate, only
+ * misses create the IRI and its entry. Entries are immutable, so the cache may
+ * be shared by the threads converting the steps of a path in parallel.
+ * <p>
+ * Numeric ids are keyed by their value, as long as they are written without
+ * leading zeros or a sign, all other ids by their bytes.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class NodeIRICache {
+	static final int DEFAULT_CAPACITY = 1 << 16;
+	private static final int MAX_LONG_DIGITS = 18;
+
+	private final String prefix;
+	private final Function<String, IRI> create;
+	private final ConversionMetrics metrics;
+	private final Entry[] entries;
+	private final int mask;
+
+	private static final class Entry {
+		private final long id;
+		private final String name;
+		private final IRI iri;
+
+		private Entry(long id, String name, IRI iri) {
+			this.id = id;
+			this.name = name;
+			this.iri = iri;
+		}
+	}
+
+	/**
+	 * @param prefix   the prefix of the node IRIs
+	 * @param capacity the number of IRIs to keep, rounded up to a power of two.
+	 *                 0 turns the cache off
+	 * @param create   makes the IRI of a node id
+	 * @param metrics  counts the hits and misses
+	 */
+	NodeIRICache(String prefix, int capacity, Function<String, IRI> create, ConversionMetrics metrics) {
+		this.prefix = prefix;
+		this.create = create;
+		this.metrics = metrics;
+		int size = capacity <= 0 ? 0 : Integer.highestOneBit(Math.min(capacity, 1 << 30) * 2 - 1);
+		this.entries = new Entry[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @return the prefix of the node IRIs in this cache
+	 */
+	String prefix() {
+		return prefix;
+	}
+
+	IRI get(String name) {
+		if (entries.length == 0) {
+			return create.apply(name);
+		}
+		long id = parseId(name);
+		if (id >= 0) {
+			return get(id);
+		}
+		int slot = slot(hash(name));
+		Entry entry = entries[slot];
+		if (entry != null && entry.id < 0 && entry.name.equals(name)) {
+			metrics.nodeIRICacheHit();
+			return entry.iri;
+		}
+		return miss(slot, -1, name);
+	}
+
+	/**
+	 * @param id a node id that is a plain number without leading zeros
+	 */
+	IRI get(long id) {
+		if (entries.length == 0) {
+			return create.apply(Long.toString(id));
+		}
+		int slot = slot(mix(id));
+		Entry entry = entries[slot];
+		if (entry != null && entry.id == id) {
+			metrics.nodeIRICacheHit();
+			return entry.iri;
+		}
+		return miss(slot, id, Long.toString(id));
+	}
+
+	/**
+	 * @param hasLongId true if the reader could parse the id as a long
+	 * @param longId    the id as a long, if it has one
+	 * @param nodeId    the bytes of the id
+	 */
+	IRI get(boolean hasLongId, long longId, byte[] nodeId) {
+		if (hasLongId && longId >= 0 && digits(longId) == nodeId.length) {
+			return get(longId);
+		}
+		return get(ByteBuffer.wrap(nodeId), 0, nodeId.length);
+	}
+
+	IRI get(ByteBuffer line, int start, int end) {
+		if (entries.length == 0) {
+			return create.apply(ByteRecordParser.toAsciiString(line, start, end));
+		}
+		long id = parseId(line, start, end);
+		if (id >= 0) {
+			return get(id);
+		}
+		int slot = slot(hash(line, start, end));
+		Entry entry = entries[slot];
+		if (entry != null && entry.id < 0 && sameName(entry.name, line, start, end)) {
+			metrics.nodeIRICacheHit();
+			return entry.iri;
+		}
+		return miss(slot, -1, ByteRecordParser.toAsciiString(line, start, end));
+	}
+
+	private IRI miss(int slot, long id, String name) {
+		metrics.nodeIRICacheMiss();
+		IRI iri = create.apply(name);
+		entries[slot] = new Entry(id, name, iri);
+		return iri;
+	}
+
+	private int slot(long hash) {
+		return (int) hash & mask;
+	}
+
+	private static boolean sameName(String name, ByteBuffer line, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != (char) (line.get(start + i) & 0xff)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The same hash for a name as for its ASCII bytes.
+	 */
+	private static int hash(String name) {
+		int hash = 1;
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + name.charAt(i);
+		}
+		return (int) mix(hash);
+	}
+
+	private static int hash(ByteBuffer line, int start, int end) {
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + (line.get(i) & 0xff);
+		}
+		return (int) mix(hash);
+	}
+
+	private static long mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * @return the id as a long, or -1 if it is not a plain number without
+	 *         leading zeros that fits.
+	 */
+	static long parseId(String name) {
+		int length = name.length();
+		if (length == 0 || length > MAX_LONG_DIGITS || (length > 1 && name.charAt(0) == '0')) {
+			return -1;
+		}
+		long id = 0;
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			id = id * 10 + (c - '0');
+		}
+		return id;
+	}
+
+	private static long parseId(ByteBuffer line, int start, int end) {
+		if (end - start > 1 && line.get(start) == '0') {
+			return -1;
+		}
+		return NodeLengths.parseId(line, start, end);
+	}
+
+	private static int digits(long id) {
+		int digits = 1;
+		while (id >= 10) {
+			id /= 10;
+			digits++;
+		}
+		return digits;
+	}
+}
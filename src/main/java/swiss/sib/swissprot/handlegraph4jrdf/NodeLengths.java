@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The sequence length of every node, needed to calculate the FALDO positions
+ * of the steps of a path. All lengths live outside of the java heap.
+ * <p>
+ * vg and odgi number their nodes from 1 upwards, such ids index directly into
+ * pages of lengths. Pages are only added while they stay at least half used,
+ * other numeric ids go into a hash map by long. Ids that are not plain numbers
+ * go into a hash map by their bytes.
+ * <p>
+ * Node lengths mapped from a {@link NodeLengthsSidecar} are complete and read
+ * only, the segments seen during the conversion are not put again.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class NodeLengths implements AutoCloseable {
+	private static final int MAX_LONG_DIGITS = 18;
+	private static final int PAGE_SHIFT = 16;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private final OffHeapAllocator allocator;
+	private final OffHeapLongIntMap nodeLengthMapByLongId;
+	private final OffHeapBytesIntMap nodeLengthMapByByteArrayId;
+	private final boolean complete;
+	private ByteBuffer[] pages = new ByteBuffer[16];
+	private int allocatedPages;
+	private long denseEntries;
+
+	/**
+	 * Node lengths without a memory budget.
+	 */
+	NodeLengths() {
+		this(new OffHeapAllocator());
+	}
+
+	/**
+	 * @param allocator provides the memory, and the spill files once its budget
+	 *                  is used up
+	 */
+	NodeLengths(OffHeapAllocator allocator) {
+		this(allocator, new OffHeapLongIntMap(allocator), new OffHeapBytesIntMap(allocator), false);
+	}
+
+	private NodeLengths(OffHeapAllocator allocator, OffHeapLongIntMap nodeLengthMapByLongId,
+			OffHeapBytesIntMap nodeLengthMapByByteArrayId, boolean complete) {
+		this.allocator = allocator;
+		this.nodeLengthMapByLongId = nodeLengthMapByLongId;
+		this.nodeLengthMapByByteArrayId = nodeLengthMapByByteArrayId;
+		this.complete = complete;
+	}
+
+	void put(String name, int length) {
+		byte[] bytes = name.getBytes(US_ASCII);
+		put(ByteBuffer.wrap(bytes), 0, bytes.length, length);
+	}
+
+	void put(ByteBuffer line, int start, int end, int length) {
+		if (complete) {
+			return;
+		}
+		long id = parseId(line, start, end);
+		if (id >= 0) {
+			put(id, length);
+		} else {
+			nodeLengthMapByByteArrayId.put(line, start, end, length);
+		}
+	}
+
+	private void put(long id, int length) {
+		ByteBuffer page = pageFor(id);
+		if (page != null) {
+			page.putInt(indexInPage(id), length);
+			denseEntries++;
+		} else {
+			nodeLengthMapByLongId.put(id, length);
+		}
+	}
+
+	/**
+	 * Add all lengths known by the other node lengths.
+	 */
+	void putAll(NodeLengths other) {
+		if (complete) {
+			return;
+		}
+		for (int p = 0; p < other.pages.length; p++) {
+			ByteBuffer page = other.pages[p];
+			if (page != null) {
+				for (int i = 0; i < PAGE_SIZE; i++) {
+					int length = page.getInt(i * Integer.BYTES);
+					if (length != 0) {
+						put(((long) p << PAGE_SHIFT) | i, length);
+					}
+				}
+			}
+		}
+		other.nodeLengthMapByLongId.forEachKeyValue(this::put);
+		other.nodeLengthMapByByteArrayId.forEachKeyValue(nodeLengthMapByByteArrayId::put);
+	}
+
+	/**
+	 * @param nodeId the id of a step's node, read by the same rule as when it
+	 *               was put, so ids that handlegraph4j parses as a long but
+	 *               {@link #parseId(ByteBuffer, int, int)} does not are found
+	 */
+	int get(byte[] nodeId) {
+		return get(ByteBuffer.wrap(nodeId), 0, nodeId.length);
+	}
+
+	int get(String name) {
+		return get(name.getBytes(US_ASCII));
+	}
+
+	int get(ByteBuffer line, int start, int end) {
+		long id = parseId(line, start, end);
+		if (id >= 0) {
+			return get(id);
+		} else {
+			return nodeLengthMapByByteArrayId.get(line, start, end);
+		}
+	}
+
+	private int get(long id) {
+		long page = id >>> PAGE_SHIFT;
+		if (page < pages.length && pages[(int) page] != null) {
+			int length = pages[(int) page].getInt(indexInPage(id));
+			if (length != 0) {
+				return length;
+			}
+		}
+		return nodeLengthMapByLongId.get(id);
+	}
+
+	/**
+	 * @return the page for the id, allocating it if the pages are dense enough,
+	 *         or null if the id belongs in the hash map.
+	 */
+	private ByteBuffer pageFor(long id) {
+		long pageIndex = id >>> PAGE_SHIFT;
+		if (pageIndex < pages.length && pages[(int) pageIndex] != null) {
+			return pages[(int) pageIndex];
+		}
+		// Only add pages close to the ones in use, and while those are half full.
+		if (pageIndex >= 2L * allocatedPages + 16 || denseEntries < (long) allocatedPages * PAGE_SIZE / 2) {
+			return null;
+		}
+		int page = (int) pageIndex;
+		if (page >= pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(page + 1, pages.length * 2));
+		}
+		pages[page] = allocator.allocate(PAGE_SIZE * Integer.BYTES);
+		allocatedPages++;
+		return pages[page];
+	}
+
+	private static int indexInPage(long id) {
+		return (int) (id & (PAGE_SIZE - 1)) * Integer.BYTES;
+	}
+
+	/**
+	 * @return the id as a non negative long or -1 if it is not a plain number
+	 *         that fits.
+	 */
+	static long parseId(ByteBuffer line, int start, int end) {
+		if (start >= end || end - start > MAX_LONG_DIGITS) {
+			return -1;
+		}
+		long id = 0;
+		for (int i = start; i < end; i++) {
+			byte b = line.get(i);
+			if (b < '0' || b > '9') {
+				return -1;
+			}
+			id = id * 10 + (b - '0');
+		}
+		return id;
+	}
+
+	/**
+	 * Save all lengths, in the byte order of this machine.
+	 */
+	void writeTo(NodeLengthsSidecar sidecar) throws IOException {
+		sidecar.writeLong(allocatedPages);
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] != null) {
+				sidecar.writeLong(p);
+				sidecar.write(pages[p], PAGE_SIZE * Integer.BYTES);
+			}
+		}
+		nodeLengthMapByLongId.writeTo(sidecar);
+		nodeLengthMapByByteArrayId.writeTo(sidecar);
+	}
+
+	/**
+	 * @return complete node lengths of what {@link #writeTo(NodeLengthsSidecar)}
+	 *         saved
+	 */
+	static NodeLengths mapFrom(NodeLengthsSidecar sidecar, OffHeapAllocator allocator) throws IOException {
+		long allocatedPages = sidecar.readLong();
+		ByteBuffer[] pages = new ByteBuffer[16];
+		for (long i = 0; i < allocatedPages; i++) {
+			int p = (int) sidecar.readLong();
+			if (p >= pages.length) {
+				pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+			}
+			pages[p] = sidecar.map(PAGE_SIZE * Integer.BYTES);
+		}
+		NodeLengths lengths = new NodeLengths(allocator, OffHeapLongIntMap.mapFrom(sidecar, allocator),
+				OffHeapBytesIntMap.mapFrom(sidecar, allocator), true);
+		lengths.pages = pages;
+		lengths.allocatedPages = (int) allocatedPages;
+		return lengths;
+	}
+
+	/**
+	 * Hand the memory back to the allocator, which stays open for the other
+	 * node lengths sharing it. Only for node lengths that were not mapped from a
+	 * sidecar, they are empty afterwards.
+	 */
+	void release() {
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] != null) {
+				allocator.release(pages[p]);
+				pages[p] = null;
+			}
+		}
+		allocatedPages = 0;
+		denseEntries = 0;
+		nodeLengthMapByLongId.release();
+		nodeLengthMapByByteArrayId.release();
+	}
+
+	/**
+	 * @return the allocator providing the memory of these node lengths
+	 */
+	OffHeapAllocator allocator() {
+		return allocator;
+	}
+
+	/**
+	 * Removes any spill files, the lengths may not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		allocator.close();
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The node lengths of a GFA file, saved next to it after a pre-scan of its
+ * segment lines. The saved buffers are memory mapped when used, so the lengths
+ * are not read into memory up front. The sidecar is reused as long as the size
+ * and modification time of the GFA file did not change.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class NodeLengthsSidecar {
+	static final String SUFFIX = ".lengths";
+	private static final byte[] MAGIC = "GFA2RDFL".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+	private final FileChannel channel;
+	private final ByteBuffer number = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder());
+	private long position;
+
+	private NodeLengthsSidecar(FileChannel channel, long position) {
+		this.channel = channel;
+		this.position = position;
+	}
+
+	/**
+	 * Map the node lengths of the sidecar of the input, pre-scanning the input
+	 * first if there is no up to date sidecar.
+	 *
+	 * @return the complete node lengths, which ignore further puts
+	 */
+	static NodeLengths loadOrBuild(Path input, OffHeapAllocator allocator) throws IOException {
+		return loadOrBuild(input, allocator, 1);
+	}
+
+	/**
+	 * @param threads the number of threads to decompress a BGZF input with
+	 */
+	static NodeLengths loadOrBuild(Path input, OffHeapAllocator allocator, int threads) throws IOException {
+		Path sidecar = sidecarOf(input);
+		NodeLengths mapped = load(input, sidecar, allocator);
+		if (mapped != null) {
+			return mapped;
+		}
+		NodeLengths lengths = new NodeLengths(allocator);
+		if (BlockDecompressedInputStream.isCompressed(input)) {
+			try (ReadableByteChannel in = Channels
+					.newChannel(BlockDecompressedInputStream.open(Files.newInputStream(input), threads))) {
+				SegmentScanner.scan(in, lengths);
+			}
+		} else {
+			try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+				SegmentScanner.scan(in, lengths);
+			}
+		}
+		write(input, sidecar, lengths);
+		lengths.close();
+		return load(input, sidecar, allocator);
+	}
+
+	static Path sidecarOf(Path input) {
+		return input.resolveSibling(input.getFileName() + SUFFIX);
+	}
+
+	private static NodeLengths load(Path input, Path sidecar, OffHeapAllocator allocator) throws IOException {
+		if (!Files.exists(sidecar)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+			if (channel.read(header, 0) != header.capacity()
+					|| !Arrays.equals(header.array(), 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+					|| header.get(MAGIC.length) != nativeOrderMarker()) {
+				return null;
+			}
+			NodeLengthsSidecar reader = new NodeLengthsSidecar(channel, header.capacity());
+			if (reader.readLong() != VERSION || reader.readLong() != Files.size(input)
+					|| reader.readLong() != Files.getLastModifiedTime(input).toMillis()) {
+				return null;
+			}
+			return NodeLengths.mapFrom(reader, allocator);
+		}
+	}
+
+	private static void write(Path input, Path sidecar, NodeLengths lengths) throws IOException {
+		// Write next to the sidecar and move it in place, so that a failed pre-scan
+		// never leaves a partial sidecar behind.
+		Path partial = sidecar.resolveSibling(sidecar.getFileName() + ".partial");
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+			header.put(MAGIC).put(nativeOrderMarker()).flip();
+			channel.write(header);
+			NodeLengthsSidecar writer = new NodeLengthsSidecar(channel, header.capacity());
+			writer.writeLong(VERSION);
+			writer.writeLong(Files.size(input));
+			writer.writeLong(Files.getLastModifiedTime(input).toMillis());
+			lengths.writeTo(writer);
+		}
+		Files.move(partial, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * The buffers are saved as they are in memory, a sidecar written on a
+	 * machine of the other byte order is scanned again.
+	 */
+	private static byte nativeOrderMarker() {
+		return (byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 'L' : 'B');
+	}
+
+	long readLong() throws IOException {
+		number.clear();
+		while (number.hasRemaining()) {
+			if (channel.read(number, position + number.position()) < 0) {
+				throw new IOException("Node lengths sidecar is truncated");
+			}
+		}
+		position += Long.BYTES;
+		return number.getLong(0);
+	}
+
+	/**
+	 * @return the next length bytes of the sidecar, mapped read only
+	 */
+	ByteBuffer map(int length) throws IOException {
+		if (position + length > channel.size()) {
+			throw new IOException("Node lengths sidecar is truncated");
+		}
+		ByteBuffer mapped = channel.map(MapMode.READ_ONLY, position, length).order(ByteOrder.nativeOrder());
+		position += length;
+		return mapped;
+	}
+
+	void writeLong(long value) throws IOException {
+		number.clear();
+		number.putLong(value).flip();
+		write(number, Long.BYTES);
+	}
+
+	/**
+	 * Write the first length bytes of the buffer.
+	 */
+	void write(ByteBuffer buffer, int length) throws IOException {
+		ByteBuffer toWrite = buffer.duplicate().position(0).limit(length);
+		while (toWrite.hasRemaining()) {
+			position += channel.write(toWrite, position);
+		}
+	}
+}
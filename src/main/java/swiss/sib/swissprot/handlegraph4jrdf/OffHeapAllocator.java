@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out zeroed buffers outside of the java heap. Up to the budget they are
+ * direct buffers, beyond it they are memory mapped temporary files so that the
+ * operating system can page them out to disk.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class OffHeapAllocator implements Closeable {
+	private final long budget;
+	private final Path spillDirectory;
+	private final AtomicLong used = new AtomicLong();
+	private final Set<ByteBuffer> spilled = Collections
+			.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+	private final List<Path> spillFiles = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * An allocator that never spills to disk.
+	 */
+	OffHeapAllocator() {
+		this(Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * @param budget         the number of bytes that may be allocated in memory
+	 * @param spillDirectory where to create the files once the budget is used up
+	 */
+	OffHeapAllocator(long budget, Path spillDirectory) {
+		this.budget = budget;
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @return a zeroed buffer of bytes capacity, in native byte order
+	 */
+	ByteBuffer allocate(int bytes) {
+		if (used.addAndGet(bytes) <= budget) {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+		used.addAndGet(-bytes);
+		ByteBuffer buffer = spill(bytes).order(ByteOrder.nativeOrder());
+		spilled.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * The buffer is no longer used, its memory counts no longer against the
+	 * budget.
+	 */
+	void release(ByteBuffer buffer) {
+		if (!spilled.remove(buffer)) {
+			used.addAndGet(-buffer.capacity());
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated in memory
+	 */
+	long used() {
+		return used.get();
+	}
+
+	private ByteBuffer spill(int bytes) {
+		if (spillDirectory == null) {
+			throw new IllegalStateException("The memory budget of " + budget + " bytes is used up");
+		}
+		try {
+			Path file = Files.createTempFile(spillDirectory, "node-lengths", ".bin");
+			spillFiles.add(file);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// Mapping past the end grows the file with zeros, the mapping stays valid
+				// after the channel is closed.
+				return channel.map(MapMode.READ_WRITE, 0, bytes);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Removes the spill files, none of the buffers may be used afterwards.
+	 */
+	@Override
+	public void close() {
+		synchronized (spillFiles) {
+			for (Path file : spillFiles) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					file.toFile().deleteOnExit();
+				}
+			}
+			spillFiles.clear();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An open addressing hash map from byte string keys to int values. The keys
+ * are copied once into an arena, both the arena and the table are buffers from
+ * an {@link OffHeapAllocator}. Missing keys have the value 0.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class OffHeapBytesIntMap {
+	private static final int INITIAL_CAPACITY = 1024;
+	// The hashes are ints, they can not spread the keys over more slots.
+	private static final long MAX_CAPACITY = 1L << 32;
+	private static final int ARENA_CHUNK_SIZE = 16 * 1024 * 1024;
+	// A slot is the reference to the key in the arena plus one, its hash and its
+	// value.
+	private static final int SLOT_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES;
+	private static final int HASH = Long.BYTES;
+	private static final int VALUE = Long.BYTES + Integer.BYTES;
+
+	/**
+	 * Receives a key as a slice of the arena, and its value.
+	 */
+	@FunctionalInterface
+	interface KeyValueConsumer {
+		void accept(ByteBuffer key, int start, int end, int value);
+	}
+
+	private final OffHeapAllocator allocator;
+	private final List<ByteBuffer> arena = new ArrayList<>();
+	private OffHeapTable slots;
+	private long capacity;
+	private long size;
+
+	OffHeapBytesIntMap(OffHeapAllocator allocator) {
+		this.allocator = allocator;
+	}
+
+	void writeTo(NodeLengthsSidecar sidecar) throws IOException {
+		sidecar.writeLong(capacity);
+		sidecar.writeLong(size);
+		if (capacity > 0) {
+			slots.writeTo(sidecar);
+		}
+		sidecar.writeLong(arena.size());
+		for (ByteBuffer chunk : arena) {
+			sidecar.writeLong(chunk.position());
+			sidecar.write(chunk, chunk.position());
+		}
+	}
+
+	/**
+	 * @return a read only map of what {@link #writeTo(NodeLengthsSidecar)} saved
+	 */
+	static OffHeapBytesIntMap mapFrom(NodeLengthsSidecar sidecar, OffHeapAllocator allocator) throws IOException {
+		OffHeapBytesIntMap map = new OffHeapBytesIntMap(allocator);
+		map.capacity = sidecar.readLong();
+		map.size = sidecar.readLong();
+		if (map.capacity > 0) {
+			map.slots = OffHeapTable.mapFrom(sidecar, map.capacity, SLOT_BYTES);
+		}
+		long chunks = sidecar.readLong();
+		for (long i = 0; i < chunks; i++) {
+			int used = (int) sidecar.readLong();
+			map.arena.add(sidecar.map(used).position(used));
+		}
+		return map;
+	}
+
+	void put(ByteBuffer key, int start, int end, int value) {
+		if (size >= capacity - (capacity >>> 2)) {
+			grow();
+		}
+		int hash = hash(key, start, end);
+		long slot = slot(key, start, end, hash);
+		if (slots.getLong(slot, 0) == 0) {
+			slots.putLong(slot, 0, copyToArena(key, start, end) + 1);
+			slots.putInt(slot, HASH, hash);
+			size++;
+		}
+		slots.putInt(slot, VALUE, value);
+	}
+
+	int get(ByteBuffer key, int start, int end) {
+		if (size == 0) {
+			return 0;
+		}
+		return slots.getInt(slot(key, start, end, hash(key, start, end)), VALUE);
+	}
+
+	long size() {
+		return size;
+	}
+
+	void forEachKeyValue(KeyValueConsumer consumer) {
+		for (long slot = 0; slot < capacity; slot++) {
+			long reference = slots.getLong(slot, 0);
+			if (reference != 0) {
+				ByteBuffer chunk = arena.get(chunk(reference - 1));
+				int keyStart = offset(reference - 1) + Integer.BYTES;
+				int keyEnd = keyStart + chunk.getInt(keyStart - Integer.BYTES);
+				consumer.accept(chunk, keyStart, keyEnd, slots.getInt(slot, VALUE));
+			}
+		}
+	}
+
+	/**
+	 * @return the slot holding the key, or the free slot where it belongs
+	 */
+	private long slot(ByteBuffer key, int start, int end, int hash) {
+		long mask = capacity - 1;
+		long slot = Integer.toUnsignedLong(hash) & mask;
+		while (true) {
+			long reference = slots.getLong(slot, 0);
+			if (reference == 0 || (slots.getInt(slot, HASH) == hash && keyEquals(reference - 1, key, start, end))) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean keyEquals(long reference, ByteBuffer key, int start, int end) {
+		ByteBuffer chunk = arena.get(chunk(reference));
+		int offset = offset(reference);
+		int length = chunk.getInt(offset);
+		if (length != end - start) {
+			return false;
+		}
+		// Absolute gets, no slices are made on this hot path.
+		int stored = offset + Integer.BYTES;
+		for (int i = 0; i < length; i++) {
+			if (chunk.get(stored + i) != key.get(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hand the slots and the arena back to the allocator, the map is empty
+	 * afterwards.
+	 */
+	void release() {
+		if (slots != null) {
+			slots.release(allocator);
+		}
+		for (ByteBuffer chunk : arena) {
+			allocator.release(chunk);
+		}
+		arena.clear();
+		slots = null;
+		capacity = 0;
+		size = 0;
+	}
+
+	/**
+	 * Copies the key, prefixed by its length, into the arena.
+	 *
+	 * @return the chunk index in the high and the offset in the low int
+	 */
+	private long copyToArena(ByteBuffer key, int start, int end) {
+		int needed = Integer.BYTES + end - start;
+		ByteBuffer chunk = arena.isEmpty() ? null : arena.get(arena.size() - 1);
+		if (chunk == null || chunk.remaining() < needed) {
+			chunk = allocator.allocate(Math.max(ARENA_CHUNK_SIZE, needed));
+			arena.add(chunk);
+		}
+		int offset = chunk.position();
+		chunk.putInt(end - start);
+		chunk.put(chunk.position(), key, start, end - start);
+		chunk.position(chunk.position() + end - start);
+		return ((long) (arena.size() - 1) << 32) | offset;
+	}
+
+	private static int chunk(long reference) {
+		return (int) (reference >>> 32);
+	}
+
+	private static int offset(long reference) {
+		return (int) reference;
+	}
+
+	private void grow() {
+		if (capacity == MAX_CAPACITY) {
+			throw new IllegalStateException("More than " + (MAX_CAPACITY - (MAX_CAPACITY >>> 2)) + " named nodes");
+		}
+		OffHeapTable oldSlots = slots;
+		long oldCapacity = capacity;
+		capacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+		slots = OffHeapTable.allocate(allocator, capacity, SLOT_BYTES);
+		long mask = capacity - 1;
+		// The keys are already unique, only find a free slot for each.
+		for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+			long reference = oldSlots.getLong(oldSlot, 0);
+			if (reference != 0) {
+				int hash = oldSlots.getInt(oldSlot, HASH);
+				long slot = Integer.toUnsignedLong(hash) & mask;
+				while (slots.getLong(slot, 0) != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots.putLong(slot, 0, reference);
+				slots.putInt(slot, HASH, hash);
+				slots.putInt(slot, VALUE, oldSlots.getInt(oldSlot, VALUE));
+			}
+		}
+		if (oldSlots != null) {
+			oldSlots.release(allocator);
+		}
+	}
+
+	private static int hash(ByteBuffer key, int start, int end) {
+		long h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + key.get(i);
+		}
+		return (int) OffHeapLongIntMap.mix(h);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+
+import org.eclipse.collections.api.block.procedure.primitive.LongIntProcedure;
+
+/**
+ * An open addressing hash map from non negative long keys to int values, with
+ * its keys and values in buffers from an {@link OffHeapAllocator}. Missing keys
+ * have the value 0.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class OffHeapLongIntMap {
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final long MAX_CAPACITY = 1L << 40;
+	private final OffHeapAllocator allocator;
+	// Keys are stored plus one, so that 0 marks a free slot.
+	private OffHeapTable keys;
+	private OffHeapTable values;
+	private long capacity;
+	private long size;
+
+	OffHeapLongIntMap(OffHeapAllocator allocator) {
+		this.allocator = allocator;
+	}
+
+	private OffHeapLongIntMap(OffHeapAllocator allocator, OffHeapTable keys, OffHeapTable values, long capacity,
+			long size) {
+		this(allocator);
+		this.keys = keys;
+		this.values = values;
+		this.capacity = capacity;
+		this.size = size;
+	}
+
+	void writeTo(NodeLengthsSidecar sidecar) throws IOException {
+		sidecar.writeLong(capacity);
+		sidecar.writeLong(size);
+		if (capacity > 0) {
+			keys.writeTo(sidecar);
+			values.writeTo(sidecar);
+		}
+	}
+
+	/**
+	 * @return a read only map of what {@link #writeTo(NodeLengthsSidecar)} saved
+	 */
+	static OffHeapLongIntMap mapFrom(NodeLengthsSidecar sidecar, OffHeapAllocator allocator) throws IOException {
+		long capacity = sidecar.readLong();
+		long size = sidecar.readLong();
+		if (capacity == 0) {
+			return new OffHeapLongIntMap(allocator);
+		}
+		OffHeapTable keys = OffHeapTable.mapFrom(sidecar, capacity, Long.BYTES);
+		OffHeapTable values = OffHeapTable.mapFrom(sidecar, capacity, Integer.BYTES);
+		return new OffHeapLongIntMap(allocator, keys, values, capacity, size);
+	}
+
+	void put(long key, int value) {
+		if (size >= capacity - (capacity >>> 2)) {
+			grow();
+		}
+		long slot = slot(key);
+		if (keys.getLong(slot, 0) == 0) {
+			keys.putLong(slot, 0, key + 1);
+			size++;
+		}
+		values.putInt(slot, 0, value);
+	}
+
+	/**
+	 * Hand the tables back to the allocator, the map is empty afterwards.
+	 */
+	void release() {
+		if (keys != null) {
+			keys.release(allocator);
+			values.release(allocator);
+		}
+		keys = null;
+		values = null;
+		capacity = 0;
+		size = 0;
+	}
+
+	int get(long key) {
+		if (size == 0) {
+			return 0;
+		}
+		return values.getInt(slot(key), 0);
+	}
+
+	long size() {
+		return size;
+	}
+
+	void forEachKeyValue(LongIntProcedure procedure) {
+		for (long slot = 0; slot < capacity; slot++) {
+			long stored = keys.getLong(slot, 0);
+			if (stored != 0) {
+				procedure.value(stored - 1, values.getInt(slot, 0));
+			}
+		}
+	}
+
+	/**
+	 * @return the slot holding the key, or the free slot where it belongs
+	 */
+	private long slot(long key) {
+		long stored = key + 1;
+		long mask = capacity - 1;
+		long slot = mix(key) & mask;
+		long atSlot;
+		while ((atSlot = keys.getLong(slot, 0)) != 0 && atSlot != stored) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		if (capacity == MAX_CAPACITY) {
+			throw new IllegalStateException("More than " + (MAX_CAPACITY - (MAX_CAPACITY >>> 2)) + " node ids");
+		}
+		OffHeapTable oldKeys = keys;
+		OffHeapTable oldValues = values;
+		long oldCapacity = capacity;
+		capacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+		keys = OffHeapTable.allocate(allocator, capacity, Long.BYTES);
+		values = OffHeapTable.allocate(allocator, capacity, Integer.BYTES);
+		size = 0;
+		for (long slot = 0; slot < oldCapacity; slot++) {
+			long stored = oldKeys.getLong(slot, 0);
+			if (stored != 0) {
+				put(stored - 1, oldValues.getInt(slot, 0));
+			}
+		}
+		if (oldKeys != null) {
+			oldKeys.release(allocator);
+			oldValues.release(allocator);
+		}
+	}
+
+	/**
+	 * The murmur3 finalizer, consecutive ids should not end up in consecutive
+	 * slots.
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
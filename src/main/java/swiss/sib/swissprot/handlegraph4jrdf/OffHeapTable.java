@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A table of fixed size slots, indexed by a long, split over pages of at most
+ * {@value #MAX_PAGE_BYTES} bytes, as a single buffer can not hold more than 2GB.
+ * Each page holds a power of two number of slots, so finding a slot is a shift
+ * and a mask.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class OffHeapTable {
+	static final int MAX_PAGE_BYTES = 1 << 30;
+	private final ByteBuffer[] pages;
+	private final int slotBytes;
+	private final int pageShift;
+	private final long pageMask;
+
+	private OffHeapTable(ByteBuffer[] pages, int slotBytes, int pageShift) {
+		this.pages = pages;
+		this.slotBytes = slotBytes;
+		this.pageShift = pageShift;
+		this.pageMask = (1L << pageShift) - 1;
+	}
+
+	/**
+	 * @param slots     a power of two
+	 * @param slotBytes the size of a slot, at most {@value #MAX_PAGE_BYTES}
+	 * @return a zeroed table
+	 */
+	static OffHeapTable allocate(OffHeapAllocator allocator, long slots, int slotBytes) {
+		return allocate(allocator, slots, slotBytes, MAX_PAGE_BYTES);
+	}
+
+	/**
+	 * @param maxPageBytes the most bytes per page
+	 */
+	static OffHeapTable allocate(OffHeapAllocator allocator, long slots, int slotBytes, int maxPageBytes) {
+		int pageShift = pageShift(slots, slotBytes, maxPageBytes);
+		ByteBuffer[] pages = new ByteBuffer[(int) (slots >>> pageShift)];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = allocator.allocate(slotBytes << pageShift);
+		}
+		return new OffHeapTable(pages, slotBytes, pageShift);
+	}
+
+	/**
+	 * @return a read only table of what {@link #writeTo(NodeLengthsSidecar)}
+	 *         saved
+	 */
+	static OffHeapTable mapFrom(NodeLengthsSidecar sidecar, long slots, int slotBytes) throws IOException {
+		int pageShift = pageShift(slots, slotBytes, MAX_PAGE_BYTES);
+		ByteBuffer[] pages = new ByteBuffer[(int) (slots >>> pageShift)];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = sidecar.map(slotBytes << pageShift);
+		}
+		return new OffHeapTable(pages, slotBytes, pageShift);
+	}
+
+	/**
+	 * The smallest of the slot count and the most slots a page can hold.
+	 */
+	private static int pageShift(long slots, int slotBytes, int maxPageBytes) {
+		int shift = Long.numberOfTrailingZeros(slots);
+		while ((long) slotBytes << shift > maxPageBytes) {
+			shift--;
+		}
+		return shift;
+	}
+
+	/**
+	 * Write the pages one after the other, as if they were one buffer.
+	 */
+	void writeTo(NodeLengthsSidecar sidecar) throws IOException {
+		for (ByteBuffer page : pages) {
+			sidecar.write(page, page.capacity());
+		}
+	}
+
+	int pages() {
+		return pages.length;
+	}
+
+	void release(OffHeapAllocator allocator) {
+		for (ByteBuffer page : pages) {
+			allocator.release(page);
+		}
+	}
+
+	long getLong(long slot, int field) {
+		return pages[(int) (slot >>> pageShift)].getLong(offset(slot, field));
+	}
+
+	int getInt(long slot, int field) {
+		return pages[(int) (slot >>> pageShift)].getInt(offset(slot, field));
+	}
+
+	void putLong(long slot, int field, long value) {
+		pages[(int) (slot >>> pageShift)].putLong(offset(slot, field), value);
+	}
+
+	void putInt(long slot, int field, int value) {
+		pages[(int) (slot >>> pageShift)].putInt(offset(slot, field), value);
+	}
+
+	/**
+	 * @param field the byte offset within the slot
+	 */
+	private int offset(long slot, int field) {
+		return (int) (slot & pageMask) * slotBytes + field;
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+
+/**
+ * Converts the segment and link lines of a memory mapped GFA1 file in
+ * parallel. The file is cut into byte ranges, each range starts at the first
+ * line beginning in it. Every range is converted by its own worker into its
+ * own buffer of N-Triples, the buffers are written out in input order. Only a
+ * bounded number of ranges is in flight at once, as each holds all of its
+ * N-Triples in memory until it is written.
+ *
+ * Path lines depend on the length of all nodes, so the workers only note
+ * where they start. Once all ranges are done the paths are converted in input
+ * order. The output thus contains all segments and links before all paths,
+ * which is the only difference with the sequential conversion.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class ParallelRangeConverter {
+	static final long DEFAULT_RANGE_SIZE = 16 * 1024 * 1024;
+
+	private final int threads;
+	private final long rangeSize;
+	private final int inFlight;
+	private final String base;
+	private final boolean preCompress;
+	private final boolean extra;
+	private final NodeLengths nodeLengths;
+	private final ConversionMetrics metrics;
+	private Projection projection = Projection.ALL;
+
+	/**
+	 * @param threads     the number of workers
+	 * @param rangeSize   the number of input bytes per range
+	 * @param inFlight    the number of ranges converted or waiting to be
+	 *                    written at once
+	 * @param base        the base IRI of the graph
+	 * @param preCompress leave out the inferable triples
+	 * @param extra       write the FALDO positions of each step
+	 * @param nodeLengths receives the lengths of all nodes, the lengths seen
+	 *                    by each range are kept within the budget of its
+	 *                    allocator
+	 * @param metrics     counts the lines read and the triples written
+	 */
+	ParallelRangeConverter(int threads, long rangeSize, int inFlight, String base, boolean preCompress,
+			boolean extra, NodeLengths nodeLengths, ConversionMetrics metrics) {
+		this.threads = threads;
+		this.rangeSize = rangeSize;
+		this.inFlight = inFlight;
+		this.base = base;
+		this.preCompress = preCompress;
+		this.extra = extra;
+		this.nodeLengths = nodeLengths;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Convert only what the projection asks for.
+	 *
+	 * @return this converter
+	 */
+	ParallelRangeConverter projection(Projection projection) {
+		this.projection = projection;
+		return this;
+	}
+
+	/**
+	 * The result of converting one range.
+	 */
+	private static final class Range {
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private final LongArrayList pathLines = new LongArrayList();
+		private final NodeLengths nodeLengths;
+
+		private Range(OffHeapAllocator allocator) {
+			this.nodeLengths = new NodeLengths(allocator);
+		}
+	}
+
+	void convert(MappedGFAReader reader, OutputStream out) throws IOException {
+		long size = reader.size();
+		long ranges = (size + rangeSize - 1) / rangeSize;
+		LongArrayList pathLines = new LongArrayList();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Deque<Future<Range>> pending = new ArrayDeque<>();
+			long next = 0;
+			while (next < ranges || !pending.isEmpty()) {
+				while (next < ranges && pending.size() < inFlight) {
+					long from = next * rangeSize;
+					long to = Math.min(size, from + rangeSize);
+					pending.add(executor.submit(() -> convertRange(reader, from, to)));
+					next++;
+				}
+				Range range = get(pending.poll());
+				range.output.writeTo(out);
+				pathLines.addAll(range.pathLines);
+				nodeLengths.putAll(range.nodeLengths);
+				range.nodeLengths.release();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		try (DirectNTriplesWriter writer = new DirectNTriplesWriter(out, base, preCompress, extra, metrics)) {
+			ByteRecordParser parser = new ByteRecordParser(writer, nodeLengths, extra, base, metrics)
+					.projection(projection);
+			for (int i = 0; i < pathLines.size(); i++) {
+				long pathLine = pathLines.get(i);
+				reader.forEachLine(pathLine, pathLine + 1, (line, lineStart, lineEnd) -> {
+					metrics.inputBytes(lineEnd - lineStart + 1);
+					parser.accept(line, lineStart, lineEnd);
+				});
+			}
+		}
+	}
+
+	private Range convertRange(MappedGFAReader reader, long from, long to) throws IOException {
+		Range range = new Range(nodeLengths.allocator());
+		long start = reader.lineStartAtOrAfter(from);
+		if (start < to) {
+			try (DirectNTriplesWriter writer = new DirectNTriplesWriter(range.output, base, preCompress, extra,
+					metrics)) {
+				ByteRecordParser parser = new ByteRecordParser(writer, range.nodeLengths, extra, base, metrics)
+						.projection(projection);
+				reader.forEachLine(start, to, (lineOffset, line, lineStart, lineEnd) -> {
+					if (lineEnd - lineStart >= 2 && line.get(lineStart) == 'P' && line.get(lineStart + 1) == '\t'
+							&& projection.converts(Projection.RecordType.PATHS)) {
+						// Counted as read once the path is converted.
+						range.pathLines.add(lineOffset);
+					} else {
+						metrics.inputBytes(lineEnd - lineStart + 1);
+						parser.accept(line, lineStart, lineEnd);
+					}
+				});
+			}
+		}
+		return range;
+	}
+
+	private static Range get(Future<Range> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts a GFA input in four stages that each run on their own thread:
+ * reading line aligned blocks, tokenizing them into records, mapping the
+ * records to RDF and writing the result. The stages are connected by bounded
+ * queues of whole blocks, a full queue blocks its producer so a slow stage
+ * holds back the ones before it.
+ * <p>
+ * Each block holds complete lines, so a path line must fit in memory. Use
+ * --stream for graphs with path lines that do not.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class PipelinedConverter {
+	static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+	static final int DEFAULT_QUEUE_DEPTH = 8;
+
+	/**
+	 * Maps the records of a block to the RDF of that block.
+	 */
+	@FunctionalInterface
+	interface Mapper<T> {
+		T map(RecordBlock block) throws IOException;
+	}
+
+	/**
+	 * Writes the mapped RDF of a block.
+	 */
+	@FunctionalInterface
+	interface Writer<T> {
+		void write(T mapped) throws IOException;
+	}
+
+	private final ThreadFactory threadFactory;
+	private final int blockSize;
+	private final int queueDepth;
+	private final NodeLengths nodeLengths;
+	private final boolean extra;
+	private final String base;
+	private final ConversionMetrics metrics;
+	private Projection projection = Projection.ALL;
+	private final StageQueue<RecordBlock> read;
+	private final StageQueue<RecordBlock> parsed;
+
+	/**
+	 * @param virtualThreads run the stages on virtual threads, if the JVM has them
+	 * @param blockSize      the number of bytes read at once, grown for longer
+	 *                       lines
+	 * @param queueDepth     the number of blocks that can wait between two stages
+	 * @param nodeLengths    filled from the segments and used for the step
+	 *                       positions when extra is true
+	 * @param extra          calculate the positions of each step
+	 * @param base           the base IRI of the graph
+	 * @param metrics        counts the lines by record type
+	 */
+	PipelinedConverter(boolean virtualThreads, int blockSize, int queueDepth, NodeLengths nodeLengths, boolean extra,
+			String base, ConversionMetrics metrics) {
+		this.threadFactory = virtualThreads ? virtualThreadFactory() : platformThreadFactory();
+		this.blockSize = blockSize;
+		this.queueDepth = queueDepth;
+		this.nodeLengths = nodeLengths;
+		this.extra = extra;
+		this.base = base;
+		this.metrics = metrics;
+		this.read = new StageQueue<>("read -> parse", queueDepth);
+		this.parsed = new StageQueue<>("parse -> map", queueDepth);
+	}
+
+	/**
+	 * Tokenize only what the projection asks for.
+	 *
+	 * @return this converter
+	 */
+	PipelinedConverter projection(Projection projection) {
+		this.projection = projection;
+		return this;
+	}
+
+	/**
+	 * Convert all of the input, returns once everything is written.
+	 */
+	<T> void convert(InputStream in, Mapper<T> mapper, Writer<T> writer) throws IOException {
+		StageQueue<T> mapped = new StageQueue<>("map -> write", queueDepth);
+		ExecutorService executor = Executors.newFixedThreadPool(4, threadFactory);
+		CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+		try {
+			stages.submit(() -> readBlocks(in));
+			stages.submit(this::parseBlocks);
+			stages.submit(() -> mapBlocks(mapper, mapped));
+			stages.submit(() -> writeBlocks(writer, mapped));
+			for (int i = 0; i < 4; i++) {
+				stages.take().get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while converting", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			// Stops the other stages if one failed.
+			executor.shutdownNow();
+		}
+		read.reportTo(metrics);
+		parsed.reportTo(metrics);
+		mapped.reportTo(metrics);
+	}
+
+	private Void readBlocks(InputStream in) throws IOException, InterruptedException {
+		byte[] block = new byte[blockSize];
+		int filled = 0;
+		while (true) {
+			int read = in.readNBytes(block, filled, block.length - filled);
+			filled += read;
+			if (filled < block.length) {
+				// End of the input.
+				if (filled > 0) {
+					this.read.put(new RecordBlock(block, filled));
+				}
+				this.read.close();
+				return null;
+			}
+			int lastLineEnd = filled - 1;
+			while (lastLineEnd >= 0 && block[lastLineEnd] != '\n') {
+				lastLineEnd--;
+			}
+			if (lastLineEnd < 0) {
+				// A single line is longer than the block.
+				byte[] larger = new byte[block.length * 2];
+				System.arraycopy(block, 0, larger, 0, filled);
+				block = larger;
+			} else {
+				byte[] next = new byte[blockSize];
+				int rest = filled - lastLineEnd - 1;
+				if (rest > next.length) {
+					next = new byte[rest * 2];
+				}
+				System.arraycopy(block, lastLineEnd + 1, next, 0, rest);
+				this.read.put(new RecordBlock(block, lastLineEnd + 1));
+				block = next;
+				filled = rest;
+			}
+		}
+	}
+
+	private Void parseBlocks() throws InterruptedException {
+		RecordBlock block;
+		while ((block = read.take()) != null) {
+			block.tokenize(new ByteRecordParser(block, nodeLengths, extra, base, metrics).projection(projection));
+			parsed.put(block);
+		}
+		parsed.close();
+		return null;
+	}
+
+	private <T> Void mapBlocks(Mapper<T> mapper, StageQueue<T> mapped) throws IOException, InterruptedException {
+		RecordBlock block;
+		while ((block = parsed.take()) != null) {
+			mapped.put(mapper.map(block));
+		}
+		mapped.close();
+		return null;
+	}
+
+	private <T> Void writeBlocks(Writer<T> writer, StageQueue<T> mapped) throws IOException, InterruptedException {
+		T block;
+		while ((block = mapped.take()) != null) {
+			writer.write(block);
+		}
+		return null;
+	}
+
+	private static ThreadFactory platformThreadFactory() {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, "gfa2rdf-stage-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Virtual threads are looked up reflectively as we compile for Java 17, on
+	 * older JVMs the stages run on platform threads.
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			System.err.println("Virtual threads are not available in this JVM, using platform threads");
+			return platformThreadFactory();
+		}
+	}
+
+	/**
+	 * A bounded queue between two stages that keeps track of how full it was and
+	 * how long its producer and consumer waited on each other. A queue that is
+	 * mostly full with a waiting producer has a slow consumer, a mostly empty one
+	 * with a waiting consumer has a slow producer.
+	 */
+	static final class StageQueue<T> {
+		private static final Object END = new Object();
+		private final String name;
+		private final int capacity;
+		private final ArrayBlockingQueue<Object> queue;
+		private long puts;
+		private long summedDepth;
+		private int maxDepth;
+		private volatile long producerWaitNanos;
+		private volatile long consumerWaitNanos;
+
+		StageQueue(String name, int capacity) {
+			this.name = name;
+			this.capacity = capacity;
+			this.queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		void put(T block) throws InterruptedException {
+			putObject(block);
+		}
+
+		/**
+		 * No more blocks will be put.
+		 */
+		void close() throws InterruptedException {
+			putObject(END);
+		}
+
+		private void putObject(Object block) throws InterruptedException {
+			int depth = queue.size();
+			puts++;
+			summedDepth += depth;
+			maxDepth = Math.max(maxDepth, depth);
+			if (!queue.offer(block)) {
+				long start = System.nanoTime();
+				queue.put(block);
+				producerWaitNanos += System.nanoTime() - start;
+			}
+		}
+
+		/**
+		 * @return the next block or null if the queue was closed
+		 */
+		@SuppressWarnings("unchecked")
+		T take() throws InterruptedException {
+			Object block = queue.poll();
+			if (block == null) {
+				long start = System.nanoTime();
+				block = queue.take();
+				consumerWaitNanos += System.nanoTime() - start;
+			}
+			return block == END ? null : (T) block;
+		}
+
+		/**
+		 * Add the depths and waits of this queue to the metrics report.
+		 */
+		void reportTo(ConversionMetrics metrics) {
+			double meanDepth = puts == 0 ? 0 : (double) summedDepth / puts;
+			metrics.stageQueue(name, meanDepth, maxDepth, capacity, TimeUnit.NANOSECONDS.toMillis(producerWaitNanos),
+					TimeUnit.NANOSECONDS.toMillis(consumerWaitNanos));
+		}
+	}
+}
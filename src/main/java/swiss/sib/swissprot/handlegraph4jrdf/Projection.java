@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Which parts of a GFA1 file are converted. The parser checks it before
+ * tokenizing a line, so that the lines and fields left out are skipped at the
+ * byte level and are never tokenized or decoded.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class Projection {
+	/**
+	 * Convert everything.
+	 */
+	static final Projection ALL = new Projection(EnumSet.allOf(RecordType.class), true, true);
+
+	/**
+	 * The record types that can be selected.
+	 */
+	enum RecordType {
+		/**
+		 * The segment lines.
+		 */
+		NODES,
+		/**
+		 * The link lines.
+		 */
+		LINKS,
+		/**
+		 * The path lines.
+		 */
+		PATHS
+	}
+
+	private final Set<RecordType> types;
+	private final boolean nodes;
+	private final boolean links;
+	private final boolean paths;
+	private final boolean sequences;
+	private final boolean steps;
+
+	private Projection(Set<RecordType> types, boolean sequences, boolean steps) {
+		this.types = types;
+		this.nodes = types.contains(RecordType.NODES);
+		this.links = types.contains(RecordType.LINKS);
+		this.paths = types.contains(RecordType.PATHS);
+		this.sequences = sequences;
+		this.steps = steps;
+	}
+
+	/**
+	 * @param only       the record types to convert, all of them when empty
+	 * @param noSequence leave the sequences out of the nodes
+	 * @param noSteps    leave the steps out of the paths
+	 * @return the projection
+	 */
+	static Projection of(Collection<RecordType> only, boolean noSequence, boolean noSteps) {
+		Set<RecordType> types = only.isEmpty() ? EnumSet.allOf(RecordType.class) : EnumSet.copyOf(only);
+		if (types.size() == RecordType.values().length && !noSequence && !noSteps) {
+			return ALL;
+		}
+		return new Projection(types, !noSequence, !noSteps);
+	}
+
+	/**
+	 * @param code the first byte of a line
+	 * @return if lines with this record type are converted
+	 */
+	boolean converts(byte code) {
+		switch (code) {
+		case 'S':
+			return nodes;
+		case 'L':
+			return links;
+		case 'P':
+			return paths;
+		default:
+			return false;
+		}
+	}
+
+	boolean converts(RecordType type) {
+		return types.contains(type);
+	}
+
+	/**
+	 * @return if the nodes get their sequence as rdf:value
+	 */
+	boolean sequences() {
+		return sequences;
+	}
+
+	/**
+	 * @return if the paths get their steps
+	 */
+	boolean steps() {
+		return steps;
+	}
+
+	boolean isAll() {
+		return this == ALL;
+	}
+
+	@Override
+	public String toString() {
+		return types + (sequences ? "" : " no-sequence") + (steps ? "" : " no-steps");
+	}
+}
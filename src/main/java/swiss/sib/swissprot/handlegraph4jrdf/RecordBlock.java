@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+
+/**
+ * A block of complete GFA1 lines together with the records tokenized from
+ * them. Recording the records as offsets into the block lets the tokenizing
+ * and the mapping to RDF happen on different threads.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class RecordBlock implements RecordSink {
+	private static final int NODE = 0;
+	private static final int LINK = 1;
+	private static final int START_PATH = 2;
+	private static final int STEP = 3;
+	private static final int END_PATH = 4;
+
+	private final byte[] bytes;
+	private final int length;
+	private final IntArrayList records = new IntArrayList();
+	private final LongArrayList stepNumbers = new LongArrayList();
+	private final List<String> pathIRIs = new ArrayList<>();
+
+	/**
+	 * @param bytes  holding only complete lines
+	 * @param length the number of bytes used
+	 */
+	RecordBlock(byte[] bytes, int length) {
+		this.bytes = bytes;
+		this.length = length;
+	}
+
+	/**
+	 * Tokenize all lines of this block with the parser, which should record into
+	 * this block.
+	 */
+	void tokenize(ByteRecordParser parser) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] == '\n') {
+				int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+				parser.accept(buffer, start, end);
+				start = i + 1;
+			}
+		}
+		if (start < length) {
+			parser.accept(buffer, start, length);
+		}
+	}
+
+	/**
+	 * Hand all recorded records to the sink, in order.
+	 */
+	void replay(RecordSink sink) {
+		ByteBuffer line = ByteBuffer.wrap(bytes, 0, length);
+		int step = 0;
+		int path = 0;
+		int i = 0;
+		while (i < records.size()) {
+			switch (records.get(i++)) {
+			case NODE:
+				sink.node(line, records.get(i), records.get(i + 1), records.get(i + 2), records.get(i + 3));
+				i += 4;
+				break;
+			case LINK:
+				sink.link(line, records.get(i), records.get(i + 1), records.get(i + 2) == 1, records.get(i + 3),
+						records.get(i + 4), records.get(i + 5) == 1);
+				i += 6;
+				break;
+			case START_PATH:
+				sink.startPath(pathIRIs.get(path++));
+				break;
+			case STEP:
+				sink.step(stepNumbers.get(step), line, records.get(i), records.get(i + 1), stepNumbers.get(step + 1),
+						stepNumbers.get(step + 2));
+				step += 3;
+				i += 2;
+				break;
+			case END_PATH:
+				sink.endPath();
+				break;
+			default:
+				throw new IllegalStateException("Unknown record type");
+			}
+		}
+	}
+
+	@Override
+	public void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd) {
+		records.addAll(NODE, nameStart, nameEnd, sequenceStart, sequenceEnd);
+	}
+
+	@Override
+	public void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart, int toEnd,
+			boolean reverseOfTo) {
+		records.addAll(LINK, fromStart, fromEnd, reverseOfFrom ? 1 : 0, toStart, toEnd, reverseOfTo ? 1 : 0);
+	}
+
+	@Override
+	public void startPath(String pathIRI) {
+		records.add(START_PATH);
+		pathIRIs.add(pathIRI);
+	}
+
+	@Override
+	public void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end) {
+		records.addAll(STEP, nodeStart, nodeEnd);
+		stepNumbers.addAll(rank, begin, end);
+	}
+
+	@Override
+	public void endPath() {
+		records.add(END_PATH);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the content of GFA1 records as slices of the input bytes. The
+ * slices are only valid during the call, implementations must copy what they
+ * want to keep.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+interface RecordSink {
+	/**
+	 * The sequence start and end of a node whose sequence is not converted.
+	 */
+	int NO_SEQUENCE = -1;
+
+	/**
+	 * A segment line.
+	 *
+	 * @param line          the bytes containing the line
+	 * @param nameStart     index of the first byte of the segment name
+	 * @param nameEnd       index after the last byte of the segment name
+	 * @param sequenceStart index of the first byte of the sequence, or
+	 *                      {@link #NO_SEQUENCE}
+	 * @param sequenceEnd   index after the last byte of the sequence, or
+	 *                      {@link #NO_SEQUENCE}
+	 */
+	void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd);
+
+	/**
+	 * @return if the sequence of a node may be handed over in pieces, through
+	 *         {@link #startNode}, {@link #sequence} and {@link #endNode}, so that
+	 *         it never needs to be in memory as a whole
+	 */
+	default boolean streamsSequences() {
+		return false;
+	}
+
+	/**
+	 * The start of a segment line whose sequence follows in pieces.
+	 */
+	default void startNode(ByteBuffer line, int nameStart, int nameEnd) {
+		throw new UnsupportedOperationException("The sequences of nodes can not be streamed to " + getClass());
+	}
+
+	/**
+	 * The next piece of the sequence of the current node.
+	 *
+	 * @param start index of the first byte of the piece
+	 * @param end   index after the last byte of the piece
+	 */
+	default void sequence(ByteBuffer line, int start, int end) {
+		throw new UnsupportedOperationException("The sequences of nodes can not be streamed to " + getClass());
+	}
+
+	/**
+	 * All of the sequence of the current node has been given.
+	 */
+	default void endNode() {
+		throw new UnsupportedOperationException("The sequences of nodes can not be streamed to " + getClass());
+	}
+
+	/**
+	 * A link line.
+	 */
+	void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart, int toEnd,
+			boolean reverseOfTo);
+
+	/**
+	 * The start of a path line, followed by its steps.
+	 *
+	 * @param pathIRI the full IRI of the path
+	 */
+	void startPath(String pathIRI);
+
+	/**
+	 * A step of the current path.
+	 *
+	 * @param rank      of the step in the path
+	 * @param line      the bytes containing the node id
+	 * @param nodeStart index of the first byte of the node id
+	 * @param nodeEnd   index after the last byte of the node id
+	 * @param begin     first position of this step on the path, only meaningful
+	 *                  when extra positions are requested
+	 * @param end       position after the last of this step
+	 */
+	void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end);
+
+	/**
+	 * All steps of the current path have been given.
+	 */
+	default void endPath() {
+
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A first pass over a GFA file that only reads the names and sequence lengths
+ * of the segment lines. All other lines are skipped without being tokenized, so
+ * path lines of any length cost no more than finding their end.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class SegmentScanner {
+	private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+	private static final int LINE_START = 0;
+	private static final int AFTER_S = 1;
+	private static final int NAME = 2;
+	private static final int SEQUENCE = 3;
+	private static final int SKIP = 4;
+
+	private SegmentScanner() {
+
+	}
+
+	/**
+	 * Put the length of every segment of the input into the node lengths.
+	 *
+	 * @return the number of segments
+	 */
+	static long scan(ReadableByteChannel in, NodeLengths lengths) throws IOException {
+		return scan(in, Long.MAX_VALUE, lengths);
+	}
+
+	/**
+	 * Put the length of every segment in the first bytes of the input into the
+	 * node lengths.
+	 *
+	 * @param length the number of bytes to scan, ending at the start of a line
+	 * @return the number of segments
+	 */
+	static long scan(ReadableByteChannel in, long length, NodeLengths lengths) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		byte[] name = new byte[64];
+		int nameLength = 0;
+		int sequenceLength = 0;
+		int state = LINE_START;
+		long segments = 0;
+		long remaining = length;
+		while (remaining > 0) {
+			buffer.limit((int) Math.min(buffer.capacity(), remaining));
+			int read = in.read(buffer);
+			if (read < 0) {
+				break;
+			}
+			remaining -= read;
+			buffer.flip();
+			int limit = buffer.limit();
+			for (int i = 0; i < limit; i++) {
+				byte b = buffer.get(i);
+				switch (state) {
+				case LINE_START:
+					state = b == 'S' ? AFTER_S : b == '\n' ? LINE_START : SKIP;
+					break;
+				case AFTER_S:
+					state = b == '\t' ? NAME : b == '\n' ? LINE_START : SKIP;
+					nameLength = 0;
+					break;
+				case NAME:
+					if (b == '\t') {
+						sequenceLength = 0;
+						state = SEQUENCE;
+					} else if (b == '\n') {
+						state = LINE_START;
+					} else {
+						if (nameLength == name.length) {
+							name = Arrays.copyOf(name, name.length * 2);
+						}
+						name[nameLength++] = b;
+					}
+					break;
+				case SEQUENCE:
+					if (b == '\t' || b == '\n') {
+						lengths.put(ByteBuffer.wrap(name), 0, nameLength, sequenceLength);
+						segments++;
+						state = b == '\n' ? LINE_START : SKIP;
+					} else if (b != '\r') {
+						sequenceLength++;
+					}
+					break;
+				default:
+					// Skipping the rest of a line, find its end in a tight loop.
+					while (i < limit && buffer.get(i) != '\n') {
+						i++;
+					}
+					if (i < limit) {
+						state = LINE_START;
+					}
+					break;
+				}
+			}
+			buffer.clear();
+		}
+		if (state == SEQUENCE) {
+			// The last line has no line terminator.
+			lengths.put(ByteBuffer.wrap(name), 0, nameLength, sequenceLength);
+			segments++;
+		}
+		return segments;
+	}
+}
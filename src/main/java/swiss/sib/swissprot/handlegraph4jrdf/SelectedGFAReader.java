@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Reads only the selected records of a memory mapped GFA file, found through
+ * its {@link GFAIndex}: the segments with a numeric id in a node range, the
+ * links between them, and the paths with the selected names. Segments and
+ * links come first and paths after, each in the order of the file.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class SelectedGFAReader implements ByteInput {
+	private final MappedGFAReader reader;
+	private final GFAIndex index;
+	private final List<String> paths;
+	private final long firstNode;
+	private final long lastNode;
+
+	/**
+	 * @param paths     the names of the paths to read, a name given twice is
+	 *                  read once
+	 * @param nodeRange the first and last id of the nodes to read, or null for
+	 *                  none
+	 */
+	SelectedGFAReader(MappedGFAReader reader, GFAIndex index, List<String> paths, long[] nodeRange) {
+		this.reader = reader;
+		this.index = index;
+		this.paths = List.copyOf(new LinkedHashSet<>(paths));
+		this.firstNode = nodeRange == null ? 1 : nodeRange[0];
+		this.lastNode = nodeRange == null ? 0 : nodeRange[1];
+	}
+
+	/**
+	 * @param range two node ids separated by a dash, e.g. 100-200
+	 * @return the first and the last node id of the range
+	 */
+	static long[] parseNodeRange(String range) {
+		int dash = range.indexOf('-');
+		try {
+			long first = Long.parseLong(range.substring(0, dash));
+			long last = Long.parseLong(range.substring(dash + 1));
+			if (first >= 0 && first <= last) {
+				return new long[] { first, last };
+			}
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			// Reported below.
+		}
+		throw new IllegalArgumentException("A node range is two node ids, the first not larger than the last, "
+				+ "e.g. 100-200, not " + range);
+	}
+
+	@Override
+	public void parse(ByteRecordParser parser) throws IOException {
+		if (firstNode <= lastNode) {
+			for (GFAIndex.Chunk chunk : index.chunks()) {
+				if (chunk.mayContain(firstNode, lastNode)) {
+					reader.forEachLine(chunk.from, chunk.to, (line, start, end) -> {
+						if (inNodeRange(line, start, end)) {
+							parser.consumed(end - start + 1);
+							parser.accept(line, start, end);
+						}
+					});
+				}
+			}
+		}
+		long[] offsets = new long[paths.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = index.pathOffset(paths.get(i));
+			if (offsets[i] < 0) {
+				throw new IllegalArgumentException("There is no path named " + paths.get(i));
+			}
+		}
+		Arrays.sort(offsets);
+		for (long offset : offsets) {
+			reader.forEachLine(offset, offset + 1, (line, start, end) -> {
+				parser.consumed(end - start + 1);
+				parser.accept(line, start, end);
+			});
+		}
+	}
+
+	/**
+	 * @return if the line is a segment in the node range, or a link between two
+	 *         such segments
+	 */
+	private boolean inNodeRange(ByteBuffer line, int start, int end) {
+		if (end - start < 2 || line.get(start + 1) != '\t') {
+			return false;
+		}
+		int nameEnd = nextField(line, start + 2, end);
+		if (!inNodeRange(NodeLengths.parseId(line, start + 2, nameEnd))) {
+			return false;
+		} else if (line.get(start) == 'S') {
+			return true;
+		} else if (line.get(start) == 'L') {
+			int toStart = nextField(line, nameEnd + 1, end) + 1;
+			return toStart < end && inNodeRange(NodeLengths.parseId(line, toStart, nextField(line, toStart, end)));
+		}
+		return false;
+	}
+
+	private boolean inNodeRange(long id) {
+		return id >= firstNode && id <= lastNode;
+	}
+
+	private static int nextField(ByteBuffer line, int from, int end) {
+		for (int i = from; i < end; i++) {
+			if (line.get(i) == '\t') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
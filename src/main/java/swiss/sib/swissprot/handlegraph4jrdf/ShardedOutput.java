@@ -0,0 +1,390 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Writes the RDF of a GFA file as several shards, which bulk loaders can read
+ * in parallel. Records can be split by their type, nodes, links and paths, and
+ * further with every path in its own shards. A shard that reaches the maximum
+ * size is closed and the next record goes into a new one, paths are split
+ * between steps. The size is counted as the writers hand on their bytes, so a
+ * shard can be larger by a record and the buffer of its writer.
+ * <p>
+ * Every shard is a complete file of its own, with its own prefixes, and
+ * declares the path whose steps it contains. A JSON manifest next to the
+ * shards lists them in order with the number of triples in each.
+ * <p>
+ * The shards of an output {@code graph.ttl.gz} are called
+ * {@code graph.nodes-00001.ttl.gz}, {@code graph.links-00001.ttl.gz},
+ * {@code graph.paths-00001.ttl.gz} or {@code graph.path-7-00001.ttl.gz} for the
+ * seventh path, and the manifest {@code graph.manifest.json}.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class ShardedOutput implements RecordSink, AutoCloseable {
+
+	/**
+	 * How the records are divided over the shards.
+	 */
+	enum SplitBy {
+		/**
+		 * All records go into the same shards, only split by size.
+		 */
+		NONE,
+		/**
+		 * Nodes, links and paths go into their own shards.
+		 */
+		TYPE,
+		/**
+		 * Nodes and links go into their own shards, and every path into its own.
+		 */
+		PATH
+	}
+
+	/**
+	 * Converts the records of one shard.
+	 */
+	static final class ShardWriter {
+		private final RecordSink sink;
+		private final LongSupplier triples;
+		private final Runnable finish;
+
+		/**
+		 * @param sink    converts the records into the shard
+		 * @param triples the number of triples converted so far
+		 * @param finish  writes out everything, without closing the stream
+		 */
+		ShardWriter(RecordSink sink, LongSupplier triples, Runnable finish) {
+			this.sink = sink;
+			this.triples = triples;
+			this.finish = finish;
+		}
+	}
+
+	/**
+	 * Opens the streams and writers of new shards.
+	 */
+	interface Shards {
+		/**
+		 * @return the output stream of a new shard file
+		 */
+		OutputStream create(Path file) throws IOException;
+
+		/**
+		 * @return a writer that converts records into the shard's stream
+		 */
+		ShardWriter writer(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * An open shard.
+	 */
+	private final class Shard {
+		private final Path file;
+		private final String records;
+		private final String pathIRI;
+		private final CountingStream out;
+		private final ShardWriter writer;
+
+		private Shard(Path file, String records, String pathIRI) throws IOException {
+			this.file = file;
+			this.records = records;
+			this.pathIRI = pathIRI;
+			this.out = new CountingStream(shards.create(file));
+			this.writer = shards.writer(out);
+		}
+
+		private boolean isFull() {
+			return maxBytes > 0 && out.count >= maxBytes;
+		}
+
+		private void close() throws IOException {
+			writer.finish.run();
+			out.close();
+			manifest.add(String.format(Locale.ROOT,
+					"    {\"file\": \"%s\", \"records\": \"%s\", %s\"triples\": %d, \"bytes\": %d}",
+					json(file.getFileName().toString()), records,
+					pathIRI == null ? "" : "\"path\": \"" + json(pathIRI) + "\", ", writer.triples.getAsLong(),
+					out.count));
+			totalTriples += writer.triples.getAsLong();
+		}
+	}
+
+	private final Path directory;
+	private final String name;
+	private final String extension;
+	private final SplitBy splitBy;
+	private final long maxBytes;
+	private final Shards shards;
+	private final List<String> manifest = new ArrayList<>();
+	private final int[] shardNumbers = new int[3];
+	private Shard nodes;
+	private Shard links;
+	private Shard paths;
+	private String pathIRI;
+	private int pathNumber;
+	private long totalTriples;
+
+	/**
+	 * @param output   the output file the shard names are derived from
+	 * @param splitBy  how to divide the records over the shards
+	 * @param maxBytes the size of the uncompressed RDF at which a shard is
+	 *                 closed, 0 for no limit
+	 * @param shards   creates the shard files and their writers
+	 */
+	ShardedOutput(Path output, SplitBy splitBy, long maxBytes, Shards shards) {
+		Path absolute = output.toAbsolutePath();
+		this.directory = absolute.getParent();
+		String fileName = absolute.getFileName().toString();
+		int dot = extensionStart(fileName);
+		this.name = fileName.substring(0, dot);
+		this.extension = fileName.substring(dot);
+		this.splitBy = splitBy;
+		this.maxBytes = maxBytes;
+		this.shards = shards;
+	}
+
+	/**
+	 * The extension is the last one, plus the one before a compression
+	 * extension.
+	 */
+	private static int extensionStart(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		if (dot <= 0) {
+			return fileName.length();
+		}
+		String last = fileName.substring(dot);
+		if (last.equals(".gz") || last.equals(".bgz") || last.equals(".zst") || last.equals(".zstd")) {
+			int previous = fileName.lastIndexOf('.', dot - 1);
+			if (previous > 0) {
+				return previous;
+			}
+		}
+		return dot;
+	}
+
+	@Override
+	public void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd) {
+		nodes = open(nodes, 0, "nodes");
+		nodes.writer.sink.node(line, nameStart, nameEnd, sequenceStart, sequenceEnd);
+		nodes = closeIfFull(nodes);
+	}
+
+	/**
+	 * Asked when a node follows, so its shard is opened to ask the writer.
+	 */
+	@Override
+	public boolean streamsSequences() {
+		nodes = open(nodes, 0, "nodes");
+		return nodes.writer.sink.streamsSequences();
+	}
+
+	@Override
+	public void startNode(ByteBuffer line, int nameStart, int nameEnd) {
+		nodes = open(nodes, 0, "nodes");
+		nodes.writer.sink.startNode(line, nameStart, nameEnd);
+	}
+
+	@Override
+	public void sequence(ByteBuffer line, int start, int end) {
+		nodes.writer.sink.sequence(line, start, end);
+	}
+
+	@Override
+	public void endNode() {
+		nodes.writer.sink.endNode();
+		nodes = closeIfFull(nodes);
+	}
+
+	@Override
+	public void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart, int toEnd,
+			boolean reverseOfTo) {
+		links = open(links, 1, "links");
+		links.writer.sink.link(line, fromStart, fromEnd, reverseOfFrom, toStart, toEnd, reverseOfTo);
+		links = closeIfFull(links);
+	}
+
+	@Override
+	public void startPath(String pathIRI) {
+		this.pathIRI = pathIRI;
+		pathNumber++;
+		if (splitBy == SplitBy.PATH) {
+			shardNumbers[2] = 0;
+			paths = close(paths);
+		}
+		paths = open(paths, 2, "paths");
+		paths.writer.sink.startPath(pathIRI);
+	}
+
+	@Override
+	public void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end) {
+		if (paths.isFull()) {
+			// Continue the path in a new shard, which declares it again.
+			paths.writer.sink.endPath();
+			paths = close(paths);
+			paths = open(paths, 2, "paths");
+			paths.writer.sink.startPath(pathIRI);
+		}
+		paths.writer.sink.step(rank, line, nodeStart, nodeEnd, begin, end);
+	}
+
+	@Override
+	public void endPath() {
+		paths.writer.sink.endPath();
+		paths = closeIfFull(paths);
+	}
+
+	/**
+	 * @return the open shard for the records, a new one if there is none
+	 */
+	private Shard open(Shard shard, int type, String records) {
+		if (shard != null) {
+			return shard;
+		}
+		String kind;
+		if (splitBy == SplitBy.NONE) {
+			// All records share the same shards.
+			type = 0;
+			records = "all";
+			kind = "";
+		} else if (splitBy == SplitBy.PATH && type == 2) {
+			kind = "path-" + pathNumber + "-";
+		} else {
+			kind = records + "-";
+		}
+		Path file = directory.resolve(
+				String.format(Locale.ROOT, "%s.%s%05d%s", name, kind, ++shardNumbers[type], extension));
+		try {
+			Shard opened = new Shard(file, records, type == 2 && splitBy == SplitBy.PATH ? pathIRI : null);
+			if (splitBy == SplitBy.NONE) {
+				nodes = links = paths = opened;
+			}
+			return opened;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Shard closeIfFull(Shard shard) {
+		if (shard.isFull()) {
+			return close(shard);
+		}
+		return shard;
+	}
+
+	/**
+	 * @return null, as the shard is closed
+	 */
+	private Shard close(Shard shard) {
+		if (shard != null) {
+			try {
+				shard.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (splitBy == SplitBy.NONE) {
+				nodes = links = paths = null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Close all open shards and write the manifest.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (splitBy == SplitBy.NONE) {
+			close(nodes);
+		} else {
+			nodes = close(nodes);
+			links = close(links);
+			paths = close(paths);
+		}
+		Path manifestFile = directory.resolve(name + ".manifest.json");
+		try (PrintStream out = new PrintStream(Files.newOutputStream(manifestFile), false, StandardCharsets.UTF_8)) {
+			out.println("{");
+			out.printf("  \"splitBy\": \"%s\",%n", splitBy);
+			out.printf("  \"maxBytes\": %d,%n", maxBytes);
+			out.printf("  \"triples\": %d,%n", totalTriples);
+			out.println("  \"shards\": [");
+			for (int i = 0; i < manifest.size(); i++) {
+				out.println(manifest.get(i) + (i + 1 < manifest.size() ? "," : ""));
+			}
+			out.println("  ]");
+			out.println("}");
+		}
+	}
+
+	private static String json(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Counts the uncompressed bytes written into a shard.
+	 */
+	private static final class CountingStream extends OutputStream {
+		private final OutputStream out;
+		private long count;
+
+		private CountingStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.rio.RDFHandler;
+
+/**
+ * Loads the statements of a conversion straight into a store, without writing
+ * and parsing them again as text. Statements are handed over in batches, and
+ * committed in transactions of many batches. A store that can build its
+ * secondary indexes after a bulk load is asked to drop them before the first
+ * statement and to build them after the last commit, or after a failed load.
+ * Give it to {@link GFAConverter#load(java.io.InputStream, StoreLoader)}.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public final class StoreLoader implements RDFHandler {
+	/**
+	 * The number of statements handed to the store at once, by default.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 10_000;
+	/**
+	 * The number of statements per transaction, by default.
+	 */
+	public static final long DEFAULT_COMMIT_SIZE = 1_000_000;
+
+	/**
+	 * What loading needs of a store, the parts of an RDF4J
+	 * {@code RepositoryConnection} it uses. {@link EmbeddedStore} implements it
+	 * for a native or LMDB store in a local directory.
+	 */
+	public interface Store {
+		void begin();
+
+		/**
+		 * Add a batch of statements to the current transaction. The list is not
+		 * reused by the loader, it may be kept.
+		 */
+		void add(List<Statement> statements);
+
+		void commit();
+
+		void rollback();
+
+		default void setNamespace(String prefix, String name) {
+		}
+
+		/**
+		 * Called before the first statement, a store that can build its
+		 * secondary indexes after the load drops them here.
+		 */
+		default void deferIndexes() {
+		}
+
+		/**
+		 * Called after the last commit, to build what {@link #deferIndexes()}
+		 * dropped.
+		 */
+		default void buildIndexes() {
+		}
+	}
+
+	private final Store store;
+	private final int batchSize;
+	private final long commitSize;
+	private List<Statement> batch;
+	private long uncommitted;
+	private long commits;
+	private boolean inTransaction;
+	private boolean indexesDeferred;
+
+	/**
+	 * @param store      receives the statements
+	 * @param batchSize  the number of statements handed to the store at once
+	 * @param commitSize the number of statements after which a transaction is
+	 *                   committed and the next one begun
+	 */
+	public StoreLoader(Store store, int batchSize, long commitSize) {
+		if (batchSize < 1 || commitSize < 1) {
+			throw new IllegalArgumentException("Batch and commit sizes must be positive");
+		}
+		this.store = store;
+		this.batchSize = batchSize;
+		this.commitSize = commitSize;
+		this.batch = new ArrayList<>(batchSize);
+	}
+
+	@Override
+	public void startRDF() {
+		store.deferIndexes();
+		indexesDeferred = true;
+		begin();
+	}
+
+	@Override
+	public void endRDF() {
+		addBatch();
+		if (inTransaction) {
+			commit();
+		}
+		buildIndexes();
+	}
+
+	@Override
+	public void handleNamespace(String prefix, String uri) {
+		store.setNamespace(prefix, uri);
+	}
+
+	@Override
+	public void handleStatement(Statement st) {
+		if (!inTransaction) {
+			begin();
+		}
+		batch.add(st);
+		uncommitted++;
+		if (batch.size() == batchSize) {
+			addBatch();
+		}
+		if (uncommitted >= commitSize) {
+			addBatch();
+			commit();
+		}
+	}
+
+	@Override
+	public void handleComment(String comment) {
+		// Stores have no place for comments.
+	}
+
+	/**
+	 * Roll back the transaction in progress, after the conversion failed.
+	 * Transactions committed earlier stay, and the indexes that were deferred are
+	 * built for them.
+	 */
+	public void abort() {
+		batch = new ArrayList<>(batchSize);
+		try {
+			if (inTransaction) {
+				inTransaction = false;
+				store.rollback();
+			}
+		} finally {
+			buildIndexes();
+		}
+	}
+
+	/**
+	 * @return the number of transactions committed
+	 */
+	public long commits() {
+		return commits;
+	}
+
+	private void buildIndexes() {
+		if (indexesDeferred) {
+			indexesDeferred = false;
+			store.buildIndexes();
+		}
+	}
+
+	private void begin() {
+		store.begin();
+		inTransaction = true;
+		uncommitted = 0;
+	}
+
+	private void addBatch() {
+		if (!batch.isEmpty()) {
+			store.add(batch);
+			batch = new ArrayList<>(batchSize);
+		}
+	}
+
+	private void commit() {
+		store.commit();
+		commits++;
+		inTransaction = false;
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads a GFA1 file through a fixed size buffer. Path lines are tokenized
+ * while they are read, their steps are handed to the parser one by one and
+ * their overlaps are skipped without being kept. The memory needed for a path
+ * is therefore bounded by the buffer and not by the length of the line, which
+ * for fully assembled pangenome paths can be larger than a Java string or
+ * array can hold.
+ *
+ * All other lines must fit in the buffer, which grows when one does not.
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+final class StreamingGFAReader implements ByteInput {
+	static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+	private final InputStream in;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+	/**
+	 * The first byte not yet consumed.
+	 */
+	private int start = 0;
+	/**
+	 * The end of the bytes read into the buffer.
+	 */
+	private int limit = 0;
+	private boolean endOfInput = false;
+	/**
+	 * The offset in the GFA of the first byte of the buffer.
+	 */
+	private long offset;
+
+	StreamingGFAReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	StreamingGFAReader(InputStream in, int bufferSize) {
+		this(in, bufferSize, 0);
+	}
+
+	/**
+	 * @param offset where in the GFA the input starts, at the start of a line
+	 */
+	StreamingGFAReader(InputStream in, int bufferSize, long offset) {
+		this.in = in;
+		this.bytes = new byte[bufferSize];
+		this.buffer = ByteBuffer.wrap(bytes);
+		this.offset = offset;
+	}
+
+	@Override
+	public void parse(ByteRecordParser parser) throws IOException {
+		while (start < limit || fill()) {
+			if (limit - start < 2) {
+				fill();
+			}
+			parser.lineStart(offset + start);
+			if (limit - start >= 2 && bytes[start] == 'P' && bytes[start + 1] == '\t') {
+				if (parser.projection().converts(Projection.RecordType.PATHS)) {
+					start += 2;
+					streamPath(parser);
+				} else {
+					skipRestOfLine();
+					parser.skipped();
+				}
+			} else {
+				int end = lineEndInBuffer();
+				if (end == limit && limit - start >= 2 && bytes[start] == 'S' && bytes[start + 1] == '\t') {
+					// A segment that is not all in the buffer yet, maybe longer than it.
+					if (!parser.projection().converts(Projection.RecordType.NODES)) {
+						skipRestOfLine();
+						parser.skipped();
+						continue;
+					} else if (parser.streamsSequences()) {
+						start += 2;
+						streamSegment(parser);
+						continue;
+					}
+				}
+				if (end == limit) {
+					end = findLineEnd();
+				}
+				int lineEnd = end;
+				if (lineEnd > start && bytes[lineEnd - 1] == '\r') {
+					lineEnd--;
+				}
+				parser.accept(buffer, start, lineEnd);
+				start = Math.min(end + 1, limit);
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the new line ending the line at start, or limit when
+	 *         it is not in the buffer.
+	 */
+	private int lineEndInBuffer() {
+		for (int i = start; i < limit; i++) {
+			if (bytes[i] == '\n') {
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * @return the index of the new line ending the line at start, or the end of
+	 *         the input.
+	 */
+	private int findLineEnd() throws IOException {
+		int i = start;
+		while (true) {
+			for (; i < limit; i++) {
+				if (bytes[i] == '\n') {
+					return i;
+				}
+			}
+			int scanned = i - start;
+			if (!fill()) {
+				return limit;
+			}
+			i = start + scanned;
+		}
+	}
+
+	private void streamPath(ByteRecordParser parser) throws IOException {
+		int nameEnd = findDelimiter(false);
+		parser.startPath(buffer, start, nameEnd);
+		if (nameEnd < limit && bytes[nameEnd] == '\t' && parser.projection().steps()) {
+			start = nameEnd + 1;
+			while (true) {
+				int stepEnd = findDelimiter(true);
+				int nodeEnd = stepEnd;
+				if (nodeEnd > start && bytes[nodeEnd - 1] == '\r') {
+					nodeEnd--;
+				}
+				if (nodeEnd > start) {
+					// The last character of a step is its orientation.
+					parser.step(buffer, start, nodeEnd - 1);
+				}
+				if (stepEnd == limit || bytes[stepEnd] != ',') {
+					start = stepEnd;
+					break;
+				}
+				start = stepEnd + 1;
+			}
+		} else {
+			start = nameEnd;
+		}
+		skipRestOfLine();
+		parser.endPath();
+	}
+
+	/**
+	 * Hand the sequence of a segment to the parser as it is read, a buffer full at
+	 * a time, so that the buffer does not have to grow to hold all of it.
+	 */
+	private void streamSegment(ByteRecordParser parser) throws IOException {
+		int nameEnd = findDelimiter(false);
+		if (nameEnd == limit || bytes[nameEnd] != '\t') {
+			throw new IllegalArgumentException("GFA line is missing fields: "
+					+ ByteRecordParser.toAsciiString(buffer, start, Math.min(nameEnd, start + 80)));
+		}
+		parser.startNode(buffer, start, nameEnd);
+		start = nameEnd + 1;
+		while (true) {
+			int i = start;
+			while (i < limit && bytes[i] != '\t' && bytes[i] != '\n') {
+				i++;
+			}
+			int end = i;
+			// A carriage return may be followed by the new line in the next read.
+			if (end > start && bytes[end - 1] == '\r' && (i < limit ? bytes[i] == '\n' : !endOfInput)) {
+				end--;
+			}
+			parser.sequence(buffer, start, end);
+			start = end;
+			if (i < limit || !fill()) {
+				break;
+			}
+		}
+		skipRestOfLine();
+		parser.endNode();
+	}
+
+	/**
+	 * Find the end of the token at start, reading more input when needed. The
+	 * buffer is compacted while doing so, any index taken before is invalid
+	 * afterwards.
+	 *
+	 * @return the index of the tab, new line or (when steps is true) comma after
+	 *         the token, or the end of the input.
+	 */
+	private int findDelimiter(boolean steps) throws IOException {
+		int i = start;
+		while (true) {
+			for (; i < limit; i++) {
+				byte b = bytes[i];
+				if (b == '\t' || b == '\n' || (steps && b == ',')) {
+					return i;
+				}
+			}
+			int scanned = i - start;
+			if (!fill()) {
+				return limit;
+			}
+			i = start + scanned;
+		}
+	}
+
+	/**
+	 * Drop everything up to and including the next new line, without keeping it.
+	 */
+	private void skipRestOfLine() throws IOException {
+		while (true) {
+			for (int i = start; i < limit; i++) {
+				if (bytes[i] == '\n') {
+					start = i + 1;
+					return;
+				}
+			}
+			start = limit;
+			if (!fill()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Move the unconsumed bytes to the front of the buffer and read more input
+	 * after them. Grows the buffer when it is full of unconsumed bytes.
+	 *
+	 * @return false if no more bytes could be read.
+	 */
+	private boolean fill() throws IOException {
+		if (endOfInput) {
+			return false;
+		}
+		if (start > 0) {
+			System.arraycopy(bytes, start, bytes, 0, limit - start);
+			offset += start;
+			limit -= start;
+			start = 0;
+		} else if (limit == bytes.length) {
+			if (bytes.length == Integer.MAX_VALUE - 8) {
+				throw new IOException("A non path line does not fit in a 2GB buffer");
+			}
+			bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8, bytes.length * 2L));
+			buffer = ByteBuffer.wrap(bytes);
+		}
+		int read = in.read(bytes, limit, bytes.length - limit);
+		if (read < 0) {
+			endOfInput = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * The current size of the buffer.
+	 */
+	int capacity() {
+		return bytes.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class BlockCompressedOutputStreamTest {
+
+    @Test
+    public void testBgzfIsReadableAsGzip() throws IOException {
+        byte[] input = input();
+        byte[] compressed = compress(input, BlockCompressedOutputStream.Codec.BGZF);
+        assertArrayEquals(input, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        // Every block records its own size, the last one is the empty EOF block.
+        int at = 0;
+        int blocks = 0;
+        while (at < compressed.length) {
+            assertEquals(0x1f, compressed[at] & 0xff);
+            assertEquals('B', compressed[at + 12]);
+            assertEquals('C', compressed[at + 13]);
+            int blockSize = ((compressed[at + 16] & 0xff) | (compressed[at + 17] & 0xff) << 8) + 1;
+            assertTrue(blockSize <= 0x10000);
+            at += blockSize;
+            blocks++;
+        }
+        assertEquals(compressed.length, at);
+        assertTrue(blocks > 2);
+        assertEquals(28, compressed.length - lastBlockStart(compressed));
+    }
+
+    @Test
+    public void testZstdFramesAreReadable() throws IOException {
+        byte[] input = input();
+        byte[] compressed = compress(input, BlockCompressedOutputStream.Codec.ZSTD);
+        assertTrue(compressed.length < input.length);
+        assertArrayEquals(input, readAll(new ZstdInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    /**
+     * Some compressible N-Triples, with random bytes that do not compress in
+     * between.
+     */
+    private static byte[] input() {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < 40_000; i++) {
+            input.writeBytes(("<http://example.org/vg/node/" + i + "> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> "
+                    + "<http://biohackathon.org/resource/vg#Node> .\n").getBytes(StandardCharsets.US_ASCII));
+            if (i % 10_000 == 0) {
+                byte[] noise = new byte[100_000];
+                random.nextBytes(noise);
+                input.writeBytes(noise);
+            }
+        }
+        return input.toByteArray();
+    }
+
+    private static byte[] compress(byte[] input, BlockCompressedOutputStream.Codec codec) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(compressed, codec, 3)) {
+            for (int i = 0; i < input.length; i += 1000) {
+                out.write(input, i, Math.min(1000, input.length - i));
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    private static int lastBlockStart(byte[] compressed) {
+        int at = 0;
+        int last = 0;
+        while (at < compressed.length) {
+            last = at;
+            at += ((compressed[at + 16] & 0xff) | (compressed[at + 17] & 0xff) << 8) + 1;
+        }
+        return last;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class BlockDecompressedInputStreamTest {
+
+    @Test
+    public void testRecognizesAndDecompresses() throws IOException {
+        byte[] input = input();
+        byte[] bgzf = compress(input, BlockCompressedOutputStream.Codec.BGZF);
+        try (InputStream in = BlockDecompressedInputStream.open(new ByteArrayInputStream(bgzf), 3)) {
+            assertTrue(in instanceof BlockDecompressedInputStream);
+            assertArrayEquals(input, readInOddSizes(in));
+        }
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(input);
+        }
+        try (InputStream in = BlockDecompressedInputStream.open(new ByteArrayInputStream(gzip.toByteArray()), 3)) {
+            assertTrue(in instanceof GZIPInputStream);
+            assertArrayEquals(input, in.readAllBytes());
+        }
+        byte[] zstd = compress(input, BlockCompressedOutputStream.Codec.ZSTD);
+        try (InputStream in = BlockDecompressedInputStream.open(new ByteArrayInputStream(zstd), 3)) {
+            assertTrue(in instanceof ZstdInputStream);
+            assertArrayEquals(input, in.readAllBytes());
+        }
+        try (InputStream in = BlockDecompressedInputStream.open(new ByteArrayInputStream(input), 3)) {
+            assertArrayEquals(input, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testDetectsCorruptBlocks() throws IOException {
+        byte[] bgzf = compress(input(), BlockCompressedOutputStream.Codec.BGZF);
+        // Flip a bit in the CRC32 of the first block.
+        int firstBlockSize = ((bgzf[16] & 0xff) | (bgzf[17] & 0xff) << 8) + 1;
+        bgzf[firstBlockSize - 8] ^= 1;
+        try (InputStream in = BlockDecompressedInputStream.open(new ByteArrayInputStream(bgzf), 2)) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+    }
+
+    private static byte[] input() {
+        StringBuilder gfa = new StringBuilder("H\tVN:Z:1.0\n");
+        for (int i = 1; i < 30_000; i++) {
+            gfa.append("S\t").append(i).append("\tACGTTGCA\n");
+            gfa.append("L\t").append(i).append("\t+\t").append(i + 1).append("\t-\t0M\n");
+        }
+        return gfa.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] compress(byte[] input, BlockCompressedOutputStream.Codec codec) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(compressed, codec, 2)) {
+            out.write(input);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] readInOddSizes(InputStream in) throws IOException {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7777];
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+            read.write(buffer, 0, n);
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            read.write(b);
+        }
+        return read.toByteArray();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import picocli.CommandLine;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class CheckpointsTest {
+
+    @ParameterizedTest
+    @CsvSource({ "graph.nt,--stream", "graph.nt,--mmap", "graph.nt.gz,--stream" })
+    public void testResumesWhereTheConversionDied(String outputName, String reader, @TempDir Path tempDir)
+            throws Exception {
+        Path gfa = tempDir.resolve("graph.gfa");
+        StringBuilder lines = new StringBuilder("H\tVN:Z:1.0\n");
+        for (int i = 1; i <= 200; i++) {
+            lines.append("S\t").append(i).append('\t').append("ACGTA".substring(0, 1 + i % 5)).append('\n');
+            if (i > 1) {
+                lines.append("L\t").append(i - 1).append("\t+\t").append(i).append("\t+\t0M\n");
+            }
+            if (i % 50 == 0) {
+                // Paths between the segments need the lengths of all earlier nodes.
+                lines.append("P\tp").append(i).append('\t').append(i - 49).append("+,").append(i - 2).append("-,")
+                        .append(i).append("+\t*\n");
+            }
+        }
+        Files.writeString(gfa, lines, StandardCharsets.US_ASCII);
+        List<String> options = List.of("--engine", "DIRECT", "--extra", reader, "--report-interval", "0",
+                "--metrics-json", tempDir.resolve("metrics.json").toString());
+
+        Path expected = tempDir.resolve("expected-" + outputName);
+        assertEquals(0, new CommandLine(new GFA2RDF()).execute(args(options, gfa, expected)));
+
+        // Checkpoint at every line, and die halfway through writing the output.
+        Path output = tempDir.resolve(outputName);
+        List<String> checkpointed = new ArrayList<>(options);
+        checkpointed.addAll(List.of("--checkpoint-interval", "0.000001"));
+        GFA2RDF dying = new GFA2RDF();
+        new CommandLine(dying).parseArgs(args(checkpointed, gfa, output));
+        Checkpoints checkpoints = dying.openCheckpoints();
+        try (FileOutputStream file = checkpoints.openOutput()) {
+            OutputStream out = dying.openOutput(new DiesAfter(file, Files.size(expected) / 2), output.toFile());
+            assertThrows(UncheckedIOException.class, () -> dying.writeCheckpointed(out, checkpoints, false));
+        }
+        Path checkpoint = tempDir.resolve(outputName + Checkpoints.SUFFIX);
+        assertTrue(checkpoints.taken() > 0);
+        assertTrue(Files.exists(checkpoint));
+
+        List<String> resumed = new ArrayList<>(checkpointed);
+        resumed.add("--resume");
+        List<String> otherOptions = new ArrayList<>(resumed);
+        otherOptions.add("--short");
+        long died = Files.size(output);
+        assertNotEquals(0, new CommandLine(new GFA2RDF()).execute(args(otherOptions, gfa, output)));
+        assertEquals(died, Files.size(output));
+
+        assertEquals(0, new CommandLine(new GFA2RDF()).execute(args(resumed, gfa, output)));
+        assertFalse(Files.exists(checkpoint));
+        assertEquals(read(expected), read(output));
+    }
+
+    private static String[] args(List<String> options, Path gfa, Path output) {
+        List<String> args = new ArrayList<>(options);
+        args.add(gfa.toString());
+        args.add(output.toString());
+        return args.toArray(new String[0]);
+    }
+
+    private static String read(Path file) throws IOException {
+        try (InputStream in = file.toString().endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(file))
+                : Files.newInputStream(file)) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Writes part of the bytes after the limit and then fails, as a disk that
+     * filled up or a process that was killed would.
+     */
+    private static final class DiesAfter extends FilterOutputStream {
+        private long remaining;
+
+        private DiesAfter(OutputStream out, long limit) {
+            super(out);
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                out.write(Arrays.copyOfRange(b, off, off + len / 2));
+                remaining = 0;
+                throw new IOException("Died while writing");
+            }
+            out.write(b, off, len);
+            remaining -= len;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import picocli.CommandLine;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class DeltaConverterTest {
+    private static final String PREVIOUS = "H\tVN:Z:1.0\n"
+            + "S\t1\tACGT\n"
+            + "S\t2\tGG\n"
+            + "S\t3\tTTT\n"
+            + "S\t4\tA\n"
+            + "S\t5\tCCCC\n"
+            + "L\t1\t+\t2\t+\t0M\n"
+            + "L\t2\t+\t3\t-\t0M\n"
+            + "L\t3\t+\t4\t+\t0M\n"
+            + "P\tkept\t1+,2+\t*\n"
+            + "P\tshifted\t3+,4+,1-\t*\n"
+            + "P\tchanged\t1+,5+\t*\n";
+
+    private static final String CURRENT = "H\tVN:Z:1.0\n"
+            + "S\t1\tACGT\n"
+            + "S\t2\tGG\n"
+            // Same length, other sequence.
+            + "S\t3\tTAT\n"
+            // Longer, moving the positions of the steps after it.
+            + "S\t4\tAAA\n"
+            + "S\t6\tG\n"
+            + "L\t1\t+\t2\t+\t0M\n"
+            + "L\t2\t+\t3\t+\t0M\n"
+            + "L\t3\t+\t4\t+\t0M\n"
+            + "L\t4\t+\t6\t+\t0M\n"
+            + "P\tkept\t1+,2+\t*\n"
+            + "P\tshifted\t3+,4+,1-\t*\n"
+            + "P\tchanged\t1+,6+\t*\n"
+            + "P\tnew\t6+\t*\n";
+
+    @ParameterizedTest
+    @CsvSource({ "false,false", "true,false", "false,true", "true,true" })
+    public void testDeltaTurnsPreviousIntoCurrent(boolean extra, boolean split, @TempDir Path tempDir)
+            throws IOException {
+        Path previous = tempDir.resolve("previous.gfa");
+        Path current = tempDir.resolve("current.gfa");
+        Files.writeString(previous, PREVIOUS, StandardCharsets.US_ASCII);
+        Files.writeString(current, CURRENT, StandardCharsets.US_ASCII);
+        List<String> options = new ArrayList<>(List.of("--engine", "DIRECT", "--report-interval", "0",
+                "--spill-directory", tempDir.toString(), "--metrics-json", tempDir.resolve("metrics.json").toString()));
+        if (extra) {
+            options.add("--extra");
+        }
+        Set<String> before = convert(options, previous, tempDir.resolve("previous.nt"));
+        Set<String> after = convert(options, current, tempDir.resolve("current.nt"));
+
+        Path delta = tempDir.resolve("delta");
+        Path removedFile = tempDir.resolve("removed.nt");
+        List<String> deltaOptions = new ArrayList<>(options);
+        deltaOptions.addAll(List.of("--previous", previous.toString()));
+        if (split) {
+            deltaOptions.addAll(List.of("--removed", removedFile.toString()));
+        }
+        deltaOptions.addAll(List.of(current.toString(), delta.toString()));
+        assertEquals(0, new CommandLine(new GFA2RDF()).execute(deltaOptions.toArray(new String[0])));
+        assertTrue(Files.readString(tempDir.resolve("metrics.json")).contains("\"deltaLines\": {\"removed\": "));
+
+        Set<String> removed = new HashSet<>();
+        Set<String> added = new HashSet<>();
+        if (split) {
+            removed.addAll(Files.readAllLines(removedFile));
+            added.addAll(Files.readAllLines(delta));
+        } else {
+            List<String> patch = Files.readAllLines(delta);
+            assertEquals("TX .", patch.get(0));
+            assertEquals("TC .", patch.get(patch.size() - 1));
+            for (String row : patch.subList(1, patch.size() - 1)) {
+                assertTrue(row.startsWith("D ") || row.startsWith("A "), row);
+                // All deletes come before the adds.
+                assertTrue(row.startsWith("A ") || added.isEmpty(), row);
+                (row.startsWith("D ") ? removed : added).add(row.substring(2));
+            }
+        }
+        assertTrue(before.containsAll(removed));
+        assertTrue(after.containsAll(added));
+        Set<String> patched = new HashSet<>(before);
+        patched.removeAll(removed);
+        patched.addAll(added);
+        assertEquals(after, patched);
+
+        // The unchanged lines are not part of the delta.
+        String kept = "<http://example.org/vg/path/kept>";
+        String link = "<http://example.org/vg/node/1> <http://biohackathon.org/resource/vg#linksForwardToForward> "
+                + "<http://example.org/vg/node/2>";
+        assertFalse(added.stream().anyMatch(t -> t.startsWith(kept) || t.startsWith(link)));
+        // The positions of a path change with the length of its nodes.
+        String shifted = "<http://example.org/vg/path/shifted";
+        assertEquals(extra, added.stream().anyMatch(t -> t.startsWith(shifted)));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "--engine RIO", "--engine DIRECT --parallel 2", "--engine DIRECT --only NODES",
+            "--engine DIRECT --path x" })
+    public void testRejectsOptionsBeforeWriting(String options, @TempDir Path tempDir) throws IOException {
+        Path previous = tempDir.resolve("previous.gfa");
+        Path current = tempDir.resolve("current.gfa");
+        Files.writeString(previous, PREVIOUS, StandardCharsets.US_ASCII);
+        Files.writeString(current, CURRENT, StandardCharsets.US_ASCII);
+        // An earlier delta is left as it was.
+        Path delta = tempDir.resolve("delta");
+        Files.writeString(delta, "earlier", StandardCharsets.US_ASCII);
+        List<String> args = new ArrayList<>(List.of(options.split(" ")));
+        args.addAll(List.of("--report-interval", "0", "--metrics-json", tempDir.resolve("metrics.json").toString(),
+                "--previous", previous.toString(), current.toString(), delta.toString()));
+        assertNotEquals(0, new CommandLine(new GFA2RDF()).execute(args.toArray(new String[0])));
+        assertEquals("earlier", Files.readString(delta));
+    }
+
+    private static Set<String> convert(List<String> options, Path gfa, Path output) throws IOException {
+        List<String> args = new ArrayList<>(options);
+        args.add(gfa.toString());
+        args.add(output.toString());
+        assertEquals(0, new CommandLine(new GFA2RDF()).execute(args.toArray(new String[0])));
+        return new HashSet<>(Files.readAllLines(output));
+    }
+}
@@ -23,20 +23,50 @@
  */
 package swiss.sib.swissprot.handlegraph4jrdf;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.StringReader;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.eclipse.rdf4j.common.net.ParsedIRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParseException;
 import org.eclipse.rdf4j.rio.RDFParser;
 import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import picocli.CommandLine;
 
 /**
  *
@@ -125,4 +155,466 @@ public class GFA2RDFTest {
         RDFParser parser = Rio.createParser(RDFFormat.TURTLE);
         parser.parse(new StringReader(toString), httpexampleorgvg);
     }
+
+    @Test
+    public void testConvertStepsInParallel() throws IOException, URISyntaxException {
+        ParsedIRI baseIRI = new ParsedIRI("http://example.org/vg/");
+        GFA2RDF sequential = new GFA2RDF();
+        sequential.extra = true;
+        GFA2RDF parallel = new GFA2RDF();
+        parallel.extra = true;
+        parallel.stepChunkSize = 3;
+        String expected = convert(sequential, baseIRI);
+        String actual = convert(parallel, baseIRI);
+        assertEquals(expected, actual);
+        // The last step of x ends after all 51 bases of the path.
+        assertTrue(actual.contains("pathposition:51"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 0, 3 })
+    public void testPositionsAfterNineteenDigitId(int stepChunkSize) throws IOException, URISyntaxException {
+        ParsedIRI baseIRI = new ParsedIRI("http://example.org/vg/");
+        GFA2RDF instance = new GFA2RDF();
+        instance.extra = true;
+        instance.stepChunkSize = stepChunkSize;
+        String actual = convert(instance, baseIRI,
+                "H\tVN:Z:1.0\nS\t1000000000000000000\tACGT\nS\t2\tAC\nP\tx\t1000000000000000000+,2+\t*");
+        // The step on 2 ends after the 4 bases of the nineteen digit node and its own 2.
+        assertTrue(actual.contains("faldo:end pathposition:7"));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "false,false", "true,false", "false,true", "true,true" })
+    public void testDirectEngineMatchesRio(boolean preCompress, boolean extra)
+            throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        GFA2RDF rio = new GFA2RDF();
+        rio.preCompress = preCompress;
+        rio.extra = extra;
+        GFA2RDF direct = new GFA2RDF();
+        direct.preCompress = preCompress;
+        direct.extra = extra;
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        Model expected = Rio.parse(new StringReader(convert(rio, baseIRI)), httpexampleorgvg, RDFFormat.TURTLE);
+        Model actual = Rio.parse(new StringReader(convert(direct, baseIRI)), httpexampleorgvg, RDFFormat.NTRIPLES);
+        assertEquals(expected.size(), actual.size());
+        assertTrue(Models.isomorphic(expected, actual));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "false,false", "false,true", "true,true" })
+    public void testTurtleEngineMatchesRio(boolean preCompress, boolean pipeline)
+            throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        // A second path redefines the path prefixes.
+        String twoPaths = TEST_DATA + "P\tother|path#1\t2+,3-\t*\n";
+        GFA2RDF rio = new GFA2RDF();
+        rio.extra = true;
+        rio.preCompress = preCompress;
+        GFA2RDF turtle = new GFA2RDF();
+        turtle.extra = true;
+        turtle.preCompress = preCompress;
+        turtle.engine = GFA2RDF.Engine.TURTLE;
+        String expected;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            rio.writeConvertedToOutputStream(baos, baseIRI, Arrays.stream(twoPaths.split("\n")));
+            expected = baos.toString();
+        }
+        String actual;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ByteArrayInputStream in = new ByteArrayInputStream(twoPaths.getBytes(StandardCharsets.US_ASCII))) {
+            if (pipeline) {
+                turtle.writeConvertedPipelined(baos, baseIRI, in, 64);
+            } else {
+                turtle.writeConvertedToOutputStream(baos, baseIRI, Arrays.stream(twoPaths.split("\n")));
+            }
+            actual = baos.toString();
+        }
+        assertTrue(actual.length() < expected.length());
+        assertTrue(actual.contains(";"));
+        Model expectedModel = Rio.parse(new StringReader(expected), httpexampleorgvg, RDFFormat.TURTLE);
+        Model actualModel = Rio.parse(new StringReader(actual), httpexampleorgvg, RDFFormat.TURTLE);
+        if (preCompress) {
+            // Bare numbers read back as xsd:integer.
+            assertEquals(expectedModel.size(), actualModel.size());
+            assertEquals(expectedModel.subjects(), actualModel.subjects());
+        } else {
+            assertTrue(Models.isomorphic(expectedModel, actualModel));
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "false,false,lines", "true,false,stream", "false,true,pipeline", "true,true,lines" })
+    public void testBinaryEngineReadsBackAsRio(boolean preCompress, boolean extra, String input)
+            throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        // Named nodes go into the dictionary, a second path resets the deltas.
+        String gfa = TEST_DATA + "\nS\tchr1_0042\tACGT\nL\t15\t+\tchr1_0042\t-\t0M\n"
+                + "P\tother\t15+,chr1_0042-,1+\t*\n";
+        GFA2RDF rio = new GFA2RDF();
+        rio.preCompress = preCompress;
+        rio.extra = extra;
+        GFA2RDF direct = new GFA2RDF();
+        direct.preCompress = preCompress;
+        direct.extra = extra;
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        GFA2RDF binary = new GFA2RDF();
+        binary.preCompress = preCompress;
+        binary.extra = extra;
+        binary.engine = GFA2RDF.Engine.BINARY;
+        byte[] encoded;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                InputStream in = new ByteArrayInputStream(gfa.getBytes(StandardCharsets.US_ASCII))) {
+            if ("pipeline".equals(input)) {
+                binary.writeConvertedPipelined(baos, baseIRI, in, 64);
+            } else if ("stream".equals(input)) {
+                binary.writeConvertedToOutputStream(baos, baseIRI, new StreamingGFAReader(in, 16));
+            } else {
+                binary.writeConvertedToOutputStream(baos, baseIRI, Arrays.stream(gfa.split("\n")));
+            }
+            encoded = baos.toByteArray();
+        }
+        String ntriples = convert(direct, baseIRI, gfa);
+        List<Statement> decoded = new ArrayList<>();
+        new BinaryRDFReader(new ByteArrayInputStream(encoded)).parse(new StatementCollector(decoded));
+        assertEquals(ntriples.lines().count(), decoded.size());
+        assertEquals(direct.metrics.triples(), binary.metrics.triples());
+        assertTrue(encoded.length * 4 < ntriples.length());
+        Model expected = Rio.parse(new StringReader(convert(rio, baseIRI, gfa)), httpexampleorgvg, RDFFormat.TURTLE);
+        assertTrue(Models.isomorphic(expected, new LinkedHashModel(decoded)));
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 1);
+        assertThrows(EOFException.class, () -> new BinaryRDFReader(new ByteArrayInputStream(truncated))
+                .parse(new StatementCollector()));
+
+        // Rio finds the parser by its format or file name.
+        assertEquals(BinaryRDFParser.FORMAT, Rio.getParserFormatForFileName("graph.gfa2rdf").get());
+        Model reloaded = Rio.parse(new ByteArrayInputStream(encoded), "", BinaryRDFParser.FORMAT);
+        assertTrue(Models.isomorphic(expected, reloaded));
+        assertEquals(VG.NAMESPACE, reloaded.getNamespace(VG.PREFIX).get().getName());
+        assertThrows(RDFParseException.class,
+                () -> Rio.parse(new ByteArrayInputStream(truncated), "", BinaryRDFParser.FORMAT));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "RIO,1073741824", "DIRECT,1073741824", "RIO,16", "DIRECT,16" })
+    public void testMemoryMappedMatchesLines(GFA2RDF.Engine engine, int segmentSize, @TempDir Path tempDir)
+            throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        Path gfa = tempDir.resolve("test.gfa");
+        Files.writeString(gfa, TEST_DATA, StandardCharsets.US_ASCII);
+        GFA2RDF lines = new GFA2RDF();
+        lines.extra = true;
+        GFA2RDF mapped = new GFA2RDF();
+        mapped.extra = true;
+        mapped.engine = engine;
+        String actual;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                MappedGFAReader reader = new MappedGFAReader(gfa, segmentSize)) {
+            mapped.writeConvertedToOutputStream(baos, baseIRI, reader);
+            actual = baos.toString();
+        }
+        Model expected = Rio.parse(new StringReader(convert(lines, baseIRI)), httpexampleorgvg, RDFFormat.TURTLE);
+        assertTrue(Models.isomorphic(expected, Rio.parse(new StringReader(actual), httpexampleorgvg,
+                RDFFormat.TURTLE)));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "RIO,8", "DIRECT,8", "DIRECT,8388608" })
+    public void testStreamingMatchesLines(GFA2RDF.Engine engine, int bufferSize)
+            throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        GFA2RDF lines = new GFA2RDF();
+        lines.extra = true;
+        GFA2RDF streamed = new GFA2RDF();
+        streamed.extra = true;
+        streamed.engine = engine;
+        String actual;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                StreamingGFAReader reader = new StreamingGFAReader(
+                        new ByteArrayInputStream(TEST_DATA.getBytes(StandardCharsets.US_ASCII)), bufferSize)) {
+            streamed.writeConvertedToOutputStream(baos, baseIRI, reader);
+            actual = baos.toString();
+        }
+        Model expected = Rio.parse(new StringReader(convert(lines, baseIRI)), httpexampleorgvg, RDFFormat.TURTLE);
+        assertTrue(Models.isomorphic(expected, Rio.parse(new StringReader(actual), httpexampleorgvg,
+                RDFFormat.TURTLE)));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "RIO,TYPE,0,graph.ttl", "RIO,PATH,16384,graph.ttl", "DIRECT,NONE,32768,graph.nt.gz",
+            "TURTLE,PATH,8192,graph.ttl", "DIRECT,TYPE,16384,graph.nt" })
+    public void testShardsMatchLines(GFA2RDF.Engine engine, ShardedOutput.SplitBy splitBy, long maxBytes,
+            String output, @TempDir Path tempDir) throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        StringBuilder gfa = new StringBuilder("H\tVN:Z:1.0\n");
+        for (int i = 1; i <= 500; i++) {
+            gfa.append("S\t").append(i).append("\tACGT\n");
+            gfa.append("L\t").append(i).append("\t+\t").append(i % 500 + 1).append("\t+\t0M\n");
+        }
+        for (String path : new String[] { "a", "b" }) {
+            gfa.append("P\t").append(path).append('\t');
+            for (int i = 1; i <= 500; i++) {
+                gfa.append(i).append(i < 500 ? "+," : "+\t*\n");
+            }
+        }
+        GFA2RDF lines = new GFA2RDF();
+        lines.extra = true;
+        GFA2RDF sharded = new GFA2RDF();
+        sharded.extra = true;
+        sharded.engine = engine;
+        sharded.shardBy = splitBy;
+        try (StreamingGFAReader reader = new StreamingGFAReader(
+                new ByteArrayInputStream(gfa.toString().getBytes(StandardCharsets.US_ASCII)))) {
+            sharded.writeSharded(tempDir.resolve(output), baseIRI, reader, maxBytes);
+        }
+        RDFFormat format = engine == GFA2RDF.Engine.DIRECT ? RDFFormat.NTRIPLES : RDFFormat.TURTLE;
+        String manifest = Files.readString(tempDir.resolve("graph.manifest.json"));
+        Model union = new LinkedHashModel();
+        int shards = 0;
+        try (Stream<Path> files = Files.list(tempDir)) {
+            for (Path shard : (Iterable<Path>) files.sorted()::iterator) {
+                String name = shard.getFileName().toString();
+                if (name.endsWith(".manifest.json")) {
+                    continue;
+                }
+                // Every shard parses on its own.
+                List<Statement> statements = new ArrayList<>();
+                RDFParser parser = Rio.createParser(format);
+                parser.setRDFHandler(new StatementCollector(statements));
+                try (InputStream in = name.endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(shard))
+                        : Files.newInputStream(shard)) {
+                    parser.parse(in, httpexampleorgvg);
+                }
+                assertTrue(manifest.contains("\"file\": \"" + name + "\""), name);
+                if (engine == GFA2RDF.Engine.DIRECT) {
+                    // The Turtle writers leave out the positions repeated by consecutive steps.
+                    assertTrue(manifest.contains("\"triples\": " + statements.size() + ","), name);
+                }
+                union.addAll(statements);
+                shards++;
+            }
+        }
+        assertTrue(manifest.contains("\"triples\": " + sharded.metrics.triples() + ",\n  \"shards\""));
+        int minimum = splitBy == ShardedOutput.SplitBy.NONE ? 2 : maxBytes > 0 ? 4 : 3;
+        assertTrue(shards >= minimum, manifest);
+        Model expected = Rio.parse(new StringReader(convert(lines, baseIRI, gfa.toString())), httpexampleorgvg,
+                RDFFormat.TURTLE);
+        assertTrue(Models.isomorphic(expected, union));
+    }
+
+    @Test
+    public void testShardsStreamSequences(@TempDir Path tempDir) throws IOException, URISyntaxException {
+        String sequence = "ACGT".repeat(50);
+        String gfa = "H\tVN:Z:1.0\nS\t1\t" + sequence + "\nS\t2\t" + sequence + "\nL\t1\t+\t2\t+\t0M\n";
+        GFA2RDF sharded = new GFA2RDF();
+        sharded.engine = GFA2RDF.Engine.DIRECT;
+        sharded.shardBy = ShardedOutput.SplitBy.TYPE;
+        try (StreamingGFAReader reader = new StreamingGFAReader(
+                new ByteArrayInputStream(gfa.getBytes(StandardCharsets.US_ASCII)), 16)) {
+            sharded.writeSharded(tempDir.resolve("graph.nt"), new ParsedIRI("http://example.org/vg/"), reader, 0);
+            // The segments went to the shard in pieces, the buffer never grew.
+            assertEquals(16, reader.capacity());
+        }
+        String nodes = Files.readString(tempDir.resolve("graph.nodes-00001.nt"));
+        assertTrue(nodes.contains("<http://example.org/vg/node/1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#value> \""
+                + sequence + "\""), nodes);
+        assertTrue(nodes.contains("<http://example.org/vg/node/2> "), nodes);
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "--engine HDT --shard-size 1", "--compression-threads 0 --compression BGZF",
+            "--compression-threads -2 --compression ZSTD", "--parallel 2 --engine RIO",
+            "--parallel 2 --engine DIRECT --range-size 0" })
+    public void testRejectsOptionsBeforeWriting(String options, @TempDir Path tempDir) throws IOException {
+        Path gfa = tempDir.resolve("test.gfa");
+        Files.writeString(gfa, TEST_DATA, StandardCharsets.US_ASCII);
+        List<String> args = new ArrayList<>(Arrays.asList(options.split(" ")));
+        args.addAll(List.of("--report-interval", "0", gfa.toString(), tempDir.resolve("graph.hdt").toString()));
+        assertNotEquals(0, new CommandLine(new GFA2RDF()).execute(args.toArray(new String[0])));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(List.of(gfa), files.toList());
+        }
+    }
+
+    @Test
+    public void testBgzfInputMatchesLines() throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        GFA2RDF lines = new GFA2RDF();
+        lines.extra = true;
+        GFA2RDF compressed = new GFA2RDF();
+        compressed.extra = true;
+        ByteArrayOutputStream bgzf = new ByteArrayOutputStream();
+        try (OutputStream out = new BlockCompressedOutputStream(bgzf, BlockCompressedOutputStream.Codec.BGZF, 2)) {
+            out.write(TEST_DATA.getBytes(StandardCharsets.US_ASCII));
+        }
+        String actual;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                StreamingGFAReader reader = new StreamingGFAReader(
+                        BlockDecompressedInputStream.open(new ByteArrayInputStream(bgzf.toByteArray()), 2))) {
+            compressed.writeConvertedToOutputStream(baos, baseIRI, reader);
+            actual = baos.toString();
+        }
+        Model expected = Rio.parse(new StringReader(convert(lines, baseIRI)), httpexampleorgvg, RDFFormat.TURTLE);
+        assertTrue(Models.isomorphic(expected, Rio.parse(new StringReader(actual), httpexampleorgvg,
+                RDFFormat.TURTLE)));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "RIO,8,false", "DIRECT,8,false", "DIRECT,1048576,false", "RIO,16,true" })
+    public void testPipelineMatchesLines(GFA2RDF.Engine engine, int blockSize, boolean virtualThreads)
+            throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        GFA2RDF lines = new GFA2RDF();
+        lines.extra = true;
+        GFA2RDF pipelined = new GFA2RDF();
+        pipelined.extra = true;
+        pipelined.engine = engine;
+        pipelined.virtualThreads = virtualThreads;
+        String actual;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ByteArrayInputStream in = new ByteArrayInputStream(TEST_DATA.getBytes(StandardCharsets.US_ASCII))) {
+            pipelined.writeConvertedPipelined(baos, baseIRI, in, blockSize);
+            actual = baos.toString();
+        }
+        Model expected = Rio.parse(new StringReader(convert(lines, baseIRI)), httpexampleorgvg, RDFFormat.TURTLE);
+        assertTrue(Models.isomorphic(expected, Rio.parse(new StringReader(actual), httpexampleorgvg,
+                RDFFormat.TURTLE)));
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        pipelined.metrics.writeJson(new PrintStream(json, true, StandardCharsets.UTF_8));
+        String report = json.toString(StandardCharsets.UTF_8);
+        assertTrue(report.contains("  \"stageQueues\": [\n    {\"name\": \"read -> parse\", \"meanDepth\": "), report);
+        assertTrue(report.contains("{\"name\": \"map -> write\""), report);
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "1,1073741824,0,false", "3,7,0,false", "3,7,1,false", "4,64,16,false", "3,7,0,true" })
+    public void testParallelRangesMatchLines(int threads, long rangeSize, int inFlight, boolean spill,
+            @TempDir Path tempDir)
+            throws IOException, URISyntaxException {
+        String httpexampleorgvg = "http://example.org/vg/";
+        ParsedIRI baseIRI = new ParsedIRI(httpexampleorgvg);
+        Path gfa = tempDir.resolve("test.gfa");
+        Files.writeString(gfa, TEST_DATA, StandardCharsets.US_ASCII);
+        GFA2RDF lines = new GFA2RDF();
+        lines.extra = true;
+        GFA2RDF parallel = new GFA2RDF();
+        parallel.extra = true;
+        parallel.engine = GFA2RDF.Engine.DIRECT;
+        parallel.parallel = threads;
+        parallel.rangesInFlight = inFlight;
+        Path spillDirectory = Files.createDirectory(tempDir.resolve("spill"));
+        if (spill) {
+            // Without any memory budget every range spills its node lengths.
+            parallel.nodeLengths = new NodeLengths(new OffHeapAllocator(0, spillDirectory));
+        }
+        String actual;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                MappedGFAReader reader = new MappedGFAReader(gfa)) {
+            parallel.writeConvertedInParallel(baos, reader, rangeSize);
+            actual = baos.toString();
+            try (Stream<Path> files = Files.list(spillDirectory)) {
+                assertEquals(spill, files.count() > 0);
+            }
+        } finally {
+            parallel.nodeLengths.close();
+        }
+        Model expected = Rio.parse(new StringReader(convert(lines, baseIRI)), httpexampleorgvg, RDFFormat.TURTLE);
+        assertTrue(Models.isomorphic(expected, Rio.parse(new StringReader(actual), httpexampleorgvg,
+                RDFFormat.NTRIPLES)));
+    }
+
+    @Test
+    public void testMetricsAgreeBetweenEngines(@TempDir Path tempDir) throws IOException, URISyntaxException {
+        ParsedIRI baseIRI = new ParsedIRI("http://example.org/vg/");
+        Path gfa = tempDir.resolve("test.gfa");
+        Files.writeString(gfa, TEST_DATA, StandardCharsets.US_ASCII);
+        GFA2RDF rio = new GFA2RDF();
+        rio.extra = true;
+        convert(rio, baseIRI);
+        GFA2RDF direct = new GFA2RDF();
+        direct.extra = true;
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        String ntriples;
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                MappedGFAReader reader = new MappedGFAReader(gfa)) {
+            direct.writeConvertedToOutputStream(baos, baseIRI, reader);
+            ntriples = baos.toString();
+        }
+        assertEquals(ntriples.lines().count(), direct.metrics.triples());
+        assertEquals(direct.metrics.triples(), rio.metrics.triples());
+        assertEquals(Files.size(gfa), direct.metrics.inputBytes());
+        for (char code : new char[] { 'S', 'L', 'P', 'H' }) {
+            assertEquals(rio.metrics.lines(code), direct.metrics.lines(code));
+        }
+        assertEquals(15, direct.metrics.lines('S'));
+        assertEquals(rio.metrics.triples(VG.rank), direct.metrics.triples(VG.rank));
+        // 15 nodes, referenced again by the links and steps.
+        assertEquals(15, rio.metrics.nodeIRICacheMisses());
+        assertTrue(rio.metrics.nodeIRICacheHits() > 15);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        direct.metrics.writeJson(new PrintStream(json, true, StandardCharsets.UTF_8));
+        assertTrue(json.toString(StandardCharsets.UTF_8).contains("\"triples\": " + direct.metrics.triples() + ","));
+    }
+
+    @Test
+    public void testPathAndFlushEventsAreRecorded(@TempDir Path tempDir) throws IOException, URISyntaxException {
+        ParsedIRI baseIRI = new ParsedIRI("http://example.org/vg/");
+        Path gfa = tempDir.resolve("test.gfa");
+        Files.writeString(gfa, TEST_DATA, StandardCharsets.US_ASCII);
+        Path jfr = tempDir.resolve("test.jfr");
+        GFA2RDF rio = new GFA2RDF();
+        GFA2RDF direct = new GFA2RDF();
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        try (Recording recording = new Recording()) {
+            recording.enable(ConversionEvents.PathConversion.class).withoutThreshold();
+            recording.enable(ConversionEvents.OutputFlush.class).withoutThreshold();
+            recording.start();
+            convert(rio, baseIRI);
+            try (OutputStream out = ConversionEvents.recordFlushes(new ByteArrayOutputStream());
+                    MappedGFAReader reader = new MappedGFAReader(gfa)) {
+                direct.writeConvertedToOutputStream(out, baseIRI, reader);
+            }
+            recording.stop();
+            recording.dump(jfr);
+        }
+        List<RecordedEvent> paths = new ArrayList<>();
+        long flushed = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(jfr)) {
+            String name = event.getEventType().getName();
+            if (name.endsWith(".PathConversion")) {
+                paths.add(event);
+            } else if (name.endsWith(".OutputFlush")) {
+                flushed += event.getLong("bytes");
+            }
+        }
+        assertEquals(rio.metrics.lines('P') + direct.metrics.lines('P'), paths.size());
+        for (RecordedEvent path : paths) {
+            assertEquals("x", path.getString("pathName"));
+            assertEquals(10, path.getLong("steps"));
+        }
+        assertTrue(flushed > 0);
+    }
+
+    private static String convert(GFA2RDF instance, ParsedIRI baseIRI) throws IOException, URISyntaxException {
+        return convert(instance, baseIRI, TEST_DATA);
+    }
+
+    private static String convert(GFA2RDF instance, ParsedIRI baseIRI, String gfa)
+            throws IOException, URISyntaxException {
+        Stream<String> si = Arrays.asList(gfa.split("\n")).stream();
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            instance.writeConvertedToOutputStream(baos, baseIRI, si);
+            baos.flush();
+            return baos.toString();
+        }
+    }
 }
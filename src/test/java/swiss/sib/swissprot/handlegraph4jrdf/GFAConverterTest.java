@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.rdf4j.common.net.ParsedIRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class GFAConverterTest {
+    private static final String BASE = "http://example.org/vg/";
+
+    private static String gfa(int nodes) {
+        StringBuilder gfa = new StringBuilder();
+        for (int i = 1; i <= nodes; i++) {
+            gfa.append("S\t").append(i).append("\tACGT\n");
+        }
+        for (int i = 1; i < nodes; i++) {
+            gfa.append("L\t").append(i).append("\t+\t").append(i + 1).append("\t+\t0M\n");
+        }
+        gfa.append("P\tx\t1+,2-,3+\t*\n");
+        return gfa.toString();
+    }
+
+    private static InputStream in(String gfa) {
+        return new ByteArrayInputStream(gfa.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String nTriples(String gfa) throws URISyntaxException {
+        GFA2RDF direct = new GFA2RDF();
+        direct.extra = true;
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        ByteArrayOutputStream nt = new ByteArrayOutputStream();
+        direct.writeConvertedToOutputStream(nt, new ParsedIRI(BASE), Stream.of(gfa.split("\n")));
+        return nt.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static Model expected(String gfa) throws IOException, URISyntaxException {
+        return Rio.parse(new StringReader(nTriples(gfa)), BASE, RDFFormat.NTRIPLES);
+    }
+
+    @Test
+    public void testConvertsIntoAnyHandler() throws Exception {
+        String gfa = gfa(30);
+        Model model = new LinkedHashModel();
+        long statements = new GFAConverter(BASE, false, true).convert(in(gfa), new StatementCollector(model));
+        // Neighbouring steps share a position, N-Triples repeats it like the statements do.
+        assertEquals(nTriples(gfa).lines().count(), statements);
+        assertTrue(Models.isomorphic(expected(gfa), model));
+        assertEquals(VG.NAMESPACE, model.getNamespace(VG.PREFIX).get().getName());
+    }
+
+    @Test
+    public void testLeavesTheStreamOpen() throws Exception {
+        String gfa = gfa(30);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(gfa.getBytes(StandardCharsets.US_ASCII));
+        }
+        for (byte[] bytes : List.of(gfa.getBytes(StandardCharsets.US_ASCII), gzipped.toByteArray())) {
+            AtomicBoolean closed = new AtomicBoolean();
+            InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+                @Override
+                public void close() throws IOException {
+                    closed.set(true);
+                    super.close();
+                }
+            };
+            Model model = new LinkedHashModel();
+            new GFAConverter(BASE, false, true).convert(in, new StatementCollector(model));
+            assertFalse(closed.get());
+            assertTrue(Models.isomorphic(expected(gfa), model));
+        }
+    }
+
+    @Test
+    public void testBatchesFromManyThreads() throws Exception {
+        String gfa = gfa(200);
+        Model expected = expected(gfa);
+        GFAConverter converter = new GFAConverter(BASE, false, true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Statement[]>>> conversions = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                conversions.add(executor.submit(() -> {
+                    List<Statement[]> batches = new ArrayList<>();
+                    converter.convert(in(gfa), 64, batches::add);
+                    return batches;
+                }));
+            }
+            for (Future<List<Statement[]>> conversion : conversions) {
+                List<Statement[]> batches = conversion.get();
+                Model model = new LinkedHashModel();
+                for (int i = 0; i < batches.size(); i++) {
+                    Statement[] batch = batches.get(i);
+                    assertTrue(i == batches.size() - 1 ? batch.length <= 64 : batch.length == 64);
+                    model.addAll(Arrays.asList(batch));
+                }
+                assertTrue(Models.isomorphic(expected, model));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancels() throws IOException {
+        String gfa = gfa(2000);
+        GFAConverter converter = new GFAConverter(BASE, false, false);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<Statement[]> batches = new ArrayList<>();
+        assertThrows(CancellationException.class, () -> converter.convert(in(gfa), 100, batch -> {
+            batches.add(batch);
+            cancelled.set(true);
+        }, cancelled::get));
+        // Stops within the statements between two checks.
+        assertTrue(batches.size() * 100 <= 1 + GFAConverter.CANCELLATION_CHECK_INTERVAL + 100);
+
+        Model model = new LinkedHashModel();
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class,
+                    () -> converter.convert(in(gfa), new StatementCollector(model)));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertTrue(model.isEmpty());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import picocli.CommandLine;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class GFAIndexTest {
+    private static final int NODES = 3000;
+
+    private static String segment(int id) {
+        return "S\t" + id + '\t' + "ACGT".repeat(100 + id % 7) + '\n';
+    }
+
+    private static String link(int id) {
+        return "L\t" + id + "\t+\t" + (id + 1) + "\t-\t0M\n";
+    }
+
+    private static final String PATH_B = "P\tb\t12+,13-,14+,12+\t*\n";
+
+    @ParameterizedTest
+    @ValueSource(strings = { "DIRECT", "RIO" })
+    public void testConvertsOnlyTheSelection(String engine, @TempDir Path tempDir) throws IOException {
+        StringBuilder gfa = new StringBuilder("H\tVN:Z:1.0\n");
+        for (int i = 1; i <= NODES; i++) {
+            gfa.append(segment(i));
+        }
+        gfa.append("S\tnamed\tA\n");
+        for (int i = 1; i < NODES; i++) {
+            gfa.append(link(i));
+        }
+        gfa.append("P\ta\t1+,2+,3+\t*\n").append(PATH_B).append("P\tc\t2999+,3000-\t*\n");
+        Path input = tempDir.resolve("graph.gfa");
+        Files.writeString(input, gfa, StandardCharsets.US_ASCII);
+
+        // The same records on their own, converted the usual way.
+        StringBuilder selection = new StringBuilder();
+        for (int i = 10; i <= 20; i++) {
+            selection.append(segment(i));
+        }
+        for (int i = 10; i < 20; i++) {
+            selection.append(link(i));
+        }
+        selection.append(PATH_B);
+        Path selected = tempDir.resolve("selected.gfa");
+        Files.writeString(selected, selection, StandardCharsets.US_ASCII);
+        List<String> options = List.of("--engine", engine, "--rdf-format", "application/n-triples", "--extra",
+                "--report-interval", "0", "--metrics-json", tempDir.resolve("metrics.json").toString());
+        Path expected = tempDir.resolve("expected.nt");
+        assertEquals(0, execute(options, selected, expected));
+
+        Path output = tempDir.resolve("output.nt");
+        List<String> selecting = new ArrayList<>(options);
+        // A path named twice is converted once.
+        selecting.addAll(List.of("--path", "b", "--node-range", "10-20", "--path", "b"));
+        assertEquals(0, execute(selecting, input, output));
+        assertEquals(Files.readString(expected), Files.readString(output));
+        assertTrue(Files.exists(GFAIndex.sidecarOf(input)));
+        assertTrue(Files.exists(NodeLengthsSidecar.sidecarOf(input)));
+
+        // Reused, and most chunks are skipped.
+        try (MappedGFAReader reader = new MappedGFAReader(input)) {
+            GFAIndex index = GFAIndex.loadOrBuild(input, reader);
+            assertEquals(gfa.indexOf(PATH_B), index.pathOffset("b"));
+            assertEquals(-1, index.pathOffset("missing"));
+            assertTrue(index.chunks().size() > 2);
+            assertEquals(2, index.chunks().stream().filter(c -> c.mayContain(10, 20)).count());
+        }
+
+        List<String> missing = new ArrayList<>(options);
+        missing.addAll(List.of("--path", "missing"));
+        assertNotEquals(0, execute(missing, input, tempDir.resolve("missing.nt")));
+
+        // Rejected before the earlier output is overwritten.
+        List<String> parallel = new ArrayList<>(options);
+        parallel.addAll(List.of("--path", "b", "--parallel", "2"));
+        assertNotEquals(0, execute(parallel, input, output));
+        assertEquals(Files.readString(expected), Files.readString(output));
+    }
+
+    private static int execute(List<String> options, Path input, Path output) {
+        String[] args = options.toArray(new String[options.size() + 2]);
+        args[options.size()] = input.toString();
+        args[options.size() + 1] = output.toString();
+        return new CommandLine(new GFA2RDF()).execute(args);
+    }
+}
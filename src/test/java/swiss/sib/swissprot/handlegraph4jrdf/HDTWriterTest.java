@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.eclipse.rdf4j.common.net.ParsedIRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import picocli.CommandLine;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class HDTWriterTest {
+    private static final String BASE = "http://example.org/vg/";
+
+    @Test
+    public void testChecksums() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xF4, HDTWriter.crc8(check, 0, check.length));
+        assertEquals(0xBB3D, HDTWriter.crc16(check, 0, check.length));
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "false,false,1073741824", "false,true,1024", "true,true,8192" })
+    public void testDecodesToDirectTriples(boolean preCompress, boolean extra, long memoryBudget,
+            @TempDir Path tempDir) throws IOException, URISyntaxException {
+        StringBuilder gfa = new StringBuilder();
+        for (int i = 1; i <= 300; i++) {
+            gfa.append("S\t").append(i).append('\t').append("ACGT".substring(0, 1 + i % 4)).append('\n');
+        }
+        gfa.append("S\tnamed\tGATTACA\n");
+        for (int i = 1; i < 300; i++) {
+            gfa.append("L\t").append(i).append("\t+\t").append(i + 1).append(i % 7 == 0 ? "\t-" : "\t+")
+                    .append("\t0M\n");
+        }
+        gfa.append("P\tx\t1+,2+,3-,named+,4+\t*\n");
+        gfa.append("P\ty\t5+,6+,5+,7+\t*\n");
+
+        GFA2RDF direct = new GFA2RDF();
+        direct.preCompress = preCompress;
+        direct.extra = extra;
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        Set<String> expected = new HashSet<>();
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            direct.writeConvertedToOutputStream(baos, new ParsedIRI(BASE), Stream.of(gfa.toString().split("\n")));
+            for (Statement statement : Rio.parse(new StringReader(baos.toString()), BASE, RDFFormat.NTRIPLES)) {
+                expected.add(hdtString(statement.getSubject()) + ' ' + hdtString(statement.getPredicate()) + ' '
+                        + hdtString(statement.getObject()));
+            }
+        }
+
+        ByteArrayOutputStream hdt = new ByteArrayOutputStream();
+        ConversionMetrics metrics = new ConversionMetrics();
+        try (HDTWriter writer = new HDTWriter(hdt, BASE, preCompress, extra, tempDir, memoryBudget, metrics);
+                StreamingGFAReader reader = new StreamingGFAReader(
+                        new ByteArrayInputStream(gfa.toString().getBytes(StandardCharsets.US_ASCII)))) {
+            reader.parse(new ByteRecordParser(writer, new NodeLengths(), extra, BASE));
+        }
+        assertEquals(direct.metrics.triples(), metrics.triples());
+        HDTFile decoded = new HDTFile(hdt.toByteArray());
+        assertEquals(expected, new HashSet<>(decoded.triples));
+        assertEquals(expected.size(), decoded.triples.size());
+        assertTrue(decoded.header.contains("<http://rdfs.org/ns/void#triples> \"" + expected.size() + "\""));
+        assertTrue(decoded.shared.contains(BASE + "node/named"));
+        try (Stream<Path> left = Files.list(tempDir)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    public void testEngineWritesHDT(@TempDir Path tempDir) throws IOException {
+        Path gfa = tempDir.resolve("test.gfa");
+        Path output = tempDir.resolve("test.hdt");
+        Files.writeString(gfa, "S\t1\tACGT\nS\t2\tT\nL\t1\t+\t2\t+\t0M\nP\tx\t1+,2+\t*\n",
+                StandardCharsets.US_ASCII);
+        assertEquals(0, new CommandLine(new GFA2RDF()).execute("--engine", "HDT", "--report-interval", "0",
+                "--spill-directory", tempDir.toString(), "--metrics-json", tempDir.resolve("metrics.json").toString(),
+                gfa.toString(), output.toString()));
+        HDTFile decoded = new HDTFile(Files.readAllBytes(output));
+        // 2 nodes with 2 triples, 1 link, 1 path and 2 steps of 5 triples.
+        assertEquals(2 * 2 + 1 + 1 + 2 * 5, decoded.triples.size());
+    }
+
+    private static String hdtString(Value value) {
+        if (value instanceof Literal) {
+            Literal literal = (Literal) value;
+            String quoted = '"' + literal.getLabel() + '"';
+            return XSD.STRING.equals(literal.getDatatype()) ? quoted : quoted + "^^<" + literal.getDatatype() + '>';
+        }
+        return value.stringValue();
+    }
+
+    /**
+     * Decodes an HDT file with a four section dictionary and bitmap triples,
+     * checking every checksum.
+     */
+    private static final class HDTFile {
+        private final byte[] bytes;
+        private int pos;
+        private final String header;
+        private final List<String> shared;
+        private final List<String> subjects;
+        private final List<String> predicates;
+        private final List<String> objects;
+        private final List<String> triples = new ArrayList<>();
+
+        private HDTFile(byte[] bytes) {
+            this.bytes = bytes;
+            assertEquals(HDTWriter.HDT_CONTAINER, controlInformation(HDTWriter.GLOBAL).get("format"));
+            Map<String, String> headerInformation = controlInformation(HDTWriter.HEADER);
+            int headerLength = Integer.parseInt(headerInformation.get("length"));
+            header = new String(bytes, pos, headerLength, StandardCharsets.UTF_8);
+            pos += headerLength;
+            Map<String, String> dictionary = controlInformation(HDTWriter.DICTIONARY);
+            assertEquals(HDTWriter.DICTIONARY_FOUR, dictionary.get("format"));
+            shared = section();
+            subjects = section();
+            predicates = section();
+            objects = section();
+            assertEquals(shared.size() + subjects.size() + predicates.size() + objects.size(),
+                    Long.parseLong(dictionary.get("elements")));
+            Map<String, String> triplesInformation = controlInformation(HDTWriter.TRIPLES);
+            assertEquals(HDTWriter.TRIPLES_BITMAP, triplesInformation.get("format"));
+            assertEquals("1", triplesInformation.get("order"));
+            long[] bitmapY = bitmap();
+            long[] bitmapZ = bitmap();
+            long[] seqY = sequence();
+            long[] seqZ = sequence();
+            assertEquals(bytes.length, pos);
+            int z = 0;
+            long subject = 1;
+            for (int y = 0; y < seqY.length; y++) {
+                String predicate = predicates.get((int) seqY[y] - 1);
+                boolean last;
+                do {
+                    triples.add(term(subject, subjects) + ' ' + predicate + ' ' + term(seqZ[z], objects));
+                    last = bitmapZ[z++] == 1;
+                } while (!last);
+                if (bitmapY[y] == 1) {
+                    subject++;
+                }
+            }
+            assertEquals(seqZ.length, z);
+            assertEquals(shared.size() + subjects.size() + 1, subject);
+        }
+
+        private String term(long id, List<String> notShared) {
+            return id <= shared.size() ? shared.get((int) id - 1) : notShared.get((int) id - shared.size() - 1);
+        }
+
+        private Map<String, String> controlInformation(int type) {
+            int start = pos;
+            assertArrayEquals(HDTWriter.COOKIE, Arrays.copyOfRange(bytes, pos, pos + 4));
+            pos += 4;
+            assertEquals(type, bytes[pos++]);
+            Map<String, String> information = new HashMap<>();
+            information.put("format", cString());
+            for (String property : cString().split(";")) {
+                if (!property.isEmpty()) {
+                    String[] keyValue = property.split("=", 2);
+                    information.put(keyValue[0], keyValue[1]);
+                }
+            }
+            int crc = HDTWriter.crc16(bytes, start, pos - start);
+            assertEquals(crc, (bytes[pos] & 0xFF) | (bytes[pos + 1] & 0xFF) << 8);
+            pos += 2;
+            return information;
+        }
+
+        private List<String> section() {
+            int start = pos;
+            assertEquals(HDTWriter.TYPE_PFC, bytes[pos++]);
+            long count = vbyte();
+            int textLength = (int) vbyte();
+            int blockSize = (int) vbyte();
+            crc8(start);
+            long[] blocks = sequence();
+            int textStart = pos;
+            List<String> strings = new ArrayList<>();
+            byte[] previous = new byte[0];
+            for (int i = 0; i < count; i++) {
+                int prefix = 0;
+                if (i % blockSize == 0) {
+                    assertEquals(blocks[i / blockSize], pos - textStart);
+                } else {
+                    prefix = (int) vbyte();
+                }
+                int end = pos;
+                while (bytes[end] != 0) {
+                    end++;
+                }
+                byte[] string = Arrays.copyOf(previous, prefix + end - pos);
+                System.arraycopy(bytes, pos, string, prefix, end - pos);
+                pos = end + 1;
+                String value = new String(string, StandardCharsets.UTF_8);
+                if (!strings.isEmpty()) {
+                    assertTrue(Arrays.compareUnsigned(previous, string) < 0, value);
+                }
+                strings.add(value);
+                previous = string;
+            }
+            assertEquals(textLength, pos - textStart);
+            assertEquals(textLength, blocks[blocks.length - 1]);
+            crc32(textStart);
+            return strings;
+        }
+
+        private long[] bitmap() {
+            int start = pos;
+            assertEquals(HDTWriter.TYPE_BITMAP_PLAIN, bytes[pos++]);
+            int bits = (int) vbyte();
+            crc8(start);
+            return unpack(bits, 1);
+        }
+
+        private long[] sequence() {
+            int start = pos;
+            assertEquals(HDTWriter.TYPE_SEQUENCE_LOG, bytes[pos++]);
+            int bitsPerEntry = bytes[pos++];
+            int entries = (int) vbyte();
+            crc8(start);
+            return unpack(entries, bitsPerEntry);
+        }
+
+        private long[] unpack(int entries, int bitsPerEntry) {
+            int dataStart = pos;
+            long[] values = new long[entries];
+            for (int i = 0; i < entries; i++) {
+                for (int bit = 0; bit < bitsPerEntry; bit++) {
+                    long at = (long) i * bitsPerEntry + bit;
+                    if ((bytes[dataStart + (int) (at / 8)] >>> (at % 8) & 1) != 0) {
+                        values[i] |= 1L << bit;
+                    }
+                }
+            }
+            pos += (int) (((long) entries * bitsPerEntry + 7) / 8);
+            crc32(dataStart);
+            return values;
+        }
+
+        private void crc8(int start) {
+            assertEquals(HDTWriter.crc8(bytes, start, pos - start), bytes[pos++] & 0xFF);
+        }
+
+        private void crc32(int start) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, start, pos - start);
+            int written = 0;
+            for (int i = 0; i < 4; i++) {
+                written |= (bytes[pos++] & 0xFF) << (8 * i);
+            }
+            assertEquals((int) crc.getValue(), written);
+        }
+
+        private long vbyte() {
+            long value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = bytes[pos++] & 0xFF;
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) != 0) {
+                    return value;
+                }
+            }
+        }
+
+        private String cString() {
+            int end = pos;
+            while (bytes[end] != 0) {
+                end++;
+            }
+            String value = new String(bytes, pos, end - pos, StandardCharsets.UTF_8);
+            pos = end + 1;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class NodeIRICacheTest {
+    private static final String NODE = "http://example.org/vg/node/";
+
+    @Test
+    public void testSameIRIForEveryKindOfKey() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        NodeIRICache cache = cache(16, metrics);
+        IRI one = cache.get("1");
+        assertEquals(NODE + "1", one.stringValue());
+        assertSame(one, cache.get(1));
+        assertSame(one, cache.get(true, 1, bytes("1")));
+        assertSame(one, cache.get(ByteBuffer.wrap(bytes("S\t1\t")), 2, 3));
+        IRI named = cache.get(ByteBuffer.wrap(bytes("chr1_7")), 0, 6);
+        assertSame(named, cache.get("chr1_7"));
+        assertSame(named, cache.get(false, 0, bytes("chr1_7")));
+        assertEquals(2, metrics.nodeIRICacheMisses());
+        assertEquals(5, metrics.nodeIRICacheHits());
+    }
+
+    @Test
+    public void testLeadingZerosAreNotTheSameNode() {
+        NodeIRICache cache = cache(16, new ConversionMetrics());
+        IRI seven = cache.get(7);
+        IRI zeroSeven = cache.get(true, 7, bytes("007"));
+        assertEquals(NODE + "007", zeroSeven.stringValue());
+        assertNotEquals(seven, zeroSeven);
+        assertSame(zeroSeven, cache.get("007"));
+    }
+
+    @Test
+    public void testEvictsAndDisables() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        NodeIRICache single = cache(1, metrics);
+        IRI one = single.get(1);
+        single.get(2);
+        IRI again = single.get(1);
+        assertNotSame(one, again);
+        assertEquals(one, again);
+        assertEquals(3, metrics.nodeIRICacheMisses());
+
+        ConversionMetrics unused = new ConversionMetrics();
+        NodeIRICache none = cache(0, unused);
+        assertNotSame(none.get(1), none.get(1));
+        assertEquals(0, unused.nodeIRICacheHits() + unused.nodeIRICacheMisses());
+    }
+
+    private static NodeIRICache cache(int capacity, ConversionMetrics metrics) {
+        return new NodeIRICache("node", capacity, id -> SimpleValueFactory.getInstance().createIRI(NODE + id),
+                metrics);
+    }
+
+    private static byte[] bytes(String id) {
+        return id.getBytes(StandardCharsets.US_ASCII);
+    }
+}
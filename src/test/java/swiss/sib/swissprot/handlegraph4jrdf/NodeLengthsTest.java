@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class NodeLengthsTest {
+
+    @Test
+    public void testDenseSparseAndNamedIds() {
+        try (NodeLengths lengths = new NodeLengths()) {
+            fill(lengths);
+            check(lengths);
+            try (NodeLengths merged = new NodeLengths()) {
+                merged.putAll(lengths);
+                check(merged);
+            }
+        }
+    }
+
+    @Test
+    public void testIdsParsedAsLongOnlyByHandlegraph4j() {
+        try (NodeLengths lengths = new NodeLengths()) {
+            // Long.parseLong reads these, but they are stored by their bytes.
+            lengths.put("1000000000000000000", 7);
+            lengths.put("+5", 3);
+            lengths.put("5", 9);
+            assertEquals(7, lengths.get("1000000000000000000".getBytes(StandardCharsets.US_ASCII)));
+            assertEquals(3, lengths.get("+5".getBytes(StandardCharsets.US_ASCII)));
+            assertEquals(9, lengths.get("5".getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    @Test
+    public void testTableSpansPages() {
+        OffHeapAllocator allocator = new OffHeapAllocator();
+        // Pages of 16 slots, as the maps use pages of up to 1GB.
+        OffHeapTable table = OffHeapTable.allocate(allocator, 1024, 16, 256);
+        assertEquals(64, table.pages());
+        for (long slot = 0; slot < 1024; slot++) {
+            table.putLong(slot, 0, slot * 31);
+            table.putInt(slot, 12, (int) slot);
+        }
+        for (long slot = 0; slot < 1024; slot++) {
+            assertEquals(slot * 31, table.getLong(slot, 0));
+            assertEquals(slot, table.getInt(slot, 12));
+        }
+        table.release(allocator);
+        assertEquals(0, allocator.used());
+        assertEquals(1, OffHeapTable.allocate(allocator, 1024, 16).pages());
+    }
+
+    @Test
+    public void testSpillsBeyondBudget(@TempDir Path spillDirectory) throws IOException {
+        OffHeapAllocator allocator = new OffHeapAllocator(1024 * 1024, spillDirectory);
+        try (NodeLengths lengths = new NodeLengths(allocator)) {
+            fill(lengths);
+            check(lengths);
+            assertTrue(allocator.used() <= 1024 * 1024);
+            assertTrue(countFiles(spillDirectory) > 0);
+        }
+        assertEquals(0, countFiles(spillDirectory));
+    }
+
+    @Test
+    public void testReleaseHandsBackMemory() {
+        OffHeapAllocator allocator = new OffHeapAllocator();
+        try (NodeLengths merged = new NodeLengths(allocator)) {
+            NodeLengths range = new NodeLengths(allocator);
+            fill(range);
+            merged.putAll(range);
+            long used = allocator.used();
+            range.release();
+            assertTrue(allocator.used() < used);
+            check(merged);
+            assertEquals(0, range.get("chr1_0"));
+            merged.release();
+            assertEquals(0, allocator.used());
+        }
+    }
+
+    @Test
+    public void testSidecarOfPathsBeforeSegments(@TempDir Path directory) throws IOException {
+        Path gfa = directory.resolve("paths-first.gfa");
+        Files.writeString(gfa, "H\tVN:Z:1.0\nP\tx\t1+,chr1_7-,5000000000+\t*\nS\t1\tACGT\tLN:i:4\n"
+                + "S\tchr1_7\tAC\nS\t5000000000\tACGTACGTAC\r\nS\t2\tA", StandardCharsets.US_ASCII);
+        Path sidecar = NodeLengthsSidecar.sidecarOf(gfa);
+        try (NodeLengths lengths = NodeLengthsSidecar.loadOrBuild(gfa, new OffHeapAllocator())) {
+            assertTrue(Files.exists(sidecar));
+            assertEquals(4, lengths.get("1"));
+            assertEquals(2, lengths.get("chr1_7"));
+            assertEquals(10, lengths.get("5000000000"));
+            assertEquals(1, lengths.get("2"));
+            // Segments seen again during the conversion are ignored.
+            lengths.put("1", 40);
+            assertEquals(4, lengths.get("1"));
+        }
+        long written = Files.getLastModifiedTime(sidecar).toMillis();
+        try (NodeLengths lengths = NodeLengthsSidecar.loadOrBuild(gfa, new OffHeapAllocator())) {
+            assertEquals(written, Files.getLastModifiedTime(sidecar).toMillis());
+            assertEquals(10, lengths.get("5000000000"));
+        }
+        Files.writeString(gfa, "\nS\t2\tAAA\n", StandardCharsets.US_ASCII, StandardOpenOption.APPEND);
+        try (NodeLengths lengths = NodeLengthsSidecar.loadOrBuild(gfa, new OffHeapAllocator())) {
+            assertEquals(3, lengths.get("2"));
+        }
+    }
+
+    private static void fill(NodeLengths lengths) {
+        for (int id = 1; id <= 200_000; id++) {
+            lengths.put(Integer.toString(id), id % 1000 + 1);
+        }
+        for (long id = 1L << 40; id < (1L << 40) + 50_000 * 7919L; id += 7919L) {
+            lengths.put(Long.toString(id), (int) (id % 1000) + 1);
+        }
+        for (int i = 0; i < 50_000; i++) {
+            lengths.put("chr1_" + i, i + 1);
+        }
+    }
+
+    private static void check(NodeLengths lengths) {
+        for (int id = 1; id <= 200_000; id++) {
+            assertEquals(id % 1000 + 1, lengths.get(Long.toString(id)));
+        }
+        for (long id = 1L << 40; id < (1L << 40) + 50_000 * 7919L; id += 7919L) {
+            assertEquals((int) (id % 1000) + 1, lengths.get(Long.toString(id)));
+        }
+        for (int i = 0; i < 50_000; i++) {
+            assertEquals(i + 1, lengths.get("chr1_" + i));
+        }
+        assertEquals(0, lengths.get("unknown"));
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
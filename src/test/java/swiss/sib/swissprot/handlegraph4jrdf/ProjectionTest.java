@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import picocli.CommandLine;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class ProjectionTest {
+    private static final String NODES = "H\tVN:Z:1.0\n" + "S\t1\tCAAATAAG\n" + "S\t2\tA\n" + "S\t3\tG\n"
+            + "S\t4\tT\n";
+    private static final String LINKS = "L\t1\t+\t2\t+\t0M\n" + "L\t1\t+\t3\t-\t0M\n" + "L\t2\t+\t4\t+\t0M\n";
+    private static final String PATHS = "P\tx\t1+,2+,4-\t*\n" + "P\ty\t1+,3+,4+\t*\n";
+    private static final String VALUE = "<http://www.w3.org/1999/02/22-rdf-syntax-ns#value>";
+
+    @ParameterizedTest
+    @ValueSource(strings = { "DIRECT --stream", "DIRECT --mmap", "DIRECT", "RIO --stream", "RIO --mmap",
+            "DIRECT --pipeline", "DIRECT --parallel 2" })
+    public void testLeavesOutWhatIsNotAskedFor(String settings, @TempDir Path tempDir) throws IOException {
+        Path input = write(tempDir, "graph.gfa", NODES + LINKS + PATHS);
+        List<String> options = new ArrayList<>(List.of("--rdf-format", "application/n-triples",
+                "--report-interval", "0", "--metrics-json", tempDir.resolve("metrics.json").toString(), "--engine"));
+        options.addAll(Arrays.asList(settings.split(" ")));
+        List<String> extra = with(options, "--extra");
+
+        // The records of one type on their own, converted the usual way.
+        String links = convert(options, write(tempDir, "links.gfa", LINKS), tempDir);
+        assertEquals(links, convert(with(options, "--only", "links"), input, tempDir));
+
+        // The steps still get their positions from the skipped nodes.
+        String all = convert(extra, input, tempDir);
+        String nodesAndLinks = convert(extra, write(tempDir, "nodes-and-links.gfa", NODES + LINKS), tempDir);
+        assertEquals(all.substring(nodesAndLinks.length()), convert(with(extra, "--only", "PATHS"), input, tempDir));
+
+        assertEquals(without(all, VALUE), convert(with(extra, "--no-sequence"), input, tempDir));
+        assertEquals(without(convert(options, input, tempDir), VALUE),
+                convert(with(options, "--no-sequence"), input, tempDir));
+
+        String topology = convert(with(options, "--no-steps", "--no-sequence"), input, tempDir);
+        assertEquals(without(without(without(convert(options, input, tempDir), VALUE), "/step/"), "/position/"),
+                topology);
+        assertFalse(topology.isEmpty());
+    }
+
+    private static Path write(Path tempDir, String name, String gfa) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, gfa, StandardCharsets.US_ASCII);
+        return file;
+    }
+
+    private static List<String> with(List<String> options, String... more) {
+        List<String> with = new ArrayList<>(options);
+        with.addAll(Arrays.asList(more));
+        return with;
+    }
+
+    private static String without(String ntriples, String containing) {
+        return ntriples.lines().filter(line -> !line.contains(containing))
+                .collect(Collectors.joining("\n", "", "\n"));
+    }
+
+    private static String convert(List<String> options, Path input, Path tempDir) throws IOException {
+        Path output = tempDir.resolve("output.nt");
+        String[] args = options.toArray(new String[options.size() + 2]);
+        args[options.size()] = input.toString();
+        args[options.size() + 1] = output.toString();
+        assertEquals(0, new CommandLine(new GFA2RDF()).setCaseInsensitiveEnumValuesAllowed(true).execute(args));
+        return Files.readString(output);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+
+import org.eclipse.rdf4j.common.net.ParsedIRI;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import com.sun.net.httpserver.HttpServer;
+
+import picocli.CommandLine;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class StoreLoaderTest {
+    private static final String BASE = "http://example.org/vg/";
+
+    /**
+     * Keeps what was committed, and the order in which the loader called it.
+     */
+    private static final class RecordingStore implements StoreLoader.Store {
+        private final Model committed = new LinkedHashModel();
+        private final List<Statement> transaction = new ArrayList<>();
+        private final List<String> calls = new ArrayList<>();
+        private int largestBatch;
+        private int largestTransaction;
+
+        @Override
+        public void begin() {
+            assertTrue(transaction.isEmpty());
+            calls.add("begin");
+        }
+
+        @Override
+        public void add(List<Statement> statements) {
+            largestBatch = Math.max(largestBatch, statements.size());
+            transaction.addAll(statements);
+        }
+
+        @Override
+        public void commit() {
+            calls.add("commit");
+            largestTransaction = Math.max(largestTransaction, transaction.size());
+            committed.addAll(transaction);
+            transaction.clear();
+        }
+
+        @Override
+        public void rollback() {
+            calls.add("rollback");
+            transaction.clear();
+        }
+
+        @Override
+        public void setNamespace(String prefix, String name) {
+            committed.setNamespace(prefix, name);
+        }
+
+        @Override
+        public void deferIndexes() {
+            calls.add("deferIndexes");
+        }
+
+        @Override
+        public void buildIndexes() {
+            calls.add("buildIndexes");
+        }
+    }
+
+    private static String gfa(int nodes) {
+        StringBuilder gfa = new StringBuilder();
+        for (int i = 1; i <= nodes; i++) {
+            gfa.append("S\t").append(i).append("\tACG\n");
+        }
+        for (int i = 1; i < nodes; i++) {
+            gfa.append("L\t").append(i).append("\t+\t").append(i + 1).append("\t-\t0M\n");
+        }
+        gfa.append("P\tx\t1+,2-,3+\t*\n");
+        return gfa.toString();
+    }
+
+    @Test
+    public void testLoadsInBatchedTransactions() throws IOException, URISyntaxException {
+        String gfa = gfa(20);
+        GFA2RDF converter = new GFA2RDF();
+        converter.extra = true;
+        RecordingStore store = new RecordingStore();
+        StoreLoader loader = new StoreLoader(store, 3, 7);
+        try (StreamingGFAReader reader = new StreamingGFAReader(
+                new ByteArrayInputStream(gfa.getBytes(StandardCharsets.US_ASCII)))) {
+            converter.loadConvertedIntoStore(reader, loader);
+        }
+
+        GFA2RDF direct = new GFA2RDF();
+        direct.extra = true;
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        ByteArrayOutputStream nt = new ByteArrayOutputStream();
+        direct.writeConvertedToOutputStream(nt, new ParsedIRI(BASE), Stream.of(gfa.split("\n")));
+        Model expected = Rio.parse(new StringReader(nt.toString(StandardCharsets.US_ASCII)), BASE,
+                RDFFormat.NTRIPLES);
+        assertTrue(Models.isomorphic(expected, store.committed));
+        assertEquals(direct.metrics.triples(), converter.metrics.triples());
+
+        assertEquals(3, store.largestBatch);
+        assertEquals(7, store.largestTransaction);
+        assertEquals("deferIndexes", store.calls.get(0));
+        assertEquals("buildIndexes", store.calls.get(store.calls.size() - 1));
+        long commits = store.calls.stream().filter("commit"::equals).count();
+        assertEquals(commits, store.calls.stream().filter("begin"::equals).count());
+        assertEquals((converter.metrics.triples() + 6) / 7, commits);
+        assertEquals(commits, loader.commits());
+        assertEquals(VG.NAMESPACE, store.committed.getNamespace(VG.PREFIX).get().getName());
+    }
+
+    @Test
+    public void testFailureRollsBackTheOpenTransaction() throws IOException {
+        String gfa = gfa(20) + "L\t1\n";
+        GFA2RDF converter = new GFA2RDF();
+        RecordingStore store = new RecordingStore();
+        try (StreamingGFAReader reader = new StreamingGFAReader(
+                new ByteArrayInputStream(gfa.getBytes(StandardCharsets.US_ASCII)))) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> converter.loadConvertedIntoStore(reader, new StoreLoader(store, 3, 7)));
+        }
+        // The indexes are built for what was committed before the failure.
+        assertEquals(List.of("rollback", "buildIndexes"), store.calls.subList(store.calls.size() - 2,
+                store.calls.size()));
+        assertEquals(0, store.committed.size() % 7);
+        assertTrue(store.committed.size() < converter.metrics.triples());
+    }
+
+    @Test
+    public void testLoadsThroughThePublicConverter() throws IOException {
+        RecordingStore store = new RecordingStore();
+        StoreLoader loader = new StoreLoader(store, 5, 11);
+        long statements = new GFAConverter(BASE, false, false)
+                .load(new ByteArrayInputStream(gfa(20).getBytes(StandardCharsets.US_ASCII)), loader);
+        assertEquals(statements, store.committed.size());
+        assertEquals((statements + 10) / 11, loader.commits());
+        assertEquals("buildIndexes", store.calls.get(store.calls.size() - 1));
+
+        // Cancelled once something is committed, the rest is rolled back.
+        RecordingStore cancelled = new RecordingStore();
+        assertThrows(CancellationException.class, () -> new GFAConverter(BASE, false, false)
+                .load(new ByteArrayInputStream(gfa(1000).getBytes(StandardCharsets.US_ASCII)),
+                        new StoreLoader(cancelled, 5, 11), () -> !cancelled.committed.isEmpty()));
+        assertEquals(List.of("rollback", "buildIndexes"), cancelled.calls.subList(cancelled.calls.size() - 2,
+                cancelled.calls.size()));
+        assertTrue(cancelled.committed.size() > 1000);
+    }
+
+    @ParameterizedTest
+    @EnumSource(EmbeddedStore.Type.class)
+    public void testLoadsIntoAnEmbeddedStore(EmbeddedStore.Type type, @TempDir Path tempDir)
+            throws IOException, URISyntaxException {
+        Path input = tempDir.resolve("graph.gfa");
+        Files.writeString(input, gfa(20), StandardCharsets.US_ASCII);
+        Path directory = tempDir.resolve("store");
+        assertEquals(0, new CommandLine(new GFA2RDF()).execute("--store-dir", directory.toString(), "--store-type",
+                type.name(), "--store-graph", BASE + "graph", "--store-commit-size", "10",
+                "--report-interval", "0", "--metrics-json", tempDir.resolve("metrics.json").toString(),
+                input.toString()));
+        if (type == EmbeddedStore.Type.NATIVE) {
+            // The index left out while loading was built afterwards.
+            assertTrue(Files.exists(directory.resolve("triples-posc.dat")));
+        }
+
+        GFA2RDF direct = new GFA2RDF();
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        ByteArrayOutputStream nt = new ByteArrayOutputStream();
+        direct.writeConvertedToOutputStream(nt, new ParsedIRI(BASE), Stream.of(gfa(20).split("\n")));
+        Model expected = Rio.parse(new StringReader(nt.toString(StandardCharsets.US_ASCII)), BASE,
+                RDFFormat.NTRIPLES);
+        try (EmbeddedStore store = new EmbeddedStore(directory, type, EmbeddedStore.DEFAULT_INDEXES, null)) {
+            RepositoryConnection connection = store.getConnection();
+            IRI graph = connection.getValueFactory().createIRI(BASE + "graph");
+            Model loaded = new LinkedHashModel();
+            try (RepositoryResult<Statement> statements = connection.getStatements(null, null, null, false, graph)) {
+                statements.forEach(st -> loaded.add(st.getSubject(), st.getPredicate(), st.getObject()));
+            }
+            assertEquals(expected.size(), loaded.size());
+            assertTrue(Models.isomorphic(expected, loaded));
+            // Found through the index on the predicate.
+            assertEquals(expected.filter(null, RDF.TYPE, null).size(),
+                    QueryResults.asModel(connection.getStatements(null, RDF.TYPE, null, false, graph)).size());
+            assertEquals(VG.NAMESPACE, connection.getNamespace(VG.PREFIX));
+        }
+    }
+
+    @Test
+    public void testLoadsIntoAGraphStore(@TempDir Path tempDir) throws IOException, URISyntaxException {
+        List<String> posts = new ArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/store", exchange -> {
+            synchronized (posts) {
+                posts.add(exchange.getRequestMethod() + ' ' + exchange.getRequestURI().getQuery() + ' '
+                        + exchange.getRequestHeaders().getFirst("Content-Type"));
+                posts.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            Path input = tempDir.resolve("graph.gfa");
+            Files.writeString(input, gfa(20), StandardCharsets.US_ASCII);
+            String endpoint = "http://localhost:" + server.getAddress().getPort() + "/store";
+            assertEquals(0, new CommandLine(new GFA2RDF()).execute("--graph-store", endpoint, "--store-graph",
+                    BASE + "graph", "--store-commit-size", "10", "--report-interval", "0", "--metrics-json",
+                    tempDir.resolve("metrics.json").toString(), input.toString()));
+        } finally {
+            server.stop(0);
+        }
+        Model loaded = new LinkedHashModel();
+        for (int i = 0; i < posts.size(); i += 2) {
+            assertEquals("POST graph=" + BASE + "graph application/n-triples", posts.get(i));
+            loaded.addAll(Rio.parse(new StringReader(posts.get(i + 1)), BASE, RDFFormat.NTRIPLES));
+        }
+        GFA2RDF direct = new GFA2RDF();
+        direct.engine = GFA2RDF.Engine.DIRECT;
+        ByteArrayOutputStream nt = new ByteArrayOutputStream();
+        direct.writeConvertedToOutputStream(nt, new ParsedIRI(BASE), Stream.of(gfa(20).split("\n")));
+        assertTrue(Models.isomorphic(
+                Rio.parse(new StringReader(nt.toString(StandardCharsets.US_ASCII)), BASE, RDFFormat.NTRIPLES),
+                loaded));
+        assertEquals((direct.metrics.triples() + 9) / 10, posts.size() / 2);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Jerven Bolleman <jerven.bolleman@sib.swiss>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package swiss.sib.swissprot.handlegraph4jrdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author <a href="mailto:jerven.bolleman@sib.swiss">Jerven Bolleman</a>
+ */
+public class StreamingGFAReaderTest {
+
+    @Test
+    public void testPathLineLargerThanBuffer() throws IOException {
+        int steps = 100_000;
+        StringBuilder gfa = new StringBuilder("S\t1\tACGT\nS\t2\tA\nP\tlong\t");
+        StringBuilder overlaps = new StringBuilder();
+        for (int i = 0; i < steps; i++) {
+            if (i > 0) {
+                gfa.append(',');
+                overlaps.append(',');
+            }
+            gfa.append(i % 2 + 1).append(i % 3 == 0 ? '-' : '+');
+            overlaps.append("0M");
+        }
+        gfa.append('\t').append(overlaps).append("\nL\t1\t+\t2\t-\t0M\n");
+
+        CountingSink sink = new CountingSink();
+        ByteRecordParser parser = new ByteRecordParser(sink, new NodeLengths(), true, "http://example.org/vg/");
+        try (StreamingGFAReader reader = new StreamingGFAReader(
+                new ByteArrayInputStream(gfa.toString().getBytes(StandardCharsets.US_ASCII)), 64)) {
+            reader.parse(parser);
+            assertEquals(64, reader.capacity());
+        }
+        assertEquals(2, sink.nodes);
+        assertEquals(1, sink.links);
+        assertEquals(steps, sink.steps);
+        assertEquals(steps, sink.lastRank);
+        // Half of the steps visit node 1 (4bp) and half node 2 (1bp).
+        assertEquals(1 + steps / 2 * 4 + steps / 2, sink.lastEnd);
+        assertTrue(sink.pathEnded);
+    }
+
+    @Test
+    public void testSegmentLargerThanBuffer(@TempDir Path tempDir) throws IOException {
+        String sequence = "ACGT".repeat(25_000);
+        String gfa = "S\t1\t" + sequence + "\tLN:i:100000\r\nS\t2\tA\r\nL\t1\t+\t2\t-\t0M\r\n"
+                + "P\tp\t1+,2-,3+\t*\r\nS\t3\t" + sequence + "\r\n";
+        Path input = tempDir.resolve("long.gfa");
+        Files.writeString(input, gfa, StandardCharsets.US_ASCII);
+
+        // Memory mapped lines are always complete, so the sequence comes in one go.
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (MappedGFAReader reader = new MappedGFAReader(input)) {
+            convert(reader, new NodeLengths(), expected);
+        }
+        // Buffer sizes that split the line ends at different places.
+        for (int bufferSize = 16; bufferSize < 48; bufferSize++) {
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            NodeLengths nodeLengths = new NodeLengths();
+            try (StreamingGFAReader reader = new StreamingGFAReader(Files.newInputStream(input), bufferSize)) {
+                convert(reader, nodeLengths, streamed);
+                assertEquals(bufferSize, reader.capacity());
+            }
+            String ntriples = streamed.toString(StandardCharsets.US_ASCII);
+            assertEquals(expected.toString(StandardCharsets.US_ASCII), ntriples);
+            assertTrue(ntriples.contains('"' + sequence + '"'));
+            assertEquals(sequence.length(), nodeLengths.get(ByteBuffer.wrap(new byte[] { '3' }), 0, 1));
+        }
+
+        // Without a sink that takes the sequence in pieces, they are skipped.
+        CountingSink sink = new CountingSink();
+        ByteRecordParser parser = new ByteRecordParser(sink, new NodeLengths(), false, "http://example.org/vg/")
+                .projection(Projection.of(List.of(), true, false));
+        try (StreamingGFAReader reader = new StreamingGFAReader(Files.newInputStream(input), 64)) {
+            reader.parse(parser);
+            assertEquals(64, reader.capacity());
+        }
+        assertEquals(3, sink.nodes);
+    }
+
+    private static void convert(ByteInput input, NodeLengths nodeLengths, ByteArrayOutputStream out)
+            throws IOException {
+        ConversionMetrics metrics = new ConversionMetrics();
+        // A write buffer much smaller than the sequences.
+        try (DirectNTriplesWriter writer = new DirectNTriplesWriter(out, "http://example.org/vg/", false, true, 128,
+                metrics)) {
+            input.parse(new ByteRecordParser(writer, nodeLengths, true, "http://example.org/vg/", metrics));
+        }
+    }
+
+    private static class CountingSink implements RecordSink {
+        private int nodes;
+        private int links;
+        private int steps;
+        private long lastRank;
+        private long lastEnd;
+        private boolean pathEnded;
+
+        @Override
+        public void node(ByteBuffer line, int nameStart, int nameEnd, int sequenceStart, int sequenceEnd) {
+            nodes++;
+        }
+
+        @Override
+        public void link(ByteBuffer line, int fromStart, int fromEnd, boolean reverseOfFrom, int toStart,
+                int toEnd, boolean reverseOfTo) {
+            links++;
+        }
+
+        @Override
+        public void startPath(String pathIRI) {
+            assertTrue(pathIRI.startsWith("http://example.org/vg/path/"));
+        }
+
+        @Override
+        public void step(long rank, ByteBuffer line, int nodeStart, int nodeEnd, long begin, long end) {
+            assertEquals(1, nodeEnd - nodeStart);
+            steps++;
+            lastRank = rank;
+            lastEnd = end;
+        }
+
+        @Override
+        public void endPath() {
+            pathEnded = true;
+        }
+    }
+}